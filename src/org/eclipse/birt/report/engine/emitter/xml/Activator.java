@@ -27,6 +27,7 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		EmitterMetrics.getInstance().register();
 	}
 
 	/*
@@ -34,6 +35,7 @@ public class Activator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		EmitterMetrics.getInstance().unregister();
 		plugin = null;
 		super.stop(context);
 	}
@@ -0,0 +1,389 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stream handing its data to a dedicated thread that writes it to the
+ * target stream, so that rendering goes on while the target blocks.
+ * <p>
+ * The data is collected in fixed-size buffers. A full buffer is queued for the
+ * I/O thread, which writes it and returns it to a pool of free buffers. At
+ * most <code>buffers</code> buffers exist; when all are queued, the writing
+ * thread waits for the I/O thread to return one.
+ * <p>
+ * When the target fails, the I/O thread keeps the error and drops the
+ * remaining data. The error is thrown by the next write, by
+ * {@link #flush()} and by {@link #close()}, and is available from
+ * {@link #getError()}.
+ * <p>
+ * {@link #abort()} stops the I/O thread without writing the queued data. The
+ * I/O thread only refers to the stream weakly, and also stops when the stream
+ * was dropped without being closed.
+ */
+public class AsyncOutputStream extends OutputStream
+{
+
+	/**
+	 * the default size of a buffer
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final AtomicInteger threadNumber = new AtomicInteger( );
+
+	private static final Chunk FLUSH = new Chunk( null );
+
+	private static final Chunk CLOSE = new Chunk( null );
+
+	private static final Chunk ABORT = new Chunk( null );
+
+	/**
+	 * how often the idle I/O thread checks that the stream is still used, in
+	 * milliseconds
+	 */
+	private static final long IDLE_CHECK = 1000;
+
+	private final BlockingQueue<Chunk> queue;
+
+	private final BlockingQueue<Chunk> free;
+
+	private final int bufferSize;
+
+	private final int maxBuffers;
+
+	private int buffers;
+
+	private Chunk current;
+
+	private final Thread thread;
+
+	private final ChunkWriter writer;
+
+	private boolean closed;
+
+	/**
+	 * @param out
+	 *            the target stream
+	 * @param bufferSize
+	 *            the size of a buffer, 0 for the default
+	 * @param maxBuffers
+	 *            the number of buffers, at least 2
+	 */
+	public AsyncOutputStream( OutputStream out, int bufferSize, int maxBuffers )
+	{
+		this.bufferSize = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+		this.maxBuffers = Math.max( 2, maxBuffers );
+		// room for every buffer and the markers
+		this.queue = new ArrayBlockingQueue<Chunk>( this.maxBuffers + 2 );
+		this.free = new ArrayBlockingQueue<Chunk>( this.maxBuffers );
+		this.current = newChunk( );
+		this.writer = new ChunkWriter( this, out, queue, free );
+		this.thread = new Thread( writer,
+				"XMLEmitter-Writer-" + threadNumber.incrementAndGet( ) ); //$NON-NLS-1$
+		thread.setDaemon( true );
+		thread.start( );
+	}
+
+	/**
+	 * @return the error of the target stream, or <code>null</code>
+	 */
+	public IOException getError( )
+	{
+		return writer.error;
+	}
+
+	public void write( int b ) throws IOException
+	{
+		checkError( );
+		if ( current.length == bufferSize )
+		{
+			handOff( );
+		}
+		current.data[current.length++] = (byte) b;
+	}
+
+	public void write( byte[] b, int off, int len ) throws IOException
+	{
+		checkError( );
+		while ( len > 0 )
+		{
+			if ( current.length == bufferSize )
+			{
+				handOff( );
+			}
+			int size = Math.min( len, bufferSize - current.length );
+			System.arraycopy( b, off, current.data, current.length, size );
+			current.length += size;
+			off += size;
+			len -= size;
+		}
+	}
+
+	/**
+	 * Queues the buffered data and asks the I/O thread to flush the target.
+	 * Does not wait for the data to be written.
+	 */
+	public void flush( ) throws IOException
+	{
+		checkError( );
+		if ( current.length > 0 )
+		{
+			handOff( );
+		}
+		put( FLUSH );
+	}
+
+	/**
+	 * Writes the remaining data, waits for the I/O thread and closes the
+	 * target.
+	 */
+	public void close( ) throws IOException
+	{
+		if ( closed )
+		{
+			return;
+		}
+		closed = true;
+		if ( current.length > 0 )
+		{
+			put( current );
+		}
+		put( CLOSE );
+		try
+		{
+			thread.join( );
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread( ).interrupt( );
+			throw new InterruptedIOException( e.getMessage( ) );
+		}
+		checkError( );
+	}
+
+	/**
+	 * Drops the queued data and stops the I/O thread, which closes the target.
+	 * Does not wait for the I/O thread, which may be blocked writing to the
+	 * target.
+	 */
+	public void abort( )
+	{
+		if ( closed )
+		{
+			return;
+		}
+		closed = true;
+		// only this thread puts, so the queue has room after clearing it
+		queue.clear( );
+		queue.offer( ABORT );
+	}
+
+	private void checkError( ) throws IOException
+	{
+		IOException e = writer.error;
+		if ( e != null )
+		{
+			IOException thrown = new IOException( e.getMessage( ) );
+			thrown.initCause( e );
+			throw thrown;
+		}
+	}
+
+	/**
+	 * Queues the current buffer and takes a free one, waiting if all buffers
+	 * are in use.
+	 */
+	private void handOff( ) throws IOException
+	{
+		put( current );
+		Chunk chunk = free.poll( );
+		if ( chunk == null )
+		{
+			if ( buffers < maxBuffers )
+			{
+				chunk = newChunk( );
+			}
+			else
+			{
+				try
+				{
+					while ( ( chunk = free.poll( IDLE_CHECK,
+							TimeUnit.MILLISECONDS ) ) == null )
+					{
+						checkAlive( );
+					}
+				}
+				catch ( InterruptedException e )
+				{
+					Thread.currentThread( ).interrupt( );
+					throw new InterruptedIOException( e.getMessage( ) );
+				}
+			}
+		}
+		current = chunk;
+	}
+
+	private void put( Chunk chunk ) throws IOException
+	{
+		try
+		{
+			while ( !queue.offer( chunk, IDLE_CHECK, TimeUnit.MILLISECONDS ) )
+			{
+				checkAlive( );
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread( ).interrupt( );
+			throw new InterruptedIOException( e.getMessage( ) );
+		}
+	}
+
+	/**
+	 * Fails instead of waiting for an I/O thread that stopped.
+	 */
+	private void checkAlive( ) throws IOException
+	{
+		if ( !thread.isAlive( ) )
+		{
+			checkError( );
+			throw new IOException( "The I/O thread stopped" ); //$NON-NLS-1$
+		}
+	}
+
+	private Chunk newChunk( )
+	{
+		buffers++;
+		return new Chunk( new byte[bufferSize] );
+	}
+
+	/**
+	 * The I/O thread. It does not refer to the stream, so that a stream that
+	 * is no longer used can be collected and the thread stopped.
+	 */
+	private static class ChunkWriter implements Runnable
+	{
+
+		final WeakReference<AsyncOutputStream> owner;
+
+		final OutputStream out;
+
+		final BlockingQueue<Chunk> queue;
+
+		final BlockingQueue<Chunk> free;
+
+		volatile IOException error;
+
+		ChunkWriter( AsyncOutputStream owner, OutputStream out,
+				BlockingQueue<Chunk> queue, BlockingQueue<Chunk> free )
+		{
+			this.owner = new WeakReference<AsyncOutputStream>( owner );
+			this.out = out;
+			this.queue = queue;
+			this.free = free;
+		}
+
+		public void run( )
+		{
+			while ( true )
+			{
+				Chunk chunk;
+				try
+				{
+					chunk = queue.poll( IDLE_CHECK, TimeUnit.MILLISECONDS );
+				}
+				catch ( InterruptedException e )
+				{
+					error = new InterruptedIOException( e.getMessage( ) );
+					closeTarget( );
+					return;
+				}
+				if ( chunk == null )
+				{
+					if ( owner.get( ) != null )
+					{
+						continue;
+					}
+					// the stream was dropped without being closed
+					chunk = ABORT;
+				}
+				if ( chunk == CLOSE || chunk == ABORT )
+				{
+					closeTarget( );
+					return;
+				}
+				if ( error == null )
+				{
+					try
+					{
+						if ( chunk == FLUSH )
+						{
+							out.flush( );
+						}
+						else
+						{
+							out.write( chunk.data, 0, chunk.length );
+						}
+					}
+					catch ( IOException e )
+					{
+						error = e;
+					}
+				}
+				if ( chunk != FLUSH )
+				{
+					chunk.length = 0;
+					free.offer( chunk );
+				}
+			}
+		}
+
+		private void closeTarget( )
+		{
+			try
+			{
+				out.close( );
+			}
+			catch ( IOException e )
+			{
+				if ( error == null )
+				{
+					error = e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A buffer and the number of bytes it holds.
+	 */
+	private static class Chunk
+	{
+
+		final byte[] data;
+
+		int length;
+
+		Chunk( byte[] data )
+		{
+			this.data = data;
+		}
+	}
+}
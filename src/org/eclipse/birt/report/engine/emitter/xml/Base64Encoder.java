@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Encodes binary data as Base64 straight into an <code>XMLFileWriter</code>.
+ * <p>
+ * The data is encoded in fixed-size blocks through reusable buffers, so
+ * encoding an image never holds more than one block of it in memory besides
+ * the source. The output is a single line without line breaks, the same as
+ * the Xerces encoder used before.
+ */
+public class Base64Encoder
+{
+
+	/**
+	 * the number of source bytes encoded per block, a multiple of 3
+	 */
+	public static final int BLOCK_SIZE = 3 * 1024;
+
+	private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/" //$NON-NLS-1$
+			.toCharArray( );
+
+	private final byte[] input = new byte[BLOCK_SIZE];
+
+	private final char[] output = new char[BLOCK_SIZE / 3 * 4];
+
+	private long byteCount;
+
+	/**
+	 * @return the number of bytes encoded by this encoder
+	 */
+	public long getByteCount( )
+	{
+		return byteCount;
+	}
+
+	/**
+	 * Encodes a byte array.
+	 *
+	 * @param data
+	 *            the bytes to encode
+	 * @param writer
+	 *            the writer that receives the encoded text
+	 */
+	public void encode( byte[] data, XMLFileWriter writer )
+	{
+		for ( int offset = 0; offset < data.length; offset += BLOCK_SIZE )
+		{
+			int len = Math.min( BLOCK_SIZE, data.length - offset );
+			writer.writeCode( output, 0, encodeBlock( data, offset, len ) );
+		}
+	}
+
+	/**
+	 * Encodes the remaining content of a stream. The stream is not closed.
+	 *
+	 * @param in
+	 *            the stream to encode
+	 * @param writer
+	 *            the writer that receives the encoded text
+	 * @return the number of bytes read from the stream
+	 * @throws IOException
+	 *             if reading the stream fails
+	 */
+	public long encode( InputStream in, XMLFileWriter writer )
+			throws IOException
+	{
+		long total = 0;
+		int len;
+		while ( ( len = fill( in ) ) > 0 )
+		{
+			writer.writeCode( output, 0, encodeBlock( input, 0, len ) );
+			total += len;
+			if ( len < BLOCK_SIZE )
+			{
+				break;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Reads until the input block is full or the stream ends, so that only the
+	 * last block can need padding.
+	 */
+	private int fill( InputStream in ) throws IOException
+	{
+		int len = 0;
+		while ( len < BLOCK_SIZE )
+		{
+			int count = in.read( input, len, BLOCK_SIZE - len );
+			if ( count < 0 )
+			{
+				break;
+			}
+			len += count;
+		}
+		return len;
+	}
+
+	/**
+	 * Encodes up to one block into the output buffer.
+	 *
+	 * @return the number of chars written to the output buffer
+	 */
+	private int encodeBlock( byte[] data, int offset, int len )
+	{
+		byteCount += len;
+		int end = offset + len;
+		int i = offset;
+		int o = 0;
+		for ( ; i + 2 < end; i += 3 )
+		{
+			int bits = ( data[i] & 0xff ) << 16 | ( data[i + 1] & 0xff ) << 8
+					| ( data[i + 2] & 0xff );
+			output[o++] = ALPHABET[bits >>> 18];
+			output[o++] = ALPHABET[( bits >>> 12 ) & 0x3f];
+			output[o++] = ALPHABET[( bits >>> 6 ) & 0x3f];
+			output[o++] = ALPHABET[bits & 0x3f];
+		}
+		int remaining = end - i;
+		if ( remaining > 0 )
+		{
+			int bits = ( data[i] & 0xff ) << 16;
+			if ( remaining == 2 )
+			{
+				bits |= ( data[i + 1] & 0xff ) << 8;
+			}
+			output[o++] = ALPHABET[bits >>> 18];
+			output[o++] = ALPHABET[( bits >>> 12 ) & 0x3f];
+			output[o++] = remaining == 2 ? ALPHABET[( bits >>> 6 ) & 0x3f] : '=';
+			output[o++] = '=';
+		}
+		return o;
+	}
+}
@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Reads the output of {@link BinaryXMLFileWriter} and passes its events to a
+ * SAX content handler.
+ * <p>
+ * Run as a program, converts a binary file, compressed with gzip or not, to
+ * text XML:
+ *
+ * <pre>
+ * java org.eclipse.birt.report.engine.emitter.xml.BinaryXMLDecoder report.bxml [report.xml]
+ * </pre>
+ */
+public class BinaryXMLDecoder
+{
+
+	private static final String CDATA = "CDATA"; //$NON-NLS-1$
+
+	private static final String NO_URI = ""; //$NON-NLS-1$
+
+	private final InputStream in;
+
+	private final List<String> names = new ArrayList<String>( );
+
+	private final List<String> values = new ArrayList<String>( );
+
+	private final List<String> elements = new ArrayList<String>( );
+
+	private final AttributesImpl attributes = new AttributesImpl( );
+
+	private char[] chars = new char[1024];
+
+	/**
+	 * @param in
+	 *            the binary stream
+	 */
+	public BinaryXMLDecoder( InputStream in )
+	{
+		this.in = in instanceof BufferedInputStream ? in
+				: new BufferedInputStream( in );
+	}
+
+	/**
+	 * Reads the document and passes it to a content handler.
+	 *
+	 * @param handler
+	 *            the content handler
+	 * @throws IOException
+	 *             if the stream cannot be read or is not binary XML
+	 * @throws SAXException
+	 *             an error of the handler
+	 */
+	public void parse( ContentHandler handler ) throws IOException,
+			SAXException
+	{
+		for ( int i = 0; i < BinaryXMLFileWriter.MAGIC.length; i++ )
+		{
+			if ( readByte( ) != BinaryXMLFileWriter.MAGIC[i] )
+			{
+				throw new IOException( "Not a binary XML stream" ); //$NON-NLS-1$
+			}
+		}
+		int version = readByte( );
+		if ( version != BinaryXMLFileWriter.VERSION )
+		{
+			throw new IOException( "Unsupported binary XML version: " //$NON-NLS-1$
+					+ version );
+		}
+		names.clear( );
+		values.clear( );
+		elements.clear( );
+		handler.startDocument( );
+		while ( true )
+		{
+			int op = readByte( );
+			switch ( op )
+			{
+				case BinaryXMLFileWriter.DOCUMENT_END :
+					handler.endDocument( );
+					return;
+				case BinaryXMLFileWriter.ELEMENT_START :
+					String name = readName( );
+					int count = readInt( );
+					attributes.clear( );
+					for ( int i = 0; i < count; i++ )
+					{
+						String attributeName = readName( );
+						attributes.addAttribute( NO_URI,
+								localName( attributeName ), attributeName,
+								CDATA, readValue( ) );
+					}
+					elements.add( name );
+					handler.startElement( NO_URI, localName( name ), name,
+							attributes );
+					break;
+				case BinaryXMLFileWriter.ELEMENT_END :
+					if ( elements.isEmpty( ) )
+					{
+						throw new IOException( "Unbalanced end of element" ); //$NON-NLS-1$
+					}
+					name = elements.remove( elements.size( ) - 1 );
+					handler.endElement( NO_URI, localName( name ), name );
+					break;
+				case BinaryXMLFileWriter.CHARACTERS :
+					int length = readValueChars( );
+					handler.characters( chars, 0, length );
+					break;
+				default :
+					throw new IOException( "Unknown binary XML record: " + op ); //$NON-NLS-1$
+			}
+		}
+	}
+
+	private String readName( ) throws IOException
+	{
+		int index = readInt( );
+		if ( index == 0 )
+		{
+			String name = readString( );
+			names.add( name );
+			return name;
+		}
+		if ( index > names.size( ) )
+		{
+			throw new IOException( "Unknown name: " + index ); //$NON-NLS-1$
+		}
+		return names.get( index - 1 );
+	}
+
+	private String readValue( ) throws IOException
+	{
+		int index = readInt( );
+		if ( index < 2 )
+		{
+			String value = readString( );
+			if ( index == 0 )
+			{
+				values.add( value );
+			}
+			return value;
+		}
+		if ( index - 2 >= values.size( ) )
+		{
+			throw new IOException( "Unknown value: " + index ); //$NON-NLS-1$
+		}
+		return values.get( index - 2 );
+	}
+
+	/**
+	 * Reads a value into the character buffer, without creating a string for
+	 * a long text.
+	 *
+	 * @return the number of characters
+	 */
+	private int readValueChars( ) throws IOException
+	{
+		int index = readInt( );
+		if ( index == 1 )
+		{
+			return readChars( );
+		}
+		String value;
+		if ( index == 0 )
+		{
+			value = readString( );
+			values.add( value );
+		}
+		else if ( index - 2 < values.size( ) )
+		{
+			value = values.get( index - 2 );
+		}
+		else
+		{
+			throw new IOException( "Unknown value: " + index ); //$NON-NLS-1$
+		}
+		int length = value.length( );
+		ensureCapacity( length );
+		value.getChars( 0, length, chars, 0 );
+		return length;
+	}
+
+	private String readString( ) throws IOException
+	{
+		int length = readChars( );
+		return new String( chars, 0, length );
+	}
+
+	/**
+	 * Reads a string into the character buffer.
+	 *
+	 * @return the number of characters
+	 */
+	private int readChars( ) throws IOException
+	{
+		int length = readInt( );
+		ensureCapacity( length );
+		int i = 0;
+		while ( i < length )
+		{
+			int b = readByte( );
+			if ( b < 0x80 )
+			{
+				chars[i++] = (char) b;
+			}
+			else if ( b < 0xE0 )
+			{
+				chars[i++] = (char) ( ( ( b & 0x1F ) << 6 ) | readContinuation( ) );
+			}
+			else if ( b < 0xF0 )
+			{
+				int c = ( b & 0x0F ) << 12;
+				c |= readContinuation( ) << 6;
+				chars[i++] = (char) ( c | readContinuation( ) );
+			}
+			else
+			{
+				int codePoint = ( b & 0x07 ) << 18;
+				codePoint |= readContinuation( ) << 12;
+				codePoint |= readContinuation( ) << 6;
+				codePoint |= readContinuation( );
+				if ( i + 2 > length )
+				{
+					throw new IOException( "Malformed binary XML string" ); //$NON-NLS-1$
+				}
+				i += Character.toChars( codePoint, chars, i );
+			}
+		}
+		return length;
+	}
+
+	private int readContinuation( ) throws IOException
+	{
+		return readByte( ) & 0x3F;
+	}
+
+	private int readInt( ) throws IOException
+	{
+		int value = 0;
+		for ( int shift = 0; shift < 32; shift += 7 )
+		{
+			int b = readByte( );
+			value |= ( b & 0x7F ) << shift;
+			if ( b < 0x80 )
+			{
+				return value;
+			}
+		}
+		throw new IOException( "Malformed binary XML number" ); //$NON-NLS-1$
+	}
+
+	private int readByte( ) throws IOException
+	{
+		int b = in.read( );
+		if ( b < 0 )
+		{
+			throw new EOFException( "Unexpected end of binary XML" ); //$NON-NLS-1$
+		}
+		return b;
+	}
+
+	private void ensureCapacity( int length )
+	{
+		if ( length > chars.length )
+		{
+			chars = new char[Math.max( length, chars.length * 2 )];
+		}
+	}
+
+	private static String localName( String name )
+	{
+		return name.substring( name.indexOf( ':' ) + 1 );
+	}
+
+	/**
+	 * Converts a binary file to text XML.
+	 *
+	 * @param args
+	 *            the binary file and the text file, the text is written to
+	 *            the standard output if there is no text file
+	 * @throws Exception
+	 *             if the file cannot be converted
+	 */
+	public static void main( String[] args ) throws Exception
+	{
+		if ( args.length < 1 )
+		{
+			System.err.println( "Usage: BinaryXMLDecoder <binary file> [<xml file>]" ); //$NON-NLS-1$
+			return;
+		}
+		InputStream in = new BufferedInputStream( new FileInputStream( args[0] ) );
+		OutputStream out = args.length > 1
+				? new FileOutputStream( args[1] )
+				: System.out;
+		try
+		{
+			in.mark( 2 );
+			int magic = in.read( ) | ( in.read( ) << 8 );
+			in.reset( );
+			if ( magic == GZIPInputStream.GZIP_MAGIC )
+			{
+				in = new GZIPInputStream( in );
+			}
+			TransformerHandler handler = ( (SAXTransformerFactory) TransformerFactory
+					.newInstance( ) ).newTransformerHandler( );
+			handler.setResult( new StreamResult( out ) );
+			new BinaryXMLDecoder( in ).parse( handler );
+		}
+		finally
+		{
+			in.close( );
+			if ( out != System.out )
+			{
+				out.close( );
+			}
+			else
+			{
+				out.flush( );
+			}
+		}
+	}
+}
@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes the report in a compact binary encoding of its XML events, read
+ * back by {@link BinaryXMLDecoder}.
+ * <p>
+ * The stream starts with the bytes <code>BXML</code> and a version byte,
+ * followed by records starting with an op byte:
+ * <ul>
+ * <li>{@link #ELEMENT_START}: the element name, the number of attributes,
+ * and the name and value of each attribute</li>
+ * <li>{@link #ELEMENT_END}: nothing, the element is the last one started</li>
+ * <li>{@link #CHARACTERS}: a value</li>
+ * <li>{@link #DOCUMENT_END}: nothing, ends the stream</li>
+ * </ul>
+ * Numbers are unsigned varints, seven bits per byte with the high bit set on
+ * all but the last byte. A string is its number of UTF-16 characters followed
+ * by its UTF-8 bytes.
+ * <p>
+ * Element and attribute names share a vocabulary table: a name is written as
+ * 0 and the string the first time, and as its index in the table plus 1 after
+ * that. Attribute values and text use a second table: 0 and the string adds a
+ * value to the table, 1 and the string writes it without adding it, and the
+ * index plus 2 refers to it. Only values of at most
+ * {@link #MAX_VALUE_LENGTH} characters are added, and at most
+ * {@link #MAX_VALUES} of them, so the repeated names, keys and line breaks of
+ * a report take one or two bytes each.
+ */
+public class BinaryXMLFileWriter extends EventXMLFileWriter
+{
+
+	/**
+	 * the first bytes of the stream
+	 */
+	public static final byte[] MAGIC = {'B', 'X', 'M', 'L'};
+
+	/**
+	 * the version of the encoding
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * ends the document
+	 */
+	public static final int DOCUMENT_END = 0;
+
+	/**
+	 * starts an element
+	 */
+	public static final int ELEMENT_START = 1;
+
+	/**
+	 * ends an element
+	 */
+	public static final int ELEMENT_END = 2;
+
+	/**
+	 * writes text
+	 */
+	public static final int CHARACTERS = 3;
+
+	/**
+	 * the length of the longest value added to the value table
+	 */
+	public static final int MAX_VALUE_LENGTH = 64;
+
+	/**
+	 * the number of values in a full value table
+	 */
+	public static final int MAX_VALUES = 65536;
+
+	private static final int REPLACEMENT = '?';
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Map<String, Integer> names = new HashMap<String, Integer>( );
+
+	private final Map<String, Integer> values = new HashMap<String, Integer>( );
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+
+	private int position;
+
+	private OutputStream out;
+
+	/**
+	 * Opens the writer on a stream. The encoding does not apply, strings are
+	 * always written in UTF-8.
+	 */
+	public void open( OutputStream out, String encoding )
+	{
+		this.out = out;
+		position = 0;
+		names.clear( );
+		values.clear( );
+	}
+
+	public void open( OutputStream out )
+	{
+		open( out, null );
+	}
+
+	/**
+	 * Writes the buffered bytes. The stream is closed by its owner.
+	 */
+	public void close( )
+	{
+		flushOutput( );
+		out = null;
+	}
+
+	protected void startDocument( ) throws IOException
+	{
+		for ( int i = 0; i < MAGIC.length; i++ )
+		{
+			writeByte( MAGIC[i] );
+		}
+		writeByte( VERSION );
+	}
+
+	protected void endDocument( ) throws IOException
+	{
+		writeByte( DOCUMENT_END );
+	}
+
+	protected void startElement( String name, String[] attributeNames,
+			String[] attributeValues, int count ) throws IOException
+	{
+		writeByte( ELEMENT_START );
+		writeName( name );
+		writeInt( count );
+		for ( int i = 0; i < count; i++ )
+		{
+			writeName( attributeNames[i] );
+			writeValue( attributeValues[i] );
+		}
+	}
+
+	protected void endElement( String name ) throws IOException
+	{
+		writeByte( ELEMENT_END );
+	}
+
+	protected void characters( String text ) throws IOException
+	{
+		writeByte( CHARACTERS );
+		writeValue( text );
+	}
+
+	protected void characters( char[] chars, int offset, int length )
+			throws IOException
+	{
+		if ( length <= MAX_VALUE_LENGTH )
+		{
+			characters( new String( chars, offset, length ) );
+			return;
+		}
+		writeByte( CHARACTERS );
+		writeInt( 1 );
+		writeInt( length );
+		writeChars( chars, offset, length );
+	}
+
+	protected void flushEvents( ) throws IOException
+	{
+		if ( out == null )
+		{
+			return;
+		}
+		flushBuffer( );
+		out.flush( );
+	}
+
+	private void writeName( String name ) throws IOException
+	{
+		Integer index = names.get( name );
+		if ( index != null )
+		{
+			writeInt( index.intValue( ) + 1 );
+			return;
+		}
+		writeInt( 0 );
+		writeString( name );
+		names.put( name, Integer.valueOf( names.size( ) ) );
+	}
+
+	private void writeValue( String value ) throws IOException
+	{
+		Integer index = values.get( value );
+		if ( index != null )
+		{
+			writeInt( index.intValue( ) + 2 );
+			return;
+		}
+		if ( value.length( ) <= MAX_VALUE_LENGTH && values.size( ) < MAX_VALUES )
+		{
+			writeInt( 0 );
+			values.put( value, Integer.valueOf( values.size( ) ) );
+		}
+		else
+		{
+			writeInt( 1 );
+		}
+		writeString( value );
+	}
+
+	private void writeString( String s ) throws IOException
+	{
+		int length = s.length( );
+		writeInt( length );
+		for ( int i = 0; i < length; i++ )
+		{
+			char c = s.charAt( i );
+			if ( c < 0x80 )
+			{
+				writeByte( c );
+			}
+			else
+			{
+				i = writeChar( c, i + 1 < length ? s.charAt( i + 1 ) : 0, i );
+			}
+		}
+	}
+
+	private void writeChars( char[] chars, int offset, int length )
+			throws IOException
+	{
+		int end = offset + length;
+		for ( int i = offset; i < end; i++ )
+		{
+			char c = chars[i];
+			if ( c < 0x80 )
+			{
+				writeByte( c );
+			}
+			else
+			{
+				i = writeChar( c, i + 1 < end ? chars[i + 1] : 0, i );
+			}
+		}
+	}
+
+	/**
+	 * Writes a character that is not ASCII.
+	 *
+	 * @return the index of the last character written, <code>index + 1</code>
+	 *         for a surrogate pair
+	 */
+	private int writeChar( char c, char next, int index ) throws IOException
+	{
+		if ( c < 0x800 )
+		{
+			writeByte( 0xC0 | ( c >> 6 ) );
+			writeByte( 0x80 | ( c & 0x3F ) );
+		}
+		else if ( c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE )
+		{
+			writeByte( 0xE0 | ( c >> 12 ) );
+			writeByte( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+			writeByte( 0x80 | ( c & 0x3F ) );
+		}
+		else if ( Character.isHighSurrogate( c )
+				&& Character.isLowSurrogate( next ) )
+		{
+			int codePoint = Character.toCodePoint( c, next );
+			writeByte( 0xF0 | ( codePoint >> 18 ) );
+			writeByte( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+			writeByte( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+			writeByte( 0x80 | ( codePoint & 0x3F ) );
+			return index + 1;
+		}
+		else
+		{
+			// an unpaired surrogate keeps its place as one character
+			writeByte( REPLACEMENT );
+		}
+		return index;
+	}
+
+	private void writeInt( int value ) throws IOException
+	{
+		while ( ( value & ~0x7F ) != 0 )
+		{
+			writeByte( ( value & 0x7F ) | 0x80 );
+			value >>>= 7;
+		}
+		writeByte( value );
+	}
+
+	private void writeByte( int b ) throws IOException
+	{
+		if ( position == BUFFER_SIZE )
+		{
+			flushBuffer( );
+		}
+		buffer[position++] = (byte) b;
+	}
+
+	private void flushBuffer( ) throws IOException
+	{
+		if ( position > 0 )
+		{
+			out.write( buffer, 0, position );
+			position = 0;
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+/**
+ * Lets another thread stop a report, put in the app context under
+ * {@link XMLReportEmitter#APPCONTEXT_XML_CANCELLATION}.
+ * <p>
+ * The emitter checks the token at the start and end of every row. Once it is
+ * cancelled, the emitter drops the row being written, ends the document with
+ * the end tag of the schema, closes the output and ignores the rest of the
+ * report. The report engine keeps producing content until its task is
+ * cancelled too.
+ */
+public class CancellationToken
+{
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Asks the emitter to stop at the next row boundary.
+	 */
+	public void cancel( )
+	{
+		cancelled = true;
+	}
+
+	/**
+	 * @return whether the report was cancelled
+	 */
+	public boolean isCancelled( )
+	{
+		return cancelled;
+	}
+}
@@ -0,0 +1,352 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A writer encoding its output to UTF-8 into one large buffer and writing the
+ * buffer to a channel.
+ * <p>
+ * The default writer goes through a <code>PrintWriter</code>, an
+ * <code>OutputStreamWriter</code> and a buffered stream, each with its own
+ * small buffer and lock. This writer encodes the characters itself, with a
+ * fast path for ASCII, and writes the buffer to the file channel when the
+ * output is a file, or to a channel over the stream otherwise. It is not
+ * thread safe; an emitter writes from a single thread.
+ * <p>
+ * Like <code>PrintWriter</code>, the writer does not throw on I/O errors. The
+ * first error is kept and returned by {@link #getError()}, and the output
+ * after it is dropped.
+ */
+public class ChannelXMLFileWriter extends XMLFileWriter
+{
+
+	/**
+	 * the default size of the output buffer
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	private static final int CHUNK_SIZE = 1024;
+
+	private static final byte REPLACEMENT = '?';
+
+	private final byte[] bytes;
+
+	private final ByteBuffer byteBuffer;
+
+	private int position;
+
+	private final char[] chars = new char[CHUNK_SIZE];
+
+	private char highSurrogate;
+
+	private OutputStream stream;
+
+	private WritableByteChannel channel;
+
+	private long byteCount;
+
+	private IOException error;
+
+	/**
+	 * @param bufferSize
+	 *            the size of the output buffer, 0 for the default
+	 */
+	public ChannelXMLFileWriter( int bufferSize )
+	{
+		bytes = new byte[bufferSize > 0 ? Math.max( bufferSize, 16 )
+				: DEFAULT_BUFFER_SIZE];
+		byteBuffer = ByteBuffer.wrap( bytes );
+	}
+
+	/**
+	 * Opens the writer on a stream. Writes to the file channel if the stream
+	 * is a file stream.
+	 *
+	 * @param out
+	 *            the stream
+	 * @param encoding
+	 *            the encoding, only UTF-8 is supported
+	 */
+	public void open( OutputStream out, String encoding )
+	{
+		if ( !UTF_8.equalsIgnoreCase( encoding ) )
+		{
+			throw new IllegalArgumentException( "Unsupported encoding: " //$NON-NLS-1$
+					+ encoding );
+		}
+		stream = out;
+		channel = out instanceof FileOutputStream ? ( (FileOutputStream) out )
+				.getChannel( ) : Channels.newChannel( out );
+		position = 0;
+		highSurrogate = 0;
+		byteCount = 0;
+		error = null;
+	}
+
+	public void open( OutputStream out )
+	{
+		open( out, UTF_8 );
+	}
+
+	/**
+	 * @return the number of bytes written, including the buffered ones
+	 */
+	public long getByteCount( )
+	{
+		return byteCount + position;
+	}
+
+	/**
+	 * @return the first I/O error, or <code>null</code>
+	 */
+	public IOException getError( )
+	{
+		return error;
+	}
+
+	public void print( String s )
+	{
+		if ( s == null )
+		{
+			s = "null"; //$NON-NLS-1$
+		}
+		int length = s.length( );
+		int base = 0;
+		if ( highSurrogate == 0 )
+		{
+			base = printAscii( s, length );
+		}
+		for ( ; base < length; base += CHUNK_SIZE )
+		{
+			int count = Math.min( CHUNK_SIZE, length - base );
+			s.getChars( base, base + count, chars, 0 );
+			encode( chars, 0, count );
+		}
+	}
+
+	/**
+	 * Copies the leading ASCII characters of a string straight into the
+	 * buffer.
+	 *
+	 * @return the number of characters copied
+	 */
+	@SuppressWarnings("deprecation")
+	private int printAscii( String s, int length )
+	{
+		int ascii = 0;
+		while ( ascii < length && s.charAt( ascii ) < 0x80 )
+		{
+			ascii++;
+		}
+		int copied = 0;
+		while ( copied < ascii )
+		{
+			if ( position == bytes.length )
+			{
+				flushBuffer( );
+			}
+			int count = Math.min( ascii - copied, bytes.length - position );
+			// copies the low byte of each character, exact for ASCII
+			s.getBytes( copied, copied + count, bytes, position );
+			position += count;
+			copied += count;
+		}
+		return ascii;
+	}
+
+	public void print( char c )
+	{
+		if ( highSurrogate == 0 && c < 0x80 && position < bytes.length )
+		{
+			bytes[position++] = (byte) c;
+			return;
+		}
+		if ( bytes.length - position < 4 )
+		{
+			flushBuffer( );
+		}
+		encodeChar( c );
+	}
+
+	protected void print( char[] buffer, int offset, int length )
+	{
+		encode( buffer, offset, length );
+	}
+
+	protected void flushOutput( )
+	{
+		flushBuffer( );
+		if ( error == null && !( channel instanceof FileChannel ) )
+		{
+			try
+			{
+				stream.flush( );
+			}
+			catch ( IOException e )
+			{
+				error = e;
+			}
+		}
+	}
+
+	public void endWriter( )
+	{
+		flush( );
+	}
+
+	public void close( )
+	{
+		if ( channel == null )
+		{
+			return;
+		}
+		if ( highSurrogate != 0 )
+		{
+			highSurrogate = 0;
+			print( (char) REPLACEMENT );
+		}
+		flushBuffer( );
+		try
+		{
+			channel.close( );
+		}
+		catch ( IOException e )
+		{
+			if ( error == null )
+			{
+				error = e;
+			}
+		}
+		channel = null;
+		stream = null;
+	}
+
+	private void encode( char[] buffer, int offset, int length )
+	{
+		int end = offset + length;
+		int i = offset;
+		while ( i < end )
+		{
+			if ( highSurrogate == 0 )
+			{
+				// copy the ASCII run with the position in a local
+				byte[] out = bytes;
+				int p = position;
+				int limit = Math.min( end, i + out.length - p );
+				while ( i < limit )
+				{
+					char c = buffer[i];
+					if ( c >= 0x80 )
+					{
+						break;
+					}
+					out[p++] = (byte) c;
+					i++;
+				}
+				position = p;
+				if ( i == end )
+				{
+					return;
+				}
+			}
+			if ( bytes.length - position < 4 )
+			{
+				flushBuffer( );
+				continue;
+			}
+			encodeChar( buffer[i++] );
+		}
+	}
+
+	/**
+	 * Encodes one character; the buffer has room for four bytes.
+	 */
+	private void encodeChar( char c )
+	{
+		if ( highSurrogate != 0 )
+		{
+			char high = highSurrogate;
+			highSurrogate = 0;
+			if ( c >= 0xDC00 && c < 0xE000 )
+			{
+				int codePoint = ( ( high - 0xD800 ) << 10 ) + ( c - 0xDC00 )
+						+ 0x10000;
+				bytes[position++] = (byte) ( 0xF0 | ( codePoint >> 18 ) );
+				bytes[position++] = (byte) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+				bytes[position++] = (byte) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+				bytes[position++] = (byte) ( 0x80 | ( codePoint & 0x3F ) );
+				return;
+			}
+			// a high surrogate without its low half
+			bytes[position++] = REPLACEMENT;
+		}
+		if ( c < 0x80 )
+		{
+			bytes[position++] = (byte) c;
+		}
+		else if ( c < 0x800 )
+		{
+			bytes[position++] = (byte) ( 0xC0 | ( c >> 6 ) );
+			bytes[position++] = (byte) ( 0x80 | ( c & 0x3F ) );
+		}
+		else if ( c >= 0xD800 && c < 0xDC00 )
+		{
+			highSurrogate = c;
+		}
+		else if ( c >= 0xDC00 && c < 0xE000 )
+		{
+			bytes[position++] = REPLACEMENT;
+		}
+		else
+		{
+			bytes[position++] = (byte) ( 0xE0 | ( c >> 12 ) );
+			bytes[position++] = (byte) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+			bytes[position++] = (byte) ( 0x80 | ( c & 0x3F ) );
+		}
+	}
+
+	private void flushBuffer( )
+	{
+		if ( position == 0 )
+		{
+			return;
+		}
+		if ( error == null && channel != null )
+		{
+			try
+			{
+				byteBuffer.clear( );
+				byteBuffer.limit( position );
+				while ( byteBuffer.hasRemaining( ) )
+				{
+					channel.write( byteBuffer );
+				}
+			}
+			catch ( IOException e )
+			{
+				error = e;
+			}
+		}
+		byteCount += position;
+		position = 0;
+	}
+}
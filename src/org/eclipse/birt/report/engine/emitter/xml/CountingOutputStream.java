@@ -0,0 +1,54 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written through it.
+ */
+public class CountingOutputStream extends FilterOutputStream
+{
+
+	private long count;
+
+	/**
+	 * @param out
+	 *            the underlying stream
+	 */
+	public CountingOutputStream( OutputStream out )
+	{
+		super( out );
+	}
+
+	/**
+	 * @return the number of bytes written so far
+	 */
+	public long getCount( )
+	{
+		return count;
+	}
+
+	public void write( int b ) throws IOException
+	{
+		out.write( b );
+		count++;
+	}
+
+	public void write( byte[] b, int off, int len ) throws IOException
+	{
+		out.write( b, off, len );
+		count += len;
+	}
+}
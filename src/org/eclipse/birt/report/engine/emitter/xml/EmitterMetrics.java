@@ -0,0 +1,372 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The work of all the XML emitters of the process, published as an MBean
+ * while the bundle is started.
+ * <p>
+ * An emitter counts its report in {@link EmitterStatistics} fields and adds
+ * the counts to the metrics every few hundred rows and at the end of the
+ * report, so the rendering threads share no counter per element. The
+ * counters are {@link StripedCounter}s, so emitters publishing at the same
+ * time rarely touch the same cache line. Image loads are recorded one by one
+ * into a latency histogram.
+ */
+public class EmitterMetrics implements EmitterMetricsMBean
+{
+
+	/**
+	 * the name of the MBean
+	 */
+	public static final String OBJECT_NAME = "org.eclipse.birt.report.engine.emitter.xml:type=EmitterMetrics"; //$NON-NLS-1$
+
+	/**
+	 * the upper bounds of the image load time buckets in milliseconds, the
+	 * last bucket has no bound
+	 */
+	private static final long[] LATENCY_BOUNDS = {1, 2, 5, 10, 20, 50, 100,
+			200, 500, 1000, 2000, 5000};
+
+	private static final Logger logger = Logger.getLogger( EmitterMetrics.class
+			.getName( ) );
+
+	private static final EmitterMetrics instance = new EmitterMetrics( );
+
+	private final AtomicInteger activeExports = new AtomicInteger( );
+
+	private final StripedCounter exportsStarted = new StripedCounter( );
+
+	private final StripedCounter exportsCompleted = new StripedCounter( );
+
+	private final StripedCounter rows = new StripedCounter( );
+
+	private final StripedCounter data = new StripedCounter( );
+
+	private final StripedCounter labels = new StripedCounter( );
+
+	private final StripedCounter texts = new StripedCounter( );
+
+	private final StripedCounter images = new StripedCounter( );
+
+	private final StripedCounter outputBytes = new StripedCounter( );
+
+	private final StripedCounter imageBytes = new StripedCounter( );
+
+	private final StripedCounter exportNanos = new StripedCounter( );
+
+	private final StripedCounter outputNanos = new StripedCounter( );
+
+	private final StripedCounter imageFetches = new StripedCounter( );
+
+	private final StripedCounter imageFetchNanos = new StripedCounter( );
+
+	private final AtomicLongArray latencyHistogram = new AtomicLongArray(
+			LATENCY_BOUNDS.length + 1 );
+
+	private long sampleTime = System.nanoTime( );
+
+	private long sampleRows;
+
+	private long sampleBytes;
+
+	private long rowsPerSecond;
+
+	private long bytesPerSecond;
+
+	private ObjectName registeredName;
+
+	/**
+	 * @return the metrics shared by all emitter instances
+	 */
+	public static EmitterMetrics getInstance( )
+	{
+		return instance;
+	}
+
+	/**
+	 * Registers the MBean with the platform MBean server.
+	 */
+	public synchronized void register( )
+	{
+		if ( registeredName != null )
+		{
+			return;
+		}
+		try
+		{
+			ObjectName name = new ObjectName( OBJECT_NAME );
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer( );
+			if ( !server.isRegistered( name ) )
+			{
+				server.registerMBean( this, name );
+				registeredName = name;
+			}
+		}
+		catch ( JMException e )
+		{
+			logger.log( Level.WARNING, e.getMessage( ), e );
+		}
+	}
+
+	/**
+	 * Unregisters the MBean.
+	 */
+	public synchronized void unregister( )
+	{
+		if ( registeredName == null )
+		{
+			return;
+		}
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer( ).unregisterMBean(
+					registeredName );
+		}
+		catch ( JMException e )
+		{
+			logger.log( Level.WARNING, e.getMessage( ), e );
+		}
+		registeredName = null;
+	}
+
+	/**
+	 * Notes the start of a report.
+	 */
+	public void exportStarted( )
+	{
+		activeExports.incrementAndGet( );
+		exportsStarted.increment( );
+	}
+
+	/**
+	 * Notes the end of a report.
+	 *
+	 * @param nanos
+	 *            the time of the report in nanoseconds
+	 */
+	public void exportEnded( long nanos )
+	{
+		activeExports.decrementAndGet( );
+		exportsCompleted.increment( );
+		exportNanos.add( nanos );
+	}
+
+	/**
+	 * Adds the counts of an emitter since its previous publication.
+	 *
+	 * @param rows
+	 *            the number of rows
+	 * @param data
+	 *            the number of data elements
+	 * @param labels
+	 *            the number of label elements
+	 * @param texts
+	 *            the number of text elements
+	 * @param images
+	 *            the number of image elements
+	 * @param outputBytes
+	 *            the number of output bytes
+	 * @param imageBytes
+	 *            the number of image bytes
+	 * @param outputNanos
+	 *            the time spent writing to the output in nanoseconds
+	 */
+	public void add( long rows, long data, long labels, long texts,
+			long images, long outputBytes, long imageBytes, long outputNanos )
+	{
+		this.rows.add( rows );
+		this.data.add( data );
+		this.labels.add( labels );
+		this.texts.add( texts );
+		this.images.add( images );
+		this.outputBytes.add( outputBytes );
+		this.imageBytes.add( imageBytes );
+		this.outputNanos.add( outputNanos );
+	}
+
+	/**
+	 * Records the load of an image.
+	 *
+	 * @param nanos
+	 *            the load time in nanoseconds
+	 */
+	public void imageFetched( long nanos )
+	{
+		imageFetches.increment( );
+		imageFetchNanos.add( nanos );
+		long millis = nanos / 1000000;
+		int bucket = 0;
+		while ( bucket < LATENCY_BOUNDS.length
+				&& millis >= LATENCY_BOUNDS[bucket] )
+		{
+			bucket++;
+		}
+		latencyHistogram.incrementAndGet( bucket );
+	}
+
+	public int getActiveExports( )
+	{
+		return activeExports.get( );
+	}
+
+	public long getExportsStarted( )
+	{
+		return exportsStarted.get( );
+	}
+
+	public long getExportsCompleted( )
+	{
+		return exportsCompleted.get( );
+	}
+
+	public long getRows( )
+	{
+		return rows.get( );
+	}
+
+	public long getDataElements( )
+	{
+		return data.get( );
+	}
+
+	public long getLabelElements( )
+	{
+		return labels.get( );
+	}
+
+	public long getTextElements( )
+	{
+		return texts.get( );
+	}
+
+	public long getImageElements( )
+	{
+		return images.get( );
+	}
+
+	public long getOutputBytes( )
+	{
+		return outputBytes.get( );
+	}
+
+	public long getImageBytes( )
+	{
+		return imageBytes.get( );
+	}
+
+	public synchronized long getRowsPerSecond( )
+	{
+		sample( );
+		return rowsPerSecond;
+	}
+
+	public synchronized long getOutputBytesPerSecond( )
+	{
+		sample( );
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Computes the rates since the previous sample, unless it is too recent
+	 * for a meaningful rate.
+	 */
+	private void sample( )
+	{
+		long now = System.nanoTime( );
+		long elapsed = now - sampleTime;
+		if ( elapsed < 100000000 )
+		{
+			return;
+		}
+		long currentRows = rows.get( );
+		long currentBytes = outputBytes.get( );
+		rowsPerSecond = ( currentRows - sampleRows ) * 1000000000 / elapsed;
+		bytesPerSecond = ( currentBytes - sampleBytes ) * 1000000000
+				/ elapsed;
+		sampleTime = now;
+		sampleRows = currentRows;
+		sampleBytes = currentBytes;
+	}
+
+	public long getExportTime( )
+	{
+		return exportNanos.get( ) / 1000000;
+	}
+
+	public long getOutputTime( )
+	{
+		return outputNanos.get( ) / 1000000;
+	}
+
+	public long getImageFetches( )
+	{
+		return imageFetches.get( );
+	}
+
+	public long getImageFetchTime( )
+	{
+		return imageFetchNanos.get( ) / 1000000;
+	}
+
+	public String[] getImageFetchLatencyBuckets( )
+	{
+		String[] buckets = new String[LATENCY_BOUNDS.length + 1];
+		for ( int i = 0; i < LATENCY_BOUNDS.length; i++ )
+		{
+			buckets[i] = "<" + LATENCY_BOUNDS[i] + "ms"; //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		buckets[LATENCY_BOUNDS.length] = ">=" //$NON-NLS-1$
+				+ LATENCY_BOUNDS[LATENCY_BOUNDS.length - 1] + "ms"; //$NON-NLS-1$
+		return buckets;
+	}
+
+	public long[] getImageFetchLatencyHistogram( )
+	{
+		long[] histogram = new long[latencyHistogram.length( )];
+		for ( int i = 0; i < histogram.length; i++ )
+		{
+			histogram[i] = latencyHistogram.get( i );
+		}
+		return histogram;
+	}
+
+	public synchronized void reset( )
+	{
+		StripedCounter[] counters = {exportsStarted, exportsCompleted, rows,
+				data, labels, texts, images, outputBytes, imageBytes,
+				exportNanos, outputNanos, imageFetches, imageFetchNanos};
+		for ( int i = 0; i < counters.length; i++ )
+		{
+			counters[i].reset( );
+		}
+		for ( int i = 0; i < latencyHistogram.length( ); i++ )
+		{
+			latencyHistogram.set( i, 0 );
+		}
+		sampleTime = System.nanoTime( );
+		sampleRows = 0;
+		sampleBytes = 0;
+		rowsPerSecond = 0;
+		bytesPerSecond = 0;
+	}
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+/**
+ * The management interface of {@link EmitterMetrics}: the work of all the XML
+ * emitters of the process since the bundle started or the last reset.
+ */
+public interface EmitterMetricsMBean
+{
+
+	/**
+	 * @return the number of reports being written
+	 */
+	int getActiveExports( );
+
+	/**
+	 * @return the number of reports started
+	 */
+	long getExportsStarted( );
+
+	/**
+	 * @return the number of reports completed
+	 */
+	long getExportsCompleted( );
+
+	/**
+	 * @return the number of rows written
+	 */
+	long getRows( );
+
+	/**
+	 * @return the number of data elements written
+	 */
+	long getDataElements( );
+
+	/**
+	 * @return the number of label elements written
+	 */
+	long getLabelElements( );
+
+	/**
+	 * @return the number of text elements written
+	 */
+	long getTextElements( );
+
+	/**
+	 * @return the number of image elements written
+	 */
+	long getImageElements( );
+
+	/**
+	 * @return the number of bytes written to the outputs
+	 */
+	long getOutputBytes( );
+
+	/**
+	 * @return the number of image bytes encoded
+	 */
+	long getImageBytes( );
+
+	/**
+	 * @return the rows written per second since the previous call
+	 */
+	long getRowsPerSecond( );
+
+	/**
+	 * @return the bytes written per second since the previous call
+	 */
+	long getOutputBytesPerSecond( );
+
+	/**
+	 * @return the time of the completed reports, in milliseconds
+	 */
+	long getExportTime( );
+
+	/**
+	 * @return the time spent writing rows and documents to the outputs,
+	 *         including encoding and compression, in milliseconds
+	 */
+	long getOutputTime( );
+
+	/**
+	 * @return the number of images loaded
+	 */
+	long getImageFetches( );
+
+	/**
+	 * @return the time spent loading images, in milliseconds
+	 */
+	long getImageFetchTime( );
+
+	/**
+	 * @return the upper bounds of the image load time buckets
+	 */
+	String[] getImageFetchLatencyBuckets( );
+
+	/**
+	 * @return the number of image loads per time bucket
+	 */
+	long[] getImageFetchLatencyHistogram( );
+
+	/**
+	 * Sets the counters to 0, except the number of active reports.
+	 */
+	void reset( );
+}
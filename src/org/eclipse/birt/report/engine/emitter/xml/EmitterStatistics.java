@@ -0,0 +1,202 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+/**
+ * Counts the content an emitter writes for one report.
+ * <p>
+ * The counters are plain fields updated by the rendering thread, so counting
+ * costs a field increment per event. The summary is logged once at the end of
+ * the report instead of a log record per event, and the counts are added to
+ * the {@link EmitterMetrics} of the process every {@link #PUBLISH_INTERVAL}
+ * rows.
+ */
+public class EmitterStatistics
+{
+
+	long tables;
+	long rows;
+	long cells;
+	long containers;
+	long texts;
+	long labels;
+	long data;
+	long images;
+	long outputNanos;
+
+	/**
+	 * the number of rows between two publications of the counts
+	 */
+	public static final int PUBLISH_INTERVAL = 256;
+
+	private long publishedRows;
+	private long publishedData;
+	private long publishedLabels;
+	private long publishedTexts;
+	private long publishedImages;
+	private long publishedOutputBytes;
+	private long publishedImageBytes;
+	private long publishedOutputNanos;
+
+	private long startTime;
+	private long endTime;
+
+	/**
+	 * Marks the start of the report and clears the counters.
+	 */
+	public void start( )
+	{
+		tables = rows = cells = containers = 0;
+		texts = labels = data = images = 0;
+		outputNanos = 0;
+		publishedRows = publishedData = publishedLabels = publishedTexts = 0;
+		publishedImages = publishedOutputBytes = publishedImageBytes = 0;
+		publishedOutputNanos = 0;
+		startTime = System.nanoTime( );
+		endTime = 0;
+	}
+
+	/**
+	 * Marks the end of the report.
+	 */
+	public void end( )
+	{
+		endTime = System.nanoTime( );
+	}
+
+	/**
+	 * @return the number of rows written
+	 */
+	public long getRows( )
+	{
+		return rows;
+	}
+
+	/**
+	 * @return the number of data elements written
+	 */
+	public long getData( )
+	{
+		return data;
+	}
+
+	/**
+	 * @return the number of label elements written
+	 */
+	public long getLabels( )
+	{
+		return labels;
+	}
+
+	/**
+	 * @return the number of text elements written
+	 */
+	public long getTexts( )
+	{
+		return texts;
+	}
+
+	/**
+	 * @return the number of image elements written
+	 */
+	public long getImages( )
+	{
+		return images;
+	}
+
+	/**
+	 * @return the time from the start of the report to its end, or to now if
+	 *         it has not ended, in milliseconds
+	 */
+	public long getElapsedTime( )
+	{
+		long end = endTime == 0 ? System.nanoTime( ) : endTime;
+		return ( end - startTime ) / 1000000;
+	}
+
+	/**
+	 * @return the time spent writing to the output, in milliseconds
+	 */
+	public long getOutputTime( )
+	{
+		return outputNanos / 1000000;
+	}
+
+	/**
+	 * @return whether {@link #PUBLISH_INTERVAL} rows were written since the
+	 *         counts were last published
+	 */
+	public boolean isPublishDue( )
+	{
+		return rows - publishedRows >= PUBLISH_INTERVAL;
+	}
+
+	/**
+	 * Adds the counts since the previous publication to the metrics.
+	 *
+	 * @param metrics
+	 *            the metrics of the process
+	 * @param outputBytes
+	 *            the number of bytes written to the output so far
+	 * @param imageBytes
+	 *            the number of image bytes encoded so far
+	 */
+	public void publish( EmitterMetrics metrics, long outputBytes,
+			long imageBytes )
+	{
+		metrics.add( rows - publishedRows, data - publishedData, labels
+				- publishedLabels, texts - publishedTexts, images
+				- publishedImages, outputBytes - publishedOutputBytes,
+				imageBytes - publishedImageBytes, outputNanos
+				- publishedOutputNanos );
+		publishedRows = rows;
+		publishedData = data;
+		publishedLabels = labels;
+		publishedTexts = texts;
+		publishedImages = images;
+		publishedOutputBytes = outputBytes;
+		publishedImageBytes = imageBytes;
+		publishedOutputNanos = outputNanos;
+	}
+
+	/**
+	 * Builds the summary line of the report.
+	 *
+	 * @param outputBytes
+	 *            the number of bytes written to the output
+	 * @param imageBytes
+	 *            the number of image bytes encoded
+	 * @return the summary
+	 */
+	public String getSummary( long outputBytes, long imageBytes )
+	{
+		long elapsed = getElapsedTime( );
+		StringBuilder summary = new StringBuilder( );
+		summary.append( "tables=" ).append( tables ); //$NON-NLS-1$
+		summary.append( ", rows=" ).append( rows ); //$NON-NLS-1$
+		summary.append( ", cells=" ).append( cells ); //$NON-NLS-1$
+		summary.append( ", containers=" ).append( containers ); //$NON-NLS-1$
+		summary.append( ", texts=" ).append( texts ); //$NON-NLS-1$
+		summary.append( ", labels=" ).append( labels ); //$NON-NLS-1$
+		summary.append( ", data=" ).append( data ); //$NON-NLS-1$
+		summary.append( ", images=" ).append( images ); //$NON-NLS-1$
+		summary.append( ", imageBytes=" ).append( imageBytes ); //$NON-NLS-1$
+		summary.append( ", outputBytes=" ).append( outputBytes ); //$NON-NLS-1$
+		summary.append( ", outputTime=" ).append( getOutputTime( ) ).append( "ms" ); //$NON-NLS-1$ //$NON-NLS-2$
+		summary.append( ", elapsed=" ).append( elapsed ).append( "ms" ); //$NON-NLS-1$ //$NON-NLS-2$
+		if ( elapsed > 0 )
+		{
+			summary.append( ", rows/s=" ).append( rows * 1000 / elapsed ); //$NON-NLS-1$
+		}
+		return summary.toString( );
+	}
+}
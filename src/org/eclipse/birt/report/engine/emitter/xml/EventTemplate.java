@@ -0,0 +1,500 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A schema tag compiled into XML events.
+ * <p>
+ * The markup of the tag is parsed once into start tags with their
+ * attributes, end tags and text, with the slots of the template in place.
+ * Writing the tag then replays the events with the slot values, so the
+ * values are neither escaped nor parsed again. Declarations, processing
+ * instructions and comments are dropped together with the slots in them, and
+ * CDATA sections become text.
+ * Every tag of the template must be complete; a start tag left open is closed
+ * by the end tag of a later template.
+ */
+public class EventTemplate
+{
+
+	/**
+	 * a start tag, the argument is a {@link StartTag}
+	 */
+	public static final int START = 0;
+
+	/**
+	 * an end tag, the argument is the element name
+	 */
+	public static final int END = 1;
+
+	/**
+	 * text, the argument is the text
+	 */
+	public static final int TEXT = 2;
+
+	/**
+	 * a slot in text, the argument is the slot index
+	 */
+	public static final int SLOT = 3;
+
+	private static final char MARK = '\uFFFF';
+
+	private static final String CDATA_START = "<![CDATA["; //$NON-NLS-1$
+
+	private final int[] ops;
+
+	private final Object[] args;
+
+	private EventTemplate( List<Integer> ops, List<Object> args )
+	{
+		this.ops = new int[ops.size( )];
+		for ( int i = 0; i < this.ops.length; i++ )
+		{
+			this.ops[i] = ops.get( i ).intValue( );
+		}
+		this.args = args.toArray( );
+	}
+
+	/**
+	 * @return the number of events
+	 */
+	public int getCount( )
+	{
+		return ops.length;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the event
+	 * @return one of {@link #START}, {@link #END}, {@link #TEXT} and
+	 *         {@link #SLOT}
+	 */
+	public int getOp( int index )
+	{
+		return ops[index];
+	}
+
+	/**
+	 * @param index
+	 *            the index of the event
+	 * @return the argument of the event
+	 */
+	public Object getArg( int index )
+	{
+		return args[index];
+	}
+
+	/**
+	 * Compiles a template.
+	 *
+	 * @param template
+	 *            the template
+	 * @return the events
+	 */
+	public static EventTemplate compile( ExportTemplate template )
+	{
+		StringBuilder markup = new StringBuilder( );
+		int count = template.getSlotCount( );
+		for ( int i = 0; i < count; i++ )
+		{
+			markup.append( template.getLiteral( i ) ).append( MARK );
+		}
+		markup.append( template.getLiteral( count ) );
+		return compile( markup.toString( ) );
+	}
+
+	/**
+	 * Compiles markup without slots.
+	 *
+	 * @param markup
+	 *            the markup
+	 * @return the events
+	 */
+	public static EventTemplate compileMarkup( String markup )
+	{
+		return compile( markup.replace( MARK, ' ' ) );
+	}
+
+	private static EventTemplate compile( String markup )
+	{
+		Parser parser = new Parser( markup );
+		parser.parse( );
+		return new EventTemplate( parser.ops, parser.args );
+	}
+
+	/**
+	 * A start tag. An attribute value is a sequence of literal strings and
+	 * slot indexes.
+	 */
+	public static class StartTag
+	{
+
+		final String name;
+
+		final String[] attributeNames;
+
+		final Object[][] attributeValues;
+
+		final boolean empty;
+
+		StartTag( String name, List<String> names, List<Object[]> values,
+				boolean empty )
+		{
+			this.name = name;
+			this.attributeNames = names.toArray( new String[names.size( )] );
+			this.attributeValues = values.toArray( new Object[values.size( )][] );
+			this.empty = empty;
+		}
+
+		/**
+		 * @return the element name
+		 */
+		public String getName( )
+		{
+			return name;
+		}
+
+		/**
+		 * @return whether the tag also ends the element
+		 */
+		public boolean isEmpty( )
+		{
+			return empty;
+		}
+
+		/**
+		 * @return the number of attributes
+		 */
+		public int getAttributeCount( )
+		{
+			return attributeNames.length;
+		}
+
+		/**
+		 * @param index
+		 *            the index of the attribute
+		 * @return the attribute name
+		 */
+		public String getAttributeName( int index )
+		{
+			return attributeNames[index];
+		}
+
+		/**
+		 * @param index
+		 *            the index of the attribute
+		 * @return the parts of the value, strings and slot indexes
+		 */
+		public Object[] getAttributeValue( int index )
+		{
+			return attributeValues[index];
+		}
+	}
+
+	/**
+	 * Parses the markup of a template, the slots being marked by
+	 * {@link EventTemplate#MARK}.
+	 */
+	private static class Parser
+	{
+
+		final String markup;
+
+		final List<Integer> ops = new ArrayList<Integer>( );
+
+		final List<Object> args = new ArrayList<Object>( );
+
+		final StringBuilder text = new StringBuilder( );
+
+		int position;
+
+		int slot;
+
+		Parser( String markup )
+		{
+			this.markup = markup;
+		}
+
+		void parse( )
+		{
+			int length = markup.length( );
+			while ( position < length )
+			{
+				char c = markup.charAt( position );
+				if ( c == MARK )
+				{
+					addSlot( );
+					position++;
+				}
+				else if ( c == '&' )
+				{
+					text.append( readEntity( ) );
+				}
+				else if ( c != '<' )
+				{
+					text.append( c );
+					position++;
+				}
+				else if ( markup.startsWith( CDATA_START, position ) )
+				{
+					int end = find( "]]>", position ); //$NON-NLS-1$
+					for ( int i = position + CDATA_START.length( ); i < end; i++ )
+					{
+						if ( markup.charAt( i ) == MARK )
+						{
+							addSlot( );
+						}
+						else
+						{
+							text.append( markup.charAt( i ) );
+						}
+					}
+					position = end + 3;
+				}
+				else if ( markup.startsWith( "<!--", position ) ) //$NON-NLS-1$
+				{
+					skip( "-->" ); //$NON-NLS-1$
+				}
+				else if ( markup.startsWith( "<?", position ) ) //$NON-NLS-1$
+				{
+					skip( "?>" ); //$NON-NLS-1$
+				}
+				else if ( markup.startsWith( "<!", position ) ) //$NON-NLS-1$
+				{
+					skip( ">" ); //$NON-NLS-1$
+				}
+				else if ( markup.startsWith( "</", position ) ) //$NON-NLS-1$
+				{
+					int end = find( ">", position ); //$NON-NLS-1$
+					add( END, markup.substring( position + 2, end ).trim( ) );
+					position = end + 1;
+				}
+				else
+				{
+					readStartTag( );
+				}
+			}
+			flushText( );
+		}
+
+		private void readStartTag( )
+		{
+			position++;
+			String name = readName( );
+			List<String> names = new ArrayList<String>( );
+			List<Object[]> values = new ArrayList<Object[]>( );
+			while ( true )
+			{
+				skipSpaces( );
+				if ( markup.startsWith( "/>", position ) ) //$NON-NLS-1$
+				{
+					position += 2;
+					add( START, new StartTag( name, names, values, true ) );
+					return;
+				}
+				if ( markup.startsWith( ">", position ) ) //$NON-NLS-1$
+				{
+					position++;
+					add( START, new StartTag( name, names, values, false ) );
+					return;
+				}
+				names.add( readName( ) );
+				skipSpaces( );
+				expect( '=' );
+				skipSpaces( );
+				values.add( readAttributeValue( ) );
+			}
+		}
+
+		private Object[] readAttributeValue( )
+		{
+			char quote = markup.charAt( position );
+			if ( quote != '"' && quote != '\'' )
+			{
+				throw error( );
+			}
+			int end = find( String.valueOf( quote ), position + 1 );
+			position++;
+			List<Object> parts = new ArrayList<Object>( );
+			StringBuilder part = new StringBuilder( );
+			while ( position < end )
+			{
+				char c = markup.charAt( position );
+				if ( c == MARK )
+				{
+					if ( part.length( ) > 0 )
+					{
+						parts.add( part.toString( ) );
+						part.setLength( 0 );
+					}
+					parts.add( Integer.valueOf( slot++ ) );
+					position++;
+				}
+				else if ( c == '&' )
+				{
+					part.append( readEntity( ) );
+				}
+				else
+				{
+					part.append( c );
+					position++;
+				}
+			}
+			if ( part.length( ) > 0 || parts.isEmpty( ) )
+			{
+				parts.add( part.toString( ) );
+			}
+			position = end + 1;
+			return parts.toArray( );
+		}
+
+		private String readName( )
+		{
+			int start = position;
+			while ( position < markup.length( ) )
+			{
+				char c = markup.charAt( position );
+				if ( Character.isWhitespace( c ) || c == '=' || c == '>'
+						|| c == '/' || c == MARK )
+				{
+					break;
+				}
+				position++;
+			}
+			if ( position == start )
+			{
+				throw error( );
+			}
+			return markup.substring( start, position );
+		}
+
+		private String readEntity( )
+		{
+			int end = find( ";", position ); //$NON-NLS-1$
+			String entity = markup.substring( position + 1, end );
+			position = end + 1;
+			if ( entity.equals( "lt" ) ) //$NON-NLS-1$
+			{
+				return "<"; //$NON-NLS-1$
+			}
+			if ( entity.equals( "gt" ) ) //$NON-NLS-1$
+			{
+				return ">"; //$NON-NLS-1$
+			}
+			if ( entity.equals( "amp" ) ) //$NON-NLS-1$
+			{
+				return "&"; //$NON-NLS-1$
+			}
+			if ( entity.equals( "quot" ) ) //$NON-NLS-1$
+			{
+				return "\""; //$NON-NLS-1$
+			}
+			if ( entity.equals( "apos" ) ) //$NON-NLS-1$
+			{
+				return "'"; //$NON-NLS-1$
+			}
+			if ( entity.startsWith( "#" ) ) //$NON-NLS-1$
+			{
+				try
+				{
+					int codePoint = entity.startsWith( "#x" ) ? Integer.parseInt( //$NON-NLS-1$
+							entity.substring( 2 ), 16 )
+							: Integer.parseInt( entity.substring( 1 ) );
+					return new String( Character.toChars( codePoint ) );
+				}
+				catch ( IllegalArgumentException e )
+				{
+					throw error( );
+				}
+			}
+			throw error( );
+		}
+
+		private void skipSpaces( )
+		{
+			while ( position < markup.length( )
+					&& Character.isWhitespace( markup.charAt( position ) ) )
+			{
+				position++;
+			}
+		}
+
+		private void expect( char c )
+		{
+			if ( position >= markup.length( ) || markup.charAt( position ) != c )
+			{
+				throw error( );
+			}
+			position++;
+		}
+
+		private int find( String s, int from )
+		{
+			int index = markup.indexOf( s, from );
+			if ( index < 0 )
+			{
+				throw error( );
+			}
+			return index;
+		}
+
+		/**
+		 * Skips markup that is dropped up to the end of the delimiter. The
+		 * slots in it are counted, so that the later slots keep the index
+		 * of their property.
+		 */
+		private void skip( String delimiter )
+		{
+			int end = find( delimiter, position );
+			for ( int i = position; i < end; i++ )
+			{
+				if ( markup.charAt( i ) == MARK )
+				{
+					slot++;
+				}
+			}
+			position = end + delimiter.length( );
+		}
+
+		private void addSlot( )
+		{
+			flushText( );
+			add( SLOT, Integer.valueOf( slot++ ) );
+		}
+
+		private void flushText( )
+		{
+			if ( text.length( ) > 0 )
+			{
+				ops.add( Integer.valueOf( TEXT ) );
+				args.add( text.toString( ) );
+				text.setLength( 0 );
+			}
+		}
+
+		private void add( int op, Object arg )
+		{
+			flushText( );
+			ops.add( Integer.valueOf( op ) );
+			args.add( arg );
+		}
+
+		private IllegalArgumentException error( )
+		{
+			return new IllegalArgumentException( "Unsupported markup at " //$NON-NLS-1$
+					+ position + ": " + markup.replace( MARK, '?' ) ); //$NON-NLS-1$
+		}
+	}
+}
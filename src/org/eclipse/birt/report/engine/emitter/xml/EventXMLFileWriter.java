@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A writer handing the report to an XML event API instead of writing text.
+ * <p>
+ * The schema tags are compiled into {@link EventTemplate}s once and replayed
+ * for every element, so the markup is never serialized and parsed again.
+ * Everything written as code, such as slot values and image data, becomes
+ * character events. Characters that are not allowed in XML are dropped from
+ * them and from the attribute values, as {@link XMLEscaper} does for text
+ * output. Deferred content is written as soon as it arrives, since
+ * events cannot be held back and replayed in order.
+ * <p>
+ * The event APIs throw checked exceptions the writer cannot pass on. The
+ * first one is kept, available from {@link #getError()}, and the remaining
+ * events are dropped.
+ */
+public abstract class EventXMLFileWriter extends XMLFileWriter
+{
+
+	/**
+	 * Provides the values of the slots of a template.
+	 */
+	public interface SlotWriter
+	{
+
+		/**
+		 * @param slot
+		 *            the index of the slot in the template
+		 * @return the text of a slot in an attribute, may be
+		 *         <code>null</code>
+		 */
+		String getSlotText( int slot );
+
+		/**
+		 * Writes the value of a slot in text with
+		 * {@link XMLFileWriter#writeCode(String)}.
+		 *
+		 * @param slot
+		 *            the index of the slot in the template
+		 * @param writer
+		 *            the writer
+		 */
+		void writeSlot( int slot, XMLFileWriter writer );
+	}
+
+	private final Map<ExportTemplate, EventTemplate> templates = new IdentityHashMap<ExportTemplate, EventTemplate>( );
+
+	private final Map<String, EventTemplate> markups = new HashMap<String, EventTemplate>( );
+
+	private final StringBuilder attributeText = new StringBuilder( );
+
+	private String[] attributeValues = new String[8];
+
+	private Exception error;
+
+	/**
+	 * Does nothing, the events go to the API given to the constructor.
+	 */
+	public void open( OutputStream out, String encoding )
+	{
+	}
+
+	public void open( OutputStream out )
+	{
+	}
+
+	/**
+	 * @return the first error of the event API, or <code>null</code>
+	 */
+	public Exception getError( )
+	{
+		return error;
+	}
+
+	public void startWriter( )
+	{
+		super.startWriter( );
+		if ( error == null )
+		{
+			try
+			{
+				startDocument( );
+			}
+			catch ( Exception e )
+			{
+				error = e;
+			}
+		}
+	}
+
+	public void endWriter( )
+	{
+		if ( error == null )
+		{
+			try
+			{
+				endDocument( );
+				flushEvents( );
+			}
+			catch ( Exception e )
+			{
+				error = e;
+			}
+		}
+	}
+
+	/**
+	 * Does nothing, the event API belongs to the caller.
+	 */
+	public void close( )
+	{
+	}
+
+	/**
+	 * Writes the content right away.
+	 */
+	public void writeDeferred( DeferredContent content )
+	{
+		content.write( this );
+	}
+
+	/**
+	 * Writes markup without slots, such as the start and end tags of the
+	 * schema.
+	 */
+	public void closeTag( String markup )
+	{
+		EventTemplate events = markups.get( markup );
+		if ( events == null )
+		{
+			events = compile( markup, null );
+			markups.put( markup, events );
+		}
+		write( events, null );
+	}
+
+	/**
+	 * Writes a template.
+	 *
+	 * @param template
+	 *            the template
+	 * @param slots
+	 *            the values of the slots
+	 */
+	public void writeTemplate( ExportTemplate template, SlotWriter slots )
+	{
+		EventTemplate events = templates.get( template );
+		if ( events == null )
+		{
+			events = compile( null, template );
+			templates.put( template, events );
+		}
+		write( events, slots );
+	}
+
+	private EventTemplate compile( String markup, ExportTemplate template )
+	{
+		try
+		{
+			return markup != null ? EventTemplate.compileMarkup( markup )
+					: EventTemplate.compile( template );
+		}
+		catch ( IllegalArgumentException e )
+		{
+			if ( error == null )
+			{
+				error = e;
+			}
+			return EventTemplate.compileMarkup( "" ); //$NON-NLS-1$
+		}
+	}
+
+	private void write( EventTemplate events, SlotWriter slots )
+	{
+		int count = events.getCount( );
+		for ( int i = 0; i < count && error == null; i++ )
+		{
+			Object arg = events.getArg( i );
+			try
+			{
+				switch ( events.getOp( i ) )
+				{
+					case EventTemplate.START :
+						writeStartTag( (EventTemplate.StartTag) arg, slots );
+						break;
+					case EventTemplate.END :
+						endElement( (String) arg );
+						break;
+					case EventTemplate.TEXT :
+						characters( (String) arg );
+						break;
+					case EventTemplate.SLOT :
+						slots.writeSlot( ( (Integer) arg ).intValue( ), this );
+						break;
+				}
+			}
+			catch ( Exception e )
+			{
+				error = e;
+			}
+		}
+	}
+
+	private void writeStartTag( EventTemplate.StartTag tag, SlotWriter slots )
+			throws Exception
+	{
+		int count = tag.getAttributeCount( );
+		if ( count > attributeValues.length )
+		{
+			attributeValues = new String[count];
+		}
+		for ( int i = 0; i < count; i++ )
+		{
+			Object[] parts = tag.getAttributeValue( i );
+			if ( parts.length == 1 && parts[0] instanceof String )
+			{
+				attributeValues[i] = (String) parts[0];
+				continue;
+			}
+			attributeText.setLength( 0 );
+			for ( int j = 0; j < parts.length; j++ )
+			{
+				if ( parts[j] instanceof String )
+				{
+					attributeText.append( (String) parts[j] );
+				}
+				else
+				{
+					String text = slots.getSlotText( ( (Integer) parts[j] )
+							.intValue( ) );
+					if ( text != null )
+					{
+						attributeText.append( XMLEscaper.removeIllegal( text ) );
+					}
+				}
+			}
+			attributeValues[i] = attributeText.toString( );
+		}
+		startElement( tag.getName( ), tag.attributeNames, attributeValues,
+				count );
+		if ( tag.isEmpty( ) )
+		{
+			endElement( tag.getName( ) );
+		}
+	}
+
+	public void print( String s )
+	{
+		if ( error == null )
+		{
+			try
+			{
+				characters( XMLEscaper.removeIllegal( s ) );
+			}
+			catch ( Exception e )
+			{
+				error = e;
+			}
+		}
+	}
+
+	public void print( char c )
+	{
+		print( new char[]{c}, 0, 1 );
+	}
+
+	protected void print( char[] buffer, int offset, int length )
+	{
+		CharBuffer chars = CharBuffer.wrap( buffer, offset, length );
+		if ( XMLEscaper.indexOfIllegal( chars ) >= 0 )
+		{
+			print( chars.toString( ) );
+			return;
+		}
+		if ( error == null )
+		{
+			try
+			{
+				characters( buffer, offset, length );
+			}
+			catch ( Exception e )
+			{
+				error = e;
+			}
+		}
+	}
+
+	protected void flushOutput( )
+	{
+		if ( error == null )
+		{
+			try
+			{
+				flushEvents( );
+			}
+			catch ( Exception e )
+			{
+				error = e;
+			}
+		}
+	}
+
+	/**
+	 * Starts the document.
+	 *
+	 * @throws Exception
+	 *             an error of the event API
+	 */
+	protected abstract void startDocument( ) throws Exception;
+
+	/**
+	 * Ends the document.
+	 *
+	 * @throws Exception
+	 *             an error of the event API
+	 */
+	protected abstract void endDocument( ) throws Exception;
+
+	/**
+	 * Starts an element.
+	 *
+	 * @param name
+	 *            the element name
+	 * @param attributeNames
+	 *            the attribute names
+	 * @param attributeValues
+	 *            the attribute values
+	 * @param count
+	 *            the number of attributes
+	 * @throws Exception
+	 *             an error of the event API
+	 */
+	protected abstract void startElement( String name,
+			String[] attributeNames, String[] attributeValues, int count )
+			throws Exception;
+
+	/**
+	 * Ends an element.
+	 *
+	 * @param name
+	 *            the element name
+	 * @throws Exception
+	 *             an error of the event API
+	 */
+	protected abstract void endElement( String name ) throws Exception;
+
+	/**
+	 * Writes text.
+	 *
+	 * @param text
+	 *            the text
+	 * @throws Exception
+	 *             an error of the event API
+	 */
+	protected abstract void characters( String text ) throws Exception;
+
+	/**
+	 * Writes a range of characters.
+	 *
+	 * @param buffer
+	 *            the characters
+	 * @param offset
+	 *            the index of the first character
+	 * @param length
+	 *            the number of characters
+	 * @throws Exception
+	 *             an error of the event API
+	 */
+	protected abstract void characters( char[] buffer, int offset, int length )
+			throws Exception;
+
+	/**
+	 * Flushes the events written so far.
+	 *
+	 * @throws Exception
+	 *             an error of the event API
+	 */
+	protected abstract void flushEvents( ) throws Exception;
+}
@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+/**
+ * Receives the progress of a report, put in the app context under
+ * {@link XMLReportEmitter#APPCONTEXT_XML_PROGRESS_LISTENER}. It is called on
+ * the rendering thread, so it should return quickly.
+ */
+public interface ExportProgressListener
+{
+
+	/**
+	 * Called at the end of a top level row once
+	 * {@link EmitterStatistics#PUBLISH_INTERVAL} rows were written since the
+	 * last call. The rows of nested tables are counted too.
+	 * 
+	 * @param rows
+	 *            the number of rows written so far, nested rows included
+	 * @param outputBytes
+	 *            the number of bytes written so far
+	 */
+	void progress( long rows, long outputBytes );
+
+	/**
+	 * Called once the document is closed.
+	 * 
+	 * @param rows
+	 *            the number of rows written, nested rows included
+	 * @param outputBytes
+	 *            the number of bytes written
+	 * @param cancelled
+	 *            whether the report was cancelled
+	 */
+	void finished( long rows, long outputBytes, boolean cancelled );
+}
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of the parsed <code>.xmlemitter</code> schema files.
+ * <p>
+ * Entries are keyed by the absolute path of the schema file and remember the
+ * last-modified time and size the schema was parsed from. A cached entry is
+ * trusted for {@link #DEFAULT_CHECK_INTERVAL} milliseconds; after that the file
+ * is checked again and re-parsed only if it changed. Missing files are cached
+ * as well, so probing the candidate locations of a design costs nothing while
+ * the entry is fresh. The cache holds at most {@link #DEFAULT_MAX_ENTRIES}
+ * schemas and evicts the least recently used one.
+ * <p>
+ * <code>LoadExportSchema</code> instances are not modified after they are
+ * built, so one instance is shared by all emitters and threads.
+ */
+public class ExportSchemaCache
+{
+
+	/**
+	 * the default maximum number of cached schema files
+	 */
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+
+	/**
+	 * the default time in milliseconds a cached entry is used without checking
+	 * the file again
+	 */
+	public static final long DEFAULT_CHECK_INTERVAL = 2000;
+
+	private static final ExportSchemaCache instance = new ExportSchemaCache(
+			DEFAULT_MAX_ENTRIES, DEFAULT_CHECK_INTERVAL );
+
+	/**
+	 * the schema used when a design has no schema file
+	 */
+	private final LoadExportSchema defaultSchema = new LoadExportSchema( "" ); //$NON-NLS-1$
+
+	private final Map<String, SchemaEntry> entries;
+
+	private final long checkInterval;
+
+	/**
+	 * @param maxEntries
+	 *            the maximum number of cached schema files
+	 * @param checkInterval
+	 *            the time in milliseconds a cached entry is used without
+	 *            checking the file again
+	 */
+	public ExportSchemaCache( final int maxEntries, long checkInterval )
+	{
+		this.checkInterval = checkInterval;
+		this.entries = new LinkedHashMap<String, SchemaEntry>( 16, 0.75f, true ) {
+
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry( Map.Entry<String, SchemaEntry> eldest )
+			{
+				return size( ) > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @return the cache shared by all emitter instances
+	 */
+	public static ExportSchemaCache getInstance( )
+	{
+		return instance;
+	}
+
+	/**
+	 * @return the schema holding the default tags
+	 */
+	public LoadExportSchema getDefaultSchema( )
+	{
+		return defaultSchema;
+	}
+
+	/**
+	 * Returns the parsed schema of the given file, reading the file only if it
+	 * is not cached or has changed.
+	 *
+	 * @param fileName
+	 *            the schema file name
+	 * @return the schema, or <code>null</code> if the file does not exist
+	 */
+	public LoadExportSchema getSchema( String fileName )
+	{
+		File file = new File( fileName );
+		String key = file.getAbsolutePath( );
+		long now = System.currentTimeMillis( );
+		SchemaEntry entry;
+		synchronized ( entries )
+		{
+			entry = entries.get( key );
+		}
+		if ( entry != null && now - entry.checkedAt < checkInterval )
+		{
+			return entry.schema;
+		}
+
+		boolean exists = file.isFile( );
+		long lastModified = exists ? file.lastModified( ) : 0;
+		long length = exists ? file.length( ) : 0;
+		if ( entry != null && entry.exists == exists
+				&& entry.lastModified == lastModified && entry.length == length )
+		{
+			entry.checkedAt = now;
+			return entry.schema;
+		}
+
+		LoadExportSchema schema = null;
+		if ( exists )
+		{
+			Object event = FlightRecorderEvents
+					.begin( FlightRecorderEvents.SCHEMA_LOAD );
+			schema = new LoadExportSchema( key );
+			FlightRecorderEvents.commit( event, key );
+		}
+		entry = new SchemaEntry( schema, exists, lastModified, length, now );
+		synchronized ( entries )
+		{
+			entries.put( key, entry );
+		}
+		return schema;
+	}
+
+	/**
+	 * Drops all cached schemas.
+	 */
+	public void clear( )
+	{
+		synchronized ( entries )
+		{
+			entries.clear( );
+		}
+	}
+
+	private static class SchemaEntry
+	{
+
+		final LoadExportSchema schema;
+		final boolean exists;
+		final long lastModified;
+		final long length;
+		volatile long checkedAt;
+
+		SchemaEntry( LoadExportSchema schema, boolean exists, long lastModified,
+				long length, long checkedAt )
+		{
+			this.schema = schema;
+			this.exists = exists;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.checkedAt = checkedAt;
+		}
+	}
+}
@@ -0,0 +1,359 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A schema tag compiled into literal segments and placeholder slots.
+ * <p>
+ * A tag such as <code>&lt;data name="??Name"&gt;??value&lt;/data&gt;</code>
+ * is parsed once into the literals <code>&lt;data name="</code>,
+ * <code>"&gt;</code> and <code>&lt;/data&gt;</code> separated by two slots.
+ * Each slot is either {@link #VALUE_SLOT} or the index of the property in the
+ * property list of the element type, so the emitter can render an element by
+ * walking the slots without searching or copying the tag text.
+ * <p>
+ * The distinct properties used by the slots are collected into a bit mask and
+ * a list, so the emitter resolves exactly the properties the schema asks for,
+ * each once per element.
+ * <p>
+ * The template also records whether each slot lands in text, inside a tag or
+ * in a CDATA section, so values can be escaped for their context.
+ */
+public class ExportTemplate
+{
+
+	/**
+	 * the slot index of the <code>??value</code> placeholder
+	 */
+	public static final int VALUE_SLOT = -1;
+
+	/**
+	 * the largest number of properties an element type can have
+	 */
+	public static final int MAX_PROPERTIES = 64;
+
+	/**
+	 * a slot in character data
+	 */
+	public static final int CONTEXT_TEXT = 0;
+
+	/**
+	 * a slot inside a tag, usually in an attribute value
+	 */
+	public static final int CONTEXT_ATTRIBUTE = 1;
+
+	/**
+	 * a slot in a CDATA section
+	 */
+	public static final int CONTEXT_CDATA = 2;
+
+	// markup states while scanning the literals
+	private static final int STATE_TEXT = 0;
+	private static final int STATE_TAG = 1;
+	private static final int STATE_DOUBLE_QUOTED = 2;
+	private static final int STATE_SINGLE_QUOTED = 3;
+	private static final int STATE_CDATA = 4;
+	private static final int STATE_COMMENT = 5;
+
+	private static final String PLACEHOLDER_PREFIX = "??"; //$NON-NLS-1$
+
+	private final String tag;
+
+	private final int elementType;
+
+	private final String[] literals;
+
+	private final int[] slots;
+
+	private final int[] contexts;
+
+	private final int[] properties;
+
+	private final long propertyMask;
+
+	private ExportTemplate( String tag, int elementType, String[] literals,
+			int[] slots )
+	{
+		this.tag = tag;
+		this.elementType = elementType;
+		this.literals = literals;
+		this.slots = slots;
+		this.contexts = new int[slots.length];
+		long mask = 0;
+		int count = 0;
+		for ( int i = 0; i < slots.length; i++ )
+		{
+			if ( slots[i] != VALUE_SLOT && ( mask & ( 1L << slots[i] ) ) == 0 )
+			{
+				mask |= 1L << slots[i];
+				count++;
+			}
+		}
+		this.propertyMask = mask;
+		this.properties = new int[count];
+		for ( int property = 0, i = 0; i < count; property++ )
+		{
+			if ( ( mask & ( 1L << property ) ) != 0 )
+			{
+				properties[i++] = property;
+			}
+		}
+		int state = STATE_TEXT;
+		for ( int i = 0; i < slots.length; i++ )
+		{
+			state = scan( literals[i], state );
+			contexts[i] = toContext( state );
+		}
+	}
+
+	/**
+	 * Compiles a schema tag. Placeholders are matched case insensitively; when
+	 * several property names match at the same position the longest one wins.
+	 * Text starting with <code>??</code> that is neither a property nor the
+	 * value is kept as a literal.
+	 *
+	 * @param tag
+	 *            the tag text from the schema
+	 * @param elementType
+	 *            one of the <code>XMLTags.ELEMENT_*</code> constants
+	 * @param propList
+	 *            the property names of the element type
+	 * @return the compiled template
+	 */
+	public static ExportTemplate compile( String tag, int elementType,
+			String[] propList )
+	{
+		if ( propList.length > MAX_PROPERTIES )
+		{
+			throw new IllegalArgumentException( "Too many properties: " //$NON-NLS-1$
+					+ propList.length );
+		}
+		List<String> literals = new ArrayList<String>( );
+		List<Integer> slots = new ArrayList<Integer>( );
+		int start = 0;
+		int pos = tag.indexOf( PLACEHOLDER_PREFIX );
+		while ( pos >= 0 )
+		{
+			int nameStart = pos + PLACEHOLDER_PREFIX.length( );
+			int slot = VALUE_SLOT;
+			int matched = 0;
+			if ( tag.regionMatches( true, nameStart, XMLTags.valueName, 0,
+					XMLTags.valueName.length( ) ) )
+			{
+				matched = XMLTags.valueName.length( );
+			}
+			for ( int i = 0; i < propList.length; i++ )
+			{
+				int len = propList[i].length( );
+				if ( len > matched
+						&& tag.regionMatches( true, nameStart, propList[i], 0,
+								len ) )
+				{
+					slot = i;
+					matched = len;
+				}
+			}
+			if ( matched == 0 )
+			{
+				pos = tag.indexOf( PLACEHOLDER_PREFIX, pos + 1 );
+				continue;
+			}
+			literals.add( tag.substring( start, pos ) );
+			slots.add( Integer.valueOf( slot ) );
+			start = nameStart + matched;
+			pos = tag.indexOf( PLACEHOLDER_PREFIX, start );
+		}
+		literals.add( tag.substring( start ) );
+
+		int[] slotArray = new int[slots.size( )];
+		for ( int i = 0; i < slotArray.length; i++ )
+		{
+			slotArray[i] = slots.get( i ).intValue( );
+		}
+		return new ExportTemplate( tag, elementType,
+				literals.toArray( new String[literals.size( )] ), slotArray );
+	}
+
+	/**
+	 * Follows the markup of a literal to find where the next slot lands.
+	 */
+	private static int scan( String literal, int state )
+	{
+		int length = literal.length( );
+		for ( int i = 0; i < length; i++ )
+		{
+			char c = literal.charAt( i );
+			switch ( state )
+			{
+				case STATE_TEXT :
+					if ( literal.startsWith( "<![CDATA[", i ) ) //$NON-NLS-1$
+					{
+						state = STATE_CDATA;
+						i += 8;
+					}
+					else if ( literal.startsWith( "<!--", i ) ) //$NON-NLS-1$
+					{
+						state = STATE_COMMENT;
+						i += 3;
+					}
+					else if ( c == '<' )
+					{
+						state = STATE_TAG;
+					}
+					break;
+				case STATE_TAG :
+					if ( c == '"' )
+					{
+						state = STATE_DOUBLE_QUOTED;
+					}
+					else if ( c == '\'' )
+					{
+						state = STATE_SINGLE_QUOTED;
+					}
+					else if ( c == '>' )
+					{
+						state = STATE_TEXT;
+					}
+					break;
+				case STATE_DOUBLE_QUOTED :
+					if ( c == '"' )
+					{
+						state = STATE_TAG;
+					}
+					break;
+				case STATE_SINGLE_QUOTED :
+					if ( c == '\'' )
+					{
+						state = STATE_TAG;
+					}
+					break;
+				case STATE_CDATA :
+					if ( literal.startsWith( "]]>", i ) ) //$NON-NLS-1$
+					{
+						state = STATE_TEXT;
+						i += 2;
+					}
+					break;
+				case STATE_COMMENT :
+					if ( literal.startsWith( "-->", i ) ) //$NON-NLS-1$
+					{
+						state = STATE_TEXT;
+						i += 2;
+					}
+					break;
+			}
+		}
+		return state;
+	}
+
+	private static int toContext( int state )
+	{
+		switch ( state )
+		{
+			case STATE_TEXT :
+				return CONTEXT_TEXT;
+			case STATE_CDATA :
+				return CONTEXT_CDATA;
+			default :
+				return CONTEXT_ATTRIBUTE;
+		}
+	}
+
+	/**
+	 * @return the tag text the template was compiled from
+	 */
+	public String getTag( )
+	{
+		return tag;
+	}
+
+	/**
+	 * @return one of the <code>XMLTags.ELEMENT_*</code> constants
+	 */
+	public int getElementType( )
+	{
+		return elementType;
+	}
+
+	/**
+	 * @return the number of placeholder slots
+	 */
+	public int getSlotCount( )
+	{
+		return slots.length;
+	}
+
+	/**
+	 * @param index
+	 *            the slot position
+	 * @return the property index of the slot, or {@link #VALUE_SLOT}
+	 */
+	public int getSlot( int index )
+	{
+		return slots[index];
+	}
+
+	/**
+	 * @return the number of distinct properties the template uses
+	 */
+	public int getPropertyCount( )
+	{
+		return properties.length;
+	}
+
+	/**
+	 * @param index
+	 *            the position in the distinct properties, in ascending order
+	 * @return the property index
+	 */
+	public int getProperty( int index )
+	{
+		return properties[index];
+	}
+
+	/**
+	 * @param property
+	 *            the property index
+	 * @return whether any slot of the template uses the property
+	 */
+	public boolean isPropertyRequired( int property )
+	{
+		return ( propertyMask & ( 1L << property ) ) != 0;
+	}
+
+	/**
+	 * @param index
+	 *            the slot position
+	 * @return where the slot lands in the markup, one of the
+	 *         <code>CONTEXT_*</code> constants
+	 */
+	public int getContext( int index )
+	{
+		return contexts[index];
+	}
+
+	/**
+	 * Returns the literal text in front of the given slot. The literal at
+	 * <code>getSlotCount()</code> is the text after the last slot.
+	 *
+	 * @param index
+	 *            the literal position
+	 * @return the literal text, possibly empty
+	 */
+	public String getLiteral( int index )
+	{
+		return literals[index];
+	}
+}
@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Java Flight Recorder events of the emitter, so that its phases show in a
+ * recording next to the garbage collections and I/O of the process.
+ * <p>
+ * The bundle runs on Java 6, so the events are defined at run time with
+ * <code>jdk.jfr.EventFactory</code>, through reflection. On a JVM without
+ * Flight Recorder every method does nothing. A listener of the recorder keeps
+ * a flag per event type telling whether a recording wants it, so while
+ * nothing is recorded, {@link #begin(int)} and {@link #isEnabled(int)} cost a
+ * volatile read. Callers test the event or the flag before building the
+ * field values:
+ *
+ * <pre>
+ * Object event = FlightRecorderEvents.begin( FlightRecorderEvents.SCHEMA_LOAD );
+ * ...
+ * if ( event != null )
+ * {
+ * 	FlightRecorderEvents.commit( event, fileName );
+ * }
+ * </pre>
+ */
+public class FlightRecorderEvents
+{
+
+	/**
+	 * a report, from start to end: design file, schema file, rows, output
+	 * bytes
+	 */
+	public static final int REPORT = 0;
+
+	/**
+	 * the load of an image: URI, bytes
+	 */
+	public static final int IMAGE_FETCH = 1;
+
+	/**
+	 * the load of a schema file: file
+	 */
+	public static final int SCHEMA_LOAD = 2;
+
+	/**
+	 * a write to the output lasting more than 20 ms: rows, output bytes
+	 */
+	public static final int OUTPUT_STALL = 3;
+
+	/**
+	 * the progress of a report, every few hundred rows: design file, rows,
+	 * output bytes
+	 */
+	public static final int ROW_PROGRESS = 4;
+
+	private static final String PREFIX = "org.eclipse.birt.report.engine.emitter.xml."; //$NON-NLS-1$
+
+	private static final String CATEGORY = "BIRT XML Emitter"; //$NON-NLS-1$
+
+	private static final Logger logger = Logger.getLogger( FlightRecorderEvents.class
+			.getName( ) );
+
+	private static final EventType[] types = new EventType[5];
+
+	private static Method setMethod;
+
+	private static Method beginMethod;
+
+	private static Method commitMethod;
+
+	static
+	{
+		try
+		{
+			initialize( );
+		}
+		catch ( Throwable e )
+		{
+			// no Flight Recorder, the events stay disabled
+			logger.log( Level.FINE, "Flight Recorder events are not available: " //$NON-NLS-1$
+					+ e );
+			for ( int i = 0; i < types.length; i++ )
+			{
+				types[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * @param type
+	 *            the event type
+	 * @return whether a recording wants the events of the type
+	 */
+	public static boolean isEnabled( int type )
+	{
+		EventType eventType = types[type];
+		return eventType != null && eventType.enabled;
+	}
+
+	/**
+	 * Starts an event.
+	 *
+	 * @param type
+	 *            the event type
+	 * @return the event, or <code>null</code> if the type is not recorded
+	 */
+	public static Object begin( int type )
+	{
+		EventType eventType = types[type];
+		if ( eventType == null || !eventType.enabled )
+		{
+			return null;
+		}
+		try
+		{
+			Object event = eventType.newEvent.invoke( eventType.factory );
+			beginMethod.invoke( event );
+			return event;
+		}
+		catch ( Exception e )
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Ends an event and records it.
+	 *
+	 * @param event
+	 *            the event returned by {@link #begin(int)}, may be
+	 *            <code>null</code>
+	 * @param values
+	 *            the values of the fields of the event
+	 */
+	public static void commit( Object event, Object... values )
+	{
+		if ( event == null )
+		{
+			return;
+		}
+		try
+		{
+			for ( int i = 0; i < values.length; i++ )
+			{
+				setMethod.invoke( event, Integer.valueOf( i ), values[i] );
+			}
+			commitMethod.invoke( event );
+		}
+		catch ( Exception e )
+		{
+			logger.log( Level.FINE, e.getMessage( ), e );
+		}
+	}
+
+	/**
+	 * Records an event without duration.
+	 *
+	 * @param type
+	 *            the event type
+	 * @param values
+	 *            the values of the fields of the event
+	 */
+	public static void emit( int type, Object... values )
+	{
+		commit( begin( type ), values );
+	}
+
+	private static void initialize( ) throws Exception
+	{
+		Class<?> eventClass = loadClass( "jdk.jfr.Event" ); //$NON-NLS-1$
+		setMethod = eventClass.getMethod( "set", int.class, Object.class ); //$NON-NLS-1$
+		beginMethod = eventClass.getMethod( "begin" ); //$NON-NLS-1$
+		commitMethod = eventClass.getMethod( "commit" ); //$NON-NLS-1$
+
+		types[REPORT] = new EventType( "Report", "Report", //$NON-NLS-1$ //$NON-NLS-2$
+				null, new Object[]{String.class, "designFile", //$NON-NLS-1$
+						String.class, "schemaFile", //$NON-NLS-1$
+						long.class, "rows", //$NON-NLS-1$
+						long.class, "outputBytes"} ); //$NON-NLS-1$
+		types[IMAGE_FETCH] = new EventType( "ImageFetch", "Image Fetch", //$NON-NLS-1$ //$NON-NLS-2$
+				null, new Object[]{String.class, "uri", //$NON-NLS-1$
+						long.class, "bytes"} ); //$NON-NLS-1$
+		types[SCHEMA_LOAD] = new EventType( "SchemaLoad", "Schema Load", //$NON-NLS-1$ //$NON-NLS-2$
+				null, new Object[]{String.class, "schemaFile"} ); //$NON-NLS-1$
+		types[OUTPUT_STALL] = new EventType( "OutputStall", "Output Stall", //$NON-NLS-1$ //$NON-NLS-2$
+				"20 ms", new Object[]{long.class, "rows", //$NON-NLS-1$
+						long.class, "outputBytes"} ); //$NON-NLS-1$
+		types[ROW_PROGRESS] = new EventType( "RowProgress", "Row Progress", //$NON-NLS-1$ //$NON-NLS-2$
+				null, new Object[]{String.class, "designFile", //$NON-NLS-1$
+						long.class, "rows", //$NON-NLS-1$
+						long.class, "outputBytes"} ); //$NON-NLS-1$
+
+		Class<?> recorderClass = loadClass( "jdk.jfr.FlightRecorder" ); //$NON-NLS-1$
+		Class<?> listenerClass = loadClass( "jdk.jfr.FlightRecorderListener" ); //$NON-NLS-1$
+		Object listener = Proxy.newProxyInstance( listenerClass
+				.getClassLoader( ), new Class<?>[]{listenerClass},
+				new InvocationHandler( ) {
+
+					public Object invoke( Object proxy, Method method,
+							Object[] args )
+					{
+						if ( method.getDeclaringClass( ) == Object.class )
+						{
+							return objectMethod( proxy, method, args );
+						}
+						updateEnabled( );
+						return null;
+					}
+				} );
+		recorderClass.getMethod( "addListener", listenerClass ).invoke( null, //$NON-NLS-1$
+				listener );
+		updateEnabled( );
+	}
+
+	private static Object objectMethod( Object proxy, Method method,
+			Object[] args )
+	{
+		if ( method.getName( ).equals( "equals" ) ) //$NON-NLS-1$
+		{
+			return Boolean.valueOf( proxy == args[0] );
+		}
+		if ( method.getName( ).equals( "hashCode" ) ) //$NON-NLS-1$
+		{
+			return Integer.valueOf( System.identityHashCode( proxy ) );
+		}
+		return FlightRecorderEvents.class.getName( ) + "$Listener"; //$NON-NLS-1$
+	}
+
+	/**
+	 * Reads whether each event type is recorded, when a recording starts or
+	 * stops.
+	 */
+	private static void updateEnabled( )
+	{
+		for ( int i = 0; i < types.length; i++ )
+		{
+			if ( types[i] != null )
+			{
+				types[i].update( );
+			}
+		}
+	}
+
+	private static Class<?> loadClass( String name )
+			throws ClassNotFoundException
+	{
+		return Class.forName( name, true, ClassLoader.getSystemClassLoader( ) );
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object annotation( String name, Object value )
+			throws Exception
+	{
+		Class<? extends Annotation> annotationClass = (Class<? extends Annotation>) loadClass( name );
+		Constructor<?> constructor = loadClass( "jdk.jfr.AnnotationElement" ) //$NON-NLS-1$
+				.getConstructor( Class.class, Object.class );
+		return constructor.newInstance( annotationClass, value );
+	}
+
+	/**
+	 * An event type defined with the event factory.
+	 */
+	private static class EventType
+	{
+
+		final Object factory;
+
+		final Method newEvent;
+
+		final Method isEnabled;
+
+		final Object platformType;
+
+		volatile boolean enabled;
+
+		/**
+		 * @param name
+		 *            the name of the event
+		 * @param label
+		 *            the label of the event
+		 * @param threshold
+		 *            the default threshold of the event, <code>null</code>
+		 *            for none
+		 * @param fields
+		 *            the type and name of each field
+		 */
+		EventType( String name, String label, String threshold,
+				Object[] fields ) throws Exception
+		{
+			List<Object> annotations = new ArrayList<Object>( );
+			annotations.add( annotation( "jdk.jfr.Name", PREFIX + name ) ); //$NON-NLS-1$
+			annotations.add( annotation( "jdk.jfr.Label", label ) ); //$NON-NLS-1$
+			annotations.add( annotation( "jdk.jfr.Category", //$NON-NLS-1$
+					new String[]{CATEGORY} ) );
+			annotations.add( annotation( "jdk.jfr.StackTrace", Boolean.FALSE ) ); //$NON-NLS-1$
+			if ( threshold != null )
+			{
+				annotations.add( annotation( "jdk.jfr.Threshold", threshold ) ); //$NON-NLS-1$
+			}
+			Class<?> descriptorClass = loadClass( "jdk.jfr.ValueDescriptor" ); //$NON-NLS-1$
+			Constructor<?> descriptor = descriptorClass.getConstructor(
+					Class.class, String.class );
+			List<Object> descriptors = new ArrayList<Object>( );
+			for ( int i = 0; i < fields.length; i += 2 )
+			{
+				descriptors.add( descriptor.newInstance( fields[i],
+						fields[i + 1] ) );
+			}
+			Class<?> factoryClass = loadClass( "jdk.jfr.EventFactory" ); //$NON-NLS-1$
+			factory = factoryClass.getMethod( "create", List.class, List.class ) //$NON-NLS-1$
+					.invoke( null, annotations, descriptors );
+			newEvent = factoryClass.getMethod( "newEvent" ); //$NON-NLS-1$
+			platformType = factoryClass.getMethod( "getEventType" ).invoke( //$NON-NLS-1$
+					factory );
+			isEnabled = platformType.getClass( ).getMethod( "isEnabled" ); //$NON-NLS-1$
+		}
+
+		void update( )
+		{
+			try
+			{
+				enabled = ( (Boolean) isEnabled.invoke( platformType ) )
+						.booleanValue( );
+			}
+			catch ( Exception e )
+			{
+				enabled = false;
+			}
+		}
+	}
+}
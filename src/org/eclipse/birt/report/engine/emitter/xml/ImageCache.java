@@ -0,0 +1,299 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process wide cache of images loaded by URI.
+ * <p>
+ * The cache is bounded by the total size of the cached images and evicts the
+ * least recently used ones. Entries expire after a time to live. URIs that
+ * failed to load are remembered for a shorter time, so a broken URL is not
+ * requested again by every row and every report. Failures take part in the
+ * least recently used order with a nominal size, and their number is bounded
+ * too.
+ */
+public class ImageCache
+{
+
+	/**
+	 * the default total size of the cached images in bytes
+	 */
+	public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+	/**
+	 * the default time to live of a cached image in milliseconds
+	 */
+	public static final long DEFAULT_TTL = 5 * 60 * 1000L;
+
+	/**
+	 * the default time to live of a cached failure in milliseconds
+	 */
+	public static final long DEFAULT_FAILURE_TTL = 30 * 1000L;
+
+	/**
+	 * the largest number of cached failures
+	 */
+	public static final int MAX_FAILURES = 1024;
+
+	/**
+	 * the size a cached failure counts for, besides its message
+	 */
+	private static final int FAILURE_BYTES = 64;
+
+	private static final ImageCache instance = new ImageCache(
+			DEFAULT_MAX_BYTES, DEFAULT_TTL, DEFAULT_FAILURE_TTL );
+
+	private final LinkedHashMap<String, CachedImage> images = new LinkedHashMap<String, CachedImage>(
+			16, 0.75f, true );
+
+	private long maxBytes;
+
+	private long ttl;
+
+	private long failureTtl;
+
+	private long totalBytes;
+
+	private int failures;
+
+	/**
+	 * when expired entries are next removed from the whole cache
+	 */
+	private long nextSweep;
+
+	/**
+	 * @param maxBytes
+	 *            the total size of the cached images in bytes
+	 * @param ttl
+	 *            the time to live of a cached image in milliseconds
+	 * @param failureTtl
+	 *            the time to live of a cached failure in milliseconds
+	 */
+	public ImageCache( long maxBytes, long ttl, long failureTtl )
+	{
+		setLimits( maxBytes, ttl, failureTtl );
+	}
+
+	/**
+	 * @return the cache shared by all emitter instances
+	 */
+	public static ImageCache getInstance( )
+	{
+		return instance;
+	}
+
+	/**
+	 * Changes the limits of the cache, evicting images if needed.
+	 *
+	 * @param maxBytes
+	 *            the total size of the cached images in bytes
+	 * @param ttl
+	 *            the time to live of a cached image in milliseconds
+	 * @param failureTtl
+	 *            the time to live of a cached failure in milliseconds
+	 */
+	public synchronized void setLimits( long maxBytes, long ttl,
+			long failureTtl )
+	{
+		this.maxBytes = maxBytes;
+		this.ttl = ttl;
+		this.failureTtl = failureTtl;
+		evict( );
+	}
+
+	/**
+	 * @return the largest image the cache accepts, in bytes
+	 */
+	public synchronized long getMaxImageBytes( )
+	{
+		return maxBytes / 4;
+	}
+
+	/**
+	 * Returns the cached image data.
+	 *
+	 * @param uri
+	 *            the image URI
+	 * @return the image data, or <code>null</code> if the image is not cached
+	 * @throws ImageUnavailableException
+	 *             if loading the image failed recently
+	 */
+	public synchronized byte[] get( String uri )
+			throws ImageUnavailableException
+	{
+		CachedImage image = images.get( uri );
+		if ( image == null )
+		{
+			return null;
+		}
+		if ( image.expires < System.currentTimeMillis( ) )
+		{
+			remove( uri );
+			return null;
+		}
+		if ( image.failure != null )
+		{
+			throw new ImageUnavailableException( uri, image.failure );
+		}
+		return image.data;
+	}
+
+	/**
+	 * Caches the data of an image. Images larger than
+	 * {@link #getMaxImageBytes()} are not cached.
+	 *
+	 * @param uri
+	 *            the image URI
+	 * @param data
+	 *            the image data
+	 */
+	public synchronized void put( String uri, byte[] data )
+	{
+		if ( data.length > getMaxImageBytes( ) )
+		{
+			return;
+		}
+		remove( uri );
+		add( uri, new CachedImage( data, null, System.currentTimeMillis( )
+				+ ttl ) );
+		evict( );
+	}
+
+	/**
+	 * Remembers that an image could not be loaded.
+	 *
+	 * @param uri
+	 *            the image URI
+	 * @param failure
+	 *            the reason of the failure
+	 */
+	public synchronized void putFailure( String uri, String failure )
+	{
+		if ( failureTtl <= 0 )
+		{
+			return;
+		}
+		remove( uri );
+		add( uri, new CachedImage( null, failure == null ? "" : failure, //$NON-NLS-1$
+				System.currentTimeMillis( ) + failureTtl ) );
+		evict( );
+	}
+
+	/**
+	 * Drops all cached images and failures.
+	 */
+	public synchronized void clear( )
+	{
+		images.clear( );
+		totalBytes = 0;
+		failures = 0;
+	}
+
+	/**
+	 * @return the number of cached images and failures
+	 */
+	public synchronized int size( )
+	{
+		return images.size( );
+	}
+
+	private void add( String uri, CachedImage image )
+	{
+		images.put( uri, image );
+		totalBytes += image.size( );
+		if ( image.failure != null )
+		{
+			failures++;
+		}
+	}
+
+	private void remove( String uri )
+	{
+		CachedImage image = images.remove( uri );
+		if ( image != null )
+		{
+			removed( image );
+		}
+	}
+
+	private void removed( CachedImage image )
+	{
+		totalBytes -= image.size( );
+		if ( image.failure != null )
+		{
+			failures--;
+		}
+	}
+
+	/**
+	 * Removes the expired entries, at most once per time to live, then the
+	 * least recently used ones until the cache is within its limits.
+	 */
+	private void evict( )
+	{
+		long now = System.currentTimeMillis( );
+		if ( now >= nextSweep )
+		{
+			Iterator<CachedImage> iter = images.values( ).iterator( );
+			while ( iter.hasNext( ) )
+			{
+				CachedImage image = iter.next( );
+				if ( image.expires < now )
+				{
+					removed( image );
+					iter.remove( );
+				}
+			}
+			nextSweep = now + Math.max( 1, Math.min( ttl, failureTtl > 0
+					? failureTtl
+					: ttl ) );
+		}
+		Iterator<Map.Entry<String, CachedImage>> iter = images.entrySet( )
+				.iterator( );
+		while ( ( totalBytes > maxBytes || failures > MAX_FAILURES )
+				&& iter.hasNext( ) )
+		{
+			CachedImage image = iter.next( ).getValue( );
+			// too many failures alone only evicts failures
+			if ( totalBytes > maxBytes || image.failure != null )
+			{
+				removed( image );
+				iter.remove( );
+			}
+		}
+	}
+
+	private static class CachedImage
+	{
+
+		final byte[] data;
+		final String failure;
+		final long expires;
+
+		CachedImage( byte[] data, String failure, long expires )
+		{
+			this.data = data;
+			this.failure = failure;
+			this.expires = expires;
+		}
+
+		long size( )
+		{
+			return data != null ? data.length : FAILURE_BYTES
+					+ 2L * failure.length( );
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.birt.report.engine.content.IImageContent;
+
+/**
+ * Assigns short ids to the distinct images of one report.
+ * <p>
+ * Images carrying their data are identified by a SHA-1 hash of the bytes,
+ * images loaded from a URI by the URI itself, so a repeated URI image is not
+ * fetched again.
+ */
+public class ImageDictionary
+{
+
+	private static final String ID_PREFIX = "img"; //$NON-NLS-1$
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray( ); //$NON-NLS-1$
+
+	private final Map<String, String> ids = new HashMap<String, String>( );
+
+	private MessageDigest digest;
+
+	/**
+	 * Returns the key identifying the image.
+	 *
+	 * @param image
+	 *            the image content
+	 * @return the key, or <code>null</code> if the image has neither data nor
+	 *         a URI
+	 */
+	public String getKey( IImageContent image )
+	{
+		byte[] data = image.getData( );
+		if ( data != null )
+		{
+			return hashKey( data );
+		}
+		String uri = image.getURI( );
+		if ( uri != null )
+		{
+			return uriKey( uri );
+		}
+		return null;
+	}
+
+	/**
+	 * @param uri
+	 *            the image URI
+	 * @return the key of the image loaded from the URI
+	 */
+	public String uriKey( String uri )
+	{
+		return "uri:" + uri; //$NON-NLS-1$
+	}
+
+	/**
+	 * @param key
+	 *            the image key
+	 * @return the id already assigned to the image, or <code>null</code>
+	 */
+	public String getId( String key )
+	{
+		return ids.get( key );
+	}
+
+	/**
+	 * Assigns the next id to an image.
+	 *
+	 * @param key
+	 *            the image key
+	 * @return the new id
+	 */
+	public String register( String key )
+	{
+		String id = ID_PREFIX + ( ids.size( ) + 1 );
+		ids.put( key, id );
+		return id;
+	}
+
+	private String hashKey( byte[] data )
+	{
+		if ( digest == null )
+		{
+			try
+			{
+				digest = MessageDigest.getInstance( "SHA-1" ); //$NON-NLS-1$
+			}
+			catch ( NoSuchAlgorithmException e )
+			{
+				throw new IllegalStateException( e.getMessage( ) );
+			}
+		}
+		byte[] hash = digest.digest( data );
+		char[] key = new char[hash.length * 2 + 5];
+		"sha1:".getChars( 0, 5, key, 0 ); //$NON-NLS-1$
+		for ( int i = 0; i < hash.length; i++ )
+		{
+			key[5 + i * 2] = HEX[( hash[i] >>> 4 ) & 0xf];
+			key[6 + i * 2] = HEX[hash[i] & 0xf];
+		}
+		return new String( key );
+	}
+}
@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads the images referenced by URI.
+ * <p>
+ * Every connection uses the configured connect and read timeouts. With a
+ * positive thread count the loader also fetches images in the background on a
+ * fixed pool of daemon threads, so the emitter can keep rendering while the
+ * image servers respond. Any URL the JVM supports works, including
+ * <code>file:</code> URLs.
+ * <p>
+ * When an <code>ImageCache</code> is given, images are served from it and
+ * images read completely are added to it. Failed loads are added as well, so
+ * they fail fast until the failure expires.
+ */
+public class ImageLoader
+{
+
+	/**
+	 * the default connect timeout in milliseconds
+	 */
+	public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+
+	/**
+	 * the default read timeout in milliseconds
+	 */
+	public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+	private static final AtomicInteger poolNumber = new AtomicInteger( );
+
+	private final int threads;
+
+	private final int connectTimeout;
+
+	private final int readTimeout;
+
+	private final ImageCache cache;
+
+	private ExecutorService executor;
+
+	/**
+	 * @param threads
+	 *            the number of fetch threads, 0 to load images only on the
+	 *            calling thread
+	 * @param connectTimeout
+	 *            the connect timeout in milliseconds, 0 for none
+	 * @param readTimeout
+	 *            the read timeout in milliseconds, 0 for none
+	 * @param cache
+	 *            the image cache, or <code>null</code> to always load images
+	 */
+	public ImageLoader( int threads, int connectTimeout, int readTimeout,
+			ImageCache cache )
+	{
+		this.threads = threads;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.cache = cache;
+	}
+
+	/**
+	 * @return whether {@link #fetch(String)} loads images in the background
+	 */
+	public boolean isAsynchronous( )
+	{
+		return threads > 0;
+	}
+
+	/**
+	 * Opens a connection to the image.
+	 *
+	 * @param uri
+	 *            the image URI
+	 * @return the image data stream
+	 * @throws IOException
+	 *             if the image cannot be opened, an
+	 *             <code>ImageUnavailableException</code> if it failed recently
+	 */
+	public InputStream openStream( String uri ) throws IOException
+	{
+		if ( cache == null )
+		{
+			return connect( uri );
+		}
+		byte[] data = cache.get( uri );
+		if ( data != null )
+		{
+			return new ByteArrayInputStream( data );
+		}
+		try
+		{
+			return new CachingInputStream( uri, connect( uri ) );
+		}
+		catch ( IOException e )
+		{
+			cache.putFailure( uri, e.getMessage( ) );
+			throw e;
+		}
+	}
+
+	private InputStream connect( String uri ) throws IOException
+	{
+		URLConnection connection = new URL( uri ).openConnection( );
+		connection.setConnectTimeout( connectTimeout );
+		connection.setReadTimeout( readTimeout );
+		return connection.getInputStream( );
+	}
+
+	/**
+	 * Reads the whole image on the calling thread.
+	 *
+	 * @param uri
+	 *            the image URI
+	 * @return the image data
+	 * @throws IOException
+	 *             if the image cannot be read
+	 */
+	public byte[] load( String uri ) throws IOException
+	{
+		InputStream in = openStream( uri );
+		try
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream( );
+			byte[] buffer = new byte[4096];
+			int count;
+			while ( ( count = in.read( buffer ) ) >= 0 )
+			{
+				out.write( buffer, 0, count );
+			}
+			return out.toByteArray( );
+		}
+		finally
+		{
+			in.close( );
+		}
+	}
+
+	/**
+	 * Starts loading an image in the background.
+	 *
+	 * @param uri
+	 *            the image URI
+	 * @return the future image data
+	 */
+	public synchronized Future<byte[]> fetch( final String uri )
+	{
+		if ( executor == null )
+		{
+			executor = createExecutor( );
+		}
+		return executor.submit( new Callable<byte[]>( ) {
+
+			public byte[] call( ) throws IOException
+			{
+				long start = System.nanoTime( );
+				Object event = FlightRecorderEvents
+						.begin( FlightRecorderEvents.IMAGE_FETCH );
+				byte[] data = null;
+				try
+				{
+					data = load( uri );
+					return data;
+				}
+				finally
+				{
+					EmitterMetrics.getInstance( ).imageFetched(
+							System.nanoTime( ) - start );
+					if ( event != null )
+					{
+						FlightRecorderEvents.commit( event, uri, Long
+								.valueOf( data == null ? 0 : data.length ) );
+					}
+				}
+			}
+		} );
+	}
+
+	/**
+	 * Stops the fetch threads. Fetches that have not completed are abandoned.
+	 */
+	public synchronized void shutdown( )
+	{
+		if ( executor != null )
+		{
+			executor.shutdownNow( );
+			executor = null;
+		}
+	}
+
+	private ExecutorService createExecutor( )
+	{
+		final String prefix = "XMLEmitter-ImageLoader-" //$NON-NLS-1$
+				+ poolNumber.incrementAndGet( ) + "-"; //$NON-NLS-1$
+		ThreadPoolExecutor pool = new ThreadPoolExecutor( threads, threads,
+				30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>( ),
+				new ThreadFactory( ) {
+
+					private final AtomicInteger threadNumber = new AtomicInteger( );
+
+					public Thread newThread( Runnable r )
+					{
+						Thread thread = new Thread( r, prefix
+								+ threadNumber.incrementAndGet( ) );
+						thread.setDaemon( true );
+						return thread;
+					}
+				} );
+		pool.allowCoreThreadTimeOut( true );
+		return pool;
+	}
+
+	/**
+	 * Copies the image data while it is read and adds it to the cache once the
+	 * stream is read to the end, unless the image is too large to be cached.
+	 */
+	private class CachingInputStream extends FilterInputStream
+	{
+
+		private final String uri;
+
+		private final long maxBytes;
+
+		private ByteArrayOutputStream copy = new ByteArrayOutputStream( );
+
+		CachingInputStream( String uri, InputStream in )
+		{
+			super( in );
+			this.uri = uri;
+			this.maxBytes = cache.getMaxImageBytes( );
+		}
+
+		public int read( ) throws IOException
+		{
+			byte[] b = new byte[1];
+			int count = read( b, 0, 1 );
+			return count < 0 ? -1 : b[0] & 0xff;
+		}
+
+		public int read( byte[] b, int off, int len ) throws IOException
+		{
+			int count;
+			try
+			{
+				count = super.read( b, off, len );
+			}
+			catch ( IOException e )
+			{
+				copy = null;
+				cache.putFailure( uri, e.getMessage( ) );
+				throw e;
+			}
+			if ( copy != null )
+			{
+				if ( count < 0 )
+				{
+					cache.put( uri, copy.toByteArray( ) );
+					copy = null;
+				}
+				else if ( copy.size( ) + count > maxBytes )
+				{
+					copy = null;
+				}
+				else
+				{
+					copy.write( b, off, count );
+				}
+			}
+			return count;
+		}
+
+		public long skip( long n ) throws IOException
+		{
+			copy = null;
+			return super.skip( n );
+		}
+	}
+}
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.IOException;
+
+/**
+ * Thrown for an image URI whose last load failed recently. The failure was
+ * already logged when it happened.
+ */
+public class ImageUnavailableException extends IOException
+{
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param uri
+	 *            the image URI
+	 * @param failure
+	 *            the message of the original failure
+	 */
+	public ImageUnavailableException( String uri, String failure )
+	{
+		super( "Image " + uri + " is unavailable: " + failure ); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
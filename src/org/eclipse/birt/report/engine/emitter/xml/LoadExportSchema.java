@@ -23,12 +23,23 @@ public class LoadExportSchema{
 	protected String startTag = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
 	protected String textTag = "<text><![CDATA[??value]]></text>";
 	protected String imageTag = "<image><![CDATA[??value]]></image>";
+	protected String imageDefTag = "<image id=\"??ImageID\"><![CDATA[??value]]></image>";
+	protected String imageRefTag = "<image ref=\"??ImageID\"/>";
 	protected String dataTag = "<data name=\"??Name\" key=\"??DataKey\" desc=\"??DataDesc\"><![CDATA[??value]]></data>";
 	protected String labelTag = "<label><![CDATA[??value]]></label>";
 	protected String endTag = "</report>";
 	protected String reportTag = "<report>";
 	protected String endRowTag = "</row>";
 	protected String startRowTag = "<row id=\"??rowID\">";
+
+	protected ExportTemplate textTemplate;
+	protected ExportTemplate imageTemplate;
+	protected ExportTemplate imageDefTemplate;
+	protected ExportTemplate imageRefTemplate;
+	protected ExportTemplate dataTemplate;
+	protected ExportTemplate labelTemplate;
+	protected ExportTemplate reportTemplate;
+	protected ExportTemplate startRowTemplate;
 		
 /**
  * start=<?xml version="1.0" encoding="UTF-8"?>
@@ -36,6 +47,8 @@ public class LoadExportSchema{
  * label=<label:??name>??value</label>
 * text=<text:??name>??value</text>
 * image=<image:??name>??value</image>
+* imagedef=<image id="??ImageID">??value</image>
+* imageref=<image ref="??ImageID"/>
 * data=<data:??name>??value</data>
 * end=</report>
  */
@@ -47,6 +60,15 @@ public class LoadExportSchema{
 			this.fileName = fileName;
 			readSchemaFile();
 		}
+		compileTemplates();
+	}
+
+	/**
+	 * @return the schema file, empty for the default schema
+	 */
+	public String getFileName()
+	{
+		return fileName;
 	}
 
 	public String getExportLabelTag()
@@ -91,6 +113,51 @@ public class LoadExportSchema{
 		return endRowTag;
 	}
 
+	public ExportTemplate getLabelTemplate()
+	{
+		return labelTemplate;
+	}
+
+	public ExportTemplate getImageTemplate()
+	{
+		return imageTemplate;
+	}
+
+	public ExportTemplate getImageDefTemplate()
+	{
+		return imageDefTemplate;
+	}
+
+	public ExportTemplate getImageRefTemplate()
+	{
+		return imageRefTemplate;
+	}
+
+	public ExportTemplate getDataTemplate()
+	{
+		return dataTemplate;
+	}
+
+	public ExportTemplate getReportTemplate()
+	{
+		return reportTemplate;
+	}
+
+	public ExportTemplate getTextTemplate()
+	{
+		return textTemplate;
+	}
+
+	public ExportTemplate getStartRowTemplate()
+	{
+		return startRowTemplate;
+	}
+
+	/**
+	 * @deprecated the compiled templates know their properties, use
+	 *             {@link ExportTemplate#isPropertyRequired(int)}
+	 */
+	@Deprecated
 	public boolean isPropertyRequired( String propValue,  String controlTag )
 	{
 		if  ( (controlTag.toLowerCase()).indexOf( propValue.toLowerCase() ) > 0 )
@@ -100,6 +167,30 @@ public class LoadExportSchema{
 		return false;
 	}
 
+	/**
+	 * Parses the tags into templates once, so rendering an element does not
+	 * need to search the tag text for placeholders.
+	 */
+	private void compileTemplates()
+	{
+		textTemplate = ExportTemplate.compile( textTag, XMLTags.ELEMENT_TEXT,
+				XMLTags.tPropList );
+		imageTemplate = ExportTemplate.compile( imageTag,
+				XMLTags.ELEMENT_IMAGE, XMLTags.iPropList );
+		imageDefTemplate = ExportTemplate.compile( imageDefTag,
+				XMLTags.ELEMENT_IMAGE, XMLTags.iPropList );
+		imageRefTemplate = ExportTemplate.compile( imageRefTag,
+				XMLTags.ELEMENT_IMAGE, XMLTags.iPropList );
+		dataTemplate = ExportTemplate.compile( dataTag, XMLTags.ELEMENT_DATA,
+				XMLTags.dPropList );
+		labelTemplate = ExportTemplate.compile( labelTag,
+				XMLTags.ELEMENT_LABEL, XMLTags.lPropList );
+		reportTemplate = ExportTemplate.compile( reportTag,
+				XMLTags.ELEMENT_REPORT, XMLTags.rPropList );
+		startRowTemplate = ExportTemplate.compile( startRowTag,
+				XMLTags.ELEMENT_ROW, XMLTags.rowPropList );
+	}
+
 	private void readSchemaFile()
 	{
     //declared here only to make visible to finally clause
@@ -133,6 +224,14 @@ public class LoadExportSchema{
 			    		{
 			    			imageTag = indexTag;
 			    		}
+			    		if ( index.equalsIgnoreCase( XMLTags.imageDefControl ) )
+			    		{
+			    			imageDefTag = indexTag;
+			    		}
+			    		if ( index.equalsIgnoreCase( XMLTags.imageRefControl ) )
+			    		{
+			    			imageRefTag = indexTag;
+			    		}
 			    		if ( index.equalsIgnoreCase( XMLTags.dataControl ) )
 			    		{
 			    			dataTag = indexTag;
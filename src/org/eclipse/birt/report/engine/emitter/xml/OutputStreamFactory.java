@@ -0,0 +1,399 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Builds the output streams of the emitter from the render options, adding
+ * buffering and compression in front of the target file or stream.
+ */
+public class OutputStreamFactory
+{
+
+	/**
+	 * no compression
+	 */
+	public static final String COMPRESSION_NONE = "none"; //$NON-NLS-1$
+
+	/**
+	 * gzip compression
+	 */
+	public static final String COMPRESSION_GZIP = "gzip"; //$NON-NLS-1$
+
+	/**
+	 * raw deflate compression, without any header
+	 */
+	public static final String COMPRESSION_DEFLATE = "deflate"; //$NON-NLS-1$
+
+	/**
+	 * the default size of the buffer of an output file
+	 */
+	public static final int DEFAULT_OUTPUT_BUFFER_SIZE = 8192;
+
+	/**
+	 * the default size of the compression buffer
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private final String compression;
+
+	private final int level;
+
+	private final int bufferSize;
+
+	private boolean buffered = true;
+
+	private int outputBufferSize = DEFAULT_OUTPUT_BUFFER_SIZE;
+
+	private int threads = 1;
+
+	private int blockSize;
+
+	private int maxBlocks;
+
+	private int asyncBuffers;
+
+	/**
+	 * the streams with an I/O thread not closed yet
+	 */
+	private final List<AsyncOutputStream> asyncStreams = new ArrayList<AsyncOutputStream>( );
+
+	/**
+	 * the first error of the I/O threads
+	 */
+	private IOException asyncError;
+
+	/**
+	 * the parallel gzip streams not closed yet
+	 */
+	private final List<ParallelGZIPOutputStream> parallelStreams = new ArrayList<ParallelGZIPOutputStream>( );
+
+	/**
+	 * @param compression
+	 *            one of the <code>COMPRESSION_*</code> constants
+	 * @param level
+	 *            the compression level from 0 to 9, or -1 for the default
+	 * @param bufferSize
+	 *            the size of the compression buffer
+	 */
+	public OutputStreamFactory( String compression, int level, int bufferSize )
+	{
+		if ( compression == null )
+		{
+			compression = COMPRESSION_NONE;
+		}
+		if ( !COMPRESSION_NONE.equalsIgnoreCase( compression )
+				&& !COMPRESSION_GZIP.equalsIgnoreCase( compression )
+				&& !COMPRESSION_DEFLATE.equalsIgnoreCase( compression ) )
+		{
+			throw new IllegalArgumentException( "Unsupported compression: " //$NON-NLS-1$
+					+ compression );
+		}
+		if ( level < Deflater.DEFAULT_COMPRESSION
+				|| level > Deflater.BEST_COMPRESSION )
+		{
+			throw new IllegalArgumentException( "Invalid compression level: " //$NON-NLS-1$
+					+ level );
+		}
+		this.compression = compression.toLowerCase( );
+		this.level = level;
+		this.bufferSize = bufferSize > 0 ? bufferSize : DEFAULT_BUFFER_SIZE;
+	}
+
+	/**
+	 * @param buffered
+	 *            whether the opened files are buffered, <code>false</code>
+	 *            when the writer buffers its output itself
+	 */
+	public void setBuffered( boolean buffered )
+	{
+		this.buffered = buffered;
+	}
+
+	/**
+	 * @param size
+	 *            the size of the buffer of an output file, 0 for the default
+	 */
+	public void setOutputBufferSize( int size )
+	{
+		outputBufferSize = size > 0 ? size : DEFAULT_OUTPUT_BUFFER_SIZE;
+	}
+
+	/**
+	 * Compresses gzip output on several threads. Has no effect on other
+	 * compressions.
+	 *
+	 * @param threads
+	 *            the number of compressing threads, 1 to compress on the
+	 *            writing thread
+	 * @param blockSize
+	 *            the size of a block compressed by one thread, 0 for the
+	 *            default
+	 * @param maxBlocks
+	 *            the number of blocks in flight, 0 for twice the threads
+	 */
+	public void setParallelism( int threads, int blockSize, int maxBlocks )
+	{
+		this.threads = threads;
+		this.blockSize = blockSize;
+		this.maxBlocks = maxBlocks;
+	}
+
+	/**
+	 * Hands the output to a dedicated I/O thread, which also runs the
+	 * compression.
+	 *
+	 * @param buffers
+	 *            the number of buffers between the writing thread and the I/O
+	 *            thread, 0 to write on the writing thread
+	 */
+	public void setAsyncBuffers( int buffers )
+	{
+		this.asyncBuffers = buffers;
+	}
+
+	/**
+	 * @return the first error of the I/O threads, or <code>null</code>
+	 */
+	public IOException getAsyncError( )
+	{
+		for ( int i = 0; asyncError == null && i < asyncStreams.size( ); i++ )
+		{
+			asyncError = asyncStreams.get( i ).getError( );
+		}
+		return asyncError;
+	}
+
+	/**
+	 * Stops the I/O and compressing threads of the streams that were not
+	 * closed, and drops their remaining output. Streams already closed are not
+	 * affected.
+	 * 
+	 * @throws IOException
+	 *             the first error closing the target streams
+	 */
+	public void abort( ) throws IOException
+	{
+		for ( int i = 0; i < asyncStreams.size( ); i++ )
+		{
+			asyncStreams.get( i ).abort( );
+		}
+		asyncStreams.clear( );
+		IOException error = null;
+		for ( int i = 0; i < parallelStreams.size( ); i++ )
+		{
+			try
+			{
+				parallelStreams.get( i ).abort( );
+			}
+			catch ( IOException e )
+			{
+				if ( error == null )
+				{
+					error = e;
+				}
+			}
+		}
+		parallelStreams.clear( );
+		if ( error != null )
+		{
+			throw error;
+		}
+	}
+
+	/**
+	 * @return whether the output is compressed
+	 */
+	public boolean isCompressed( )
+	{
+		return !COMPRESSION_NONE.equals( compression );
+	}
+
+	/**
+	 * Opens a file, creating its parent folders if needed.
+	 *
+	 * @param file
+	 *            the file
+	 * @return the possibly buffered and compressed stream
+	 * @throws IOException
+	 *             if the file cannot be opened or the compressed stream
+	 *             cannot be started
+	 */
+	public OutputStream open( File file ) throws IOException
+	{
+		File parent = file.getParentFile( );
+		if ( parent != null && !parent.exists( ) )
+		{
+			parent.mkdirs( );
+		}
+		OutputStream out = new FileOutputStream( file );
+		try
+		{
+			// the buffers of the I/O thread already batch the writes
+			return wrap( buffered && asyncBuffers <= 0
+					? new BufferedOutputStream( out, outputBufferSize )
+					: out );
+		}
+		catch ( IOException e )
+		{
+			out.close( );
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds compression and the I/O thread in front of a stream.
+	 *
+	 * @param out
+	 *            the target stream
+	 * @return the stream to write to
+	 * @throws IOException
+	 *             if the compressed stream cannot be started
+	 */
+	public OutputStream wrap( OutputStream out ) throws IOException
+	{
+		out = compress( out );
+		if ( asyncBuffers > 0 )
+		{
+			// the I/O thread owns the compressed stream
+			AsyncOutputStream async = new AsyncOutputStream( out,
+					AsyncOutputStream.DEFAULT_BUFFER_SIZE, asyncBuffers );
+			asyncStreams.add( async );
+			return new RegisteredOutputStream( async );
+		}
+		if ( out instanceof ParallelGZIPOutputStream )
+		{
+			parallelStreams.add( (ParallelGZIPOutputStream) out );
+			return new RegisteredOutputStream( out );
+		}
+		return out;
+	}
+
+	private void unregister( OutputStream out )
+	{
+		if ( out instanceof AsyncOutputStream )
+		{
+			if ( asyncError == null )
+			{
+				asyncError = ( (AsyncOutputStream) out ).getError( );
+			}
+			asyncStreams.remove( out );
+		}
+		else
+		{
+			parallelStreams.remove( out );
+		}
+	}
+
+	private OutputStream compress( OutputStream out ) throws IOException
+	{
+		if ( COMPRESSION_GZIP.equals( compression ) )
+		{
+			if ( threads > 1 )
+			{
+				return new ParallelGZIPOutputStream( out, level, threads,
+						blockSize, maxBlocks );
+			}
+			return new LevelGZIPOutputStream( out, bufferSize, level );
+		}
+		if ( COMPRESSION_DEFLATE.equals( compression ) )
+		{
+			return new RawDeflaterOutputStream( out, bufferSize, level );
+		}
+		return out;
+	}
+
+	/**
+	 * A stream that leaves the streams of the factory when it is closed, so
+	 * that the closed parts of a split output are not kept until the end of
+	 * the report.
+	 */
+	private class RegisteredOutputStream extends FilterOutputStream
+	{
+
+		RegisteredOutputStream( OutputStream out )
+		{
+			super( out );
+		}
+
+		public void write( int b ) throws IOException
+		{
+			out.write( b );
+		}
+
+		public void write( byte[] b, int off, int len ) throws IOException
+		{
+			out.write( b, off, len );
+		}
+
+		public void close( ) throws IOException
+		{
+			try
+			{
+				out.close( );
+			}
+			finally
+			{
+				unregister( out );
+			}
+		}
+	}
+
+	/**
+	 * A gzip stream with a configurable compression level.
+	 */
+	private static class LevelGZIPOutputStream extends GZIPOutputStream
+	{
+
+		LevelGZIPOutputStream( OutputStream out, int size, int level )
+				throws IOException
+		{
+			super( out, size );
+			def.setLevel( level );
+		}
+	}
+
+	/**
+	 * A raw deflate stream that releases its deflater when closed.
+	 */
+	private static class RawDeflaterOutputStream extends DeflaterOutputStream
+	{
+
+		RawDeflaterOutputStream( OutputStream out, int size, int level )
+		{
+			super( out, new Deflater( level, true ), size );
+		}
+
+		public void close( ) throws IOException
+		{
+			try
+			{
+				super.close( );
+			}
+			finally
+			{
+				def.end( );
+			}
+		}
+	}
+}
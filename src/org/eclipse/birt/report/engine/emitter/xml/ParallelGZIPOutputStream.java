@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A gzip stream compressing its data on several threads.
+ * <p>
+ * The data is cut into blocks of a fixed size. Each block is compressed on a
+ * pool thread into a complete gzip member, and the members are written to the
+ * target stream in order. A sequence of members is a valid gzip stream, which
+ * any gzip reader decompresses into the concatenated blocks.
+ * <p>
+ * At most <code>maxBlocks</code> blocks are compressed or waiting to be
+ * written at a time; when the limit is reached, the writing thread waits for
+ * the oldest block. This bounds the memory to about
+ * <code>maxBlocks * blockSize</code> bytes. Block buffers and deflaters are
+ * reused.
+ * <p>
+ * {@link #close()} and {@link #abort()} stop the threads, end all deflaters,
+ * including those of blocks still being compressed, and drop the block
+ * buffers. The threads also end when they are idle, so a stream that is never
+ * closed does not keep them.
+ */
+public class ParallelGZIPOutputStream extends OutputStream
+{
+
+	/**
+	 * the default block size
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED,
+			0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+	private static final int TRAILER_SIZE = 8;
+
+	/**
+	 * how long an idle compressing thread lives, in milliseconds
+	 */
+	private static final long KEEP_ALIVE = 10 * 1000L;
+
+	private static final AtomicInteger poolNumber = new AtomicInteger( );
+
+	private final OutputStream out;
+
+	private final int level;
+
+	private final int blockSize;
+
+	private final int maxBlocks;
+
+	private final ExecutorService executor;
+
+	private final LinkedList<Future<Member>> pending = new LinkedList<Future<Member>>( );
+
+	private final ConcurrentLinkedQueue<byte[]> freeBlocks = new ConcurrentLinkedQueue<byte[]>( );
+
+	private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>( );
+
+	private byte[] block;
+
+	private int count;
+
+	private long members;
+
+	private boolean closed;
+
+	/**
+	 * whether the deflaters were ended, guarded by <code>deflaters</code>
+	 */
+	private boolean released;
+
+	/**
+	 * @param out
+	 *            the target stream
+	 * @param level
+	 *            the compression level from 0 to 9, or -1 for the default
+	 * @param threads
+	 *            the number of compressing threads
+	 * @param blockSize
+	 *            the size of a block, 0 for the default
+	 * @param maxBlocks
+	 *            the number of blocks in flight, 0 for twice the threads
+	 */
+	public ParallelGZIPOutputStream( OutputStream out, int level, int threads,
+			int blockSize, int maxBlocks )
+	{
+		this.out = out;
+		this.level = level;
+		threads = Math.max( 1, threads );
+		this.blockSize = blockSize > 0 ? blockSize : DEFAULT_BLOCK_SIZE;
+		this.maxBlocks = maxBlocks > 0 ? maxBlocks : threads * 2;
+		this.block = new byte[this.blockSize];
+		this.executor = createExecutor( threads );
+	}
+
+	public void write( int b ) throws IOException
+	{
+		ensureOpen( );
+		if ( count == blockSize )
+		{
+			submitBlock( );
+		}
+		block[count++] = (byte) b;
+	}
+
+	public void write( byte[] b, int off, int len ) throws IOException
+	{
+		ensureOpen( );
+		while ( len > 0 )
+		{
+			if ( count == blockSize )
+			{
+				submitBlock( );
+			}
+			int size = Math.min( len, blockSize - count );
+			System.arraycopy( b, off, block, count, size );
+			count += size;
+			off += size;
+			len -= size;
+		}
+	}
+
+	/**
+	 * Compresses the buffered data and writes all blocks to the target.
+	 */
+	public void flush( ) throws IOException
+	{
+		ensureOpen( );
+		submitBlock( );
+		while ( !pending.isEmpty( ) )
+		{
+			writeNext( );
+		}
+		out.flush( );
+	}
+
+	public void close( ) throws IOException
+	{
+		if ( closed )
+		{
+			return;
+		}
+		closed = true;
+		try
+		{
+			if ( count > 0 || members == 0 )
+			{
+				// an empty stream still needs one member
+				submit( block, count );
+			}
+			while ( !pending.isEmpty( ) )
+			{
+				writeNext( );
+			}
+		}
+		finally
+		{
+			release( );
+		}
+	}
+
+	/**
+	 * Closes the stream without compressing the data not written yet, for
+	 * output that failed or was cancelled.
+	 * 
+	 * @throws IOException
+	 *             if closing the target stream fails
+	 */
+	public void abort( ) throws IOException
+	{
+		if ( closed )
+		{
+			return;
+		}
+		closed = true;
+		while ( !pending.isEmpty( ) )
+		{
+			pending.removeFirst( ).cancel( false );
+		}
+		release( );
+	}
+
+	/**
+	 * Stops the threads, ends the deflaters, drops the block buffers and
+	 * closes the target stream.
+	 */
+	private void release( ) throws IOException
+	{
+		executor.shutdownNow( );
+		synchronized ( deflaters )
+		{
+			released = true;
+			Deflater deflater;
+			while ( ( deflater = deflaters.poll( ) ) != null )
+			{
+				deflater.end( );
+			}
+			freeBlocks.clear( );
+		}
+		block = null;
+		out.close( );
+	}
+
+	private void ensureOpen( ) throws IOException
+	{
+		if ( closed )
+		{
+			throw new IOException( "Stream closed" ); //$NON-NLS-1$
+		}
+	}
+
+	private void submitBlock( ) throws IOException
+	{
+		if ( count == 0 )
+		{
+			return;
+		}
+		submit( block, count );
+		block = freeBlocks.poll( );
+		if ( block == null )
+		{
+			block = new byte[blockSize];
+		}
+		count = 0;
+		while ( pending.size( ) >= maxBlocks )
+		{
+			writeNext( );
+		}
+	}
+
+	private void submit( final byte[] data, final int length )
+	{
+		members++;
+		pending.add( executor.submit( new Callable<Member>( ) {
+
+			public Member call( )
+			{
+				return compress( data, length );
+			}
+		} ) );
+	}
+
+	private void writeNext( ) throws IOException
+	{
+		Future<Member> future = pending.removeFirst( );
+		Member member;
+		try
+		{
+			member = future.get( );
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread( ).interrupt( );
+			throw new InterruptedIOException( e.getMessage( ) );
+		}
+		catch ( ExecutionException e )
+		{
+			IOException ioe = new IOException( "Compression failed" ); //$NON-NLS-1$
+			ioe.initCause( e.getCause( ) );
+			throw ioe;
+		}
+		out.write( member.data, 0, member.length );
+	}
+
+	/**
+	 * Compresses a block into a gzip member.
+	 */
+	private Member compress( byte[] data, int length )
+	{
+		Deflater deflater = deflaters.poll( );
+		if ( deflater == null )
+		{
+			deflater = new Deflater( level, true );
+		}
+		try
+		{
+			CRC32 crc = new CRC32( );
+			crc.update( data, 0, length );
+
+			byte[] result = new byte[HEADER.length + length + ( length >> 3 )
+					+ 64 + TRAILER_SIZE];
+			System.arraycopy( HEADER, 0, result, 0, HEADER.length );
+			int position = HEADER.length;
+			deflater.setInput( data, 0, length );
+			deflater.finish( );
+			while ( !deflater.finished( ) )
+			{
+				if ( position == result.length - TRAILER_SIZE )
+				{
+					byte[] larger = new byte[result.length * 2];
+					System.arraycopy( result, 0, larger, 0, position );
+					result = larger;
+				}
+				position += deflater.deflate( result, position, result.length
+						- TRAILER_SIZE - position );
+			}
+			position = writeInt( result, position, (int) crc.getValue( ) );
+			position = writeInt( result, position, length );
+			return new Member( result, position );
+		}
+		finally
+		{
+			synchronized ( deflaters )
+			{
+				if ( released )
+				{
+					// compressed after the stream was closed
+					deflater.end( );
+				}
+				else
+				{
+					deflater.reset( );
+					deflaters.add( deflater );
+					if ( data.length == blockSize )
+					{
+						freeBlocks.add( data );
+					}
+				}
+			}
+		}
+	}
+
+	private static int writeInt( byte[] buffer, int position, int value )
+	{
+		buffer[position++] = (byte) value;
+		buffer[position++] = (byte) ( value >> 8 );
+		buffer[position++] = (byte) ( value >> 16 );
+		buffer[position++] = (byte) ( value >> 24 );
+		return position;
+	}
+
+	private static ExecutorService createExecutor( int threads )
+	{
+		final String prefix = "XMLEmitter-Compressor-" //$NON-NLS-1$
+				+ poolNumber.incrementAndGet( ) + "-"; //$NON-NLS-1$
+		ThreadPoolExecutor executor = new ThreadPoolExecutor( threads,
+				threads, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>( ), new ThreadFactory( ) {
+
+					private final AtomicInteger threadNumber = new AtomicInteger( );
+
+					public Thread newThread( Runnable r )
+					{
+						Thread thread = new Thread( r, prefix
+								+ threadNumber.incrementAndGet( ) );
+						thread.setDaemon( true );
+						return thread;
+					}
+				} );
+		executor.allowCoreThreadTimeOut( true );
+		return executor;
+	}
+
+	/**
+	 * A compressed block.
+	 */
+	private static class Member
+	{
+
+		final byte[] data;
+
+		final int length;
+
+		Member( byte[] data, int length )
+		{
+			this.data = data;
+			this.length = length;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The Base64 text of an image that is fetched in the background.
+ */
+public class PendingImage implements XMLFileWriter.DeferredContent
+{
+
+	protected static Logger logger = Logger.getLogger( PendingImage.class
+			.getName( ) );
+
+	private final String uri;
+
+	private final Future<byte[]> data;
+
+	private final Base64Encoder encoder;
+
+	/**
+	 * @param uri
+	 *            the image URI
+	 * @param data
+	 *            the future image data
+	 * @param encoder
+	 *            the encoder writing the image text
+	 */
+	public PendingImage( String uri, Future<byte[]> data, Base64Encoder encoder )
+	{
+		this.uri = uri;
+		this.data = data;
+		this.encoder = encoder;
+	}
+
+	public boolean isReady( )
+	{
+		return data.isDone( );
+	}
+
+	public void write( XMLFileWriter writer )
+	{
+		try
+		{
+			encoder.encode( data.get( ), writer );
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread( ).interrupt( );
+			logger.log( Level.WARNING, "Interrupted while loading image " //$NON-NLS-1$
+					+ uri );
+		}
+		catch ( ExecutionException e )
+		{
+			Throwable cause = e.getCause( );
+			if ( cause instanceof ImageUnavailableException )
+			{
+				logger.log( Level.FINE, cause.getMessage( ) );
+			}
+			else
+			{
+				logger.log( Level.WARNING, cause.getMessage( ) );
+				logger.log( Level.FINE, cause.getMessage( ), cause );
+			}
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.eclipse.birt.report.engine.content.IContent;
+import org.eclipse.birt.report.engine.content.IStyle;
+import org.eclipse.birt.report.engine.ir.DimensionType;
+
+/**
+ * Remembers the text of style and dimension properties for one report.
+ * <p>
+ * Contents created from the same design element share their dimension and
+ * inline style objects, so those are cached by identity. Style objects are
+ * only ever cached by identity: the style of a content may depend on more
+ * than its style class, so two contents with the same class can have
+ * different CSS text. The map is cleared when it reaches {@link #MAX_ENTRIES},
+ * which bounds the cache for reports whose contents do not share these
+ * objects.
+ */
+public class PropertyValueCache
+{
+
+	/**
+	 * the number of values a map holds before it is cleared
+	 */
+	public static final int MAX_ENTRIES = 1024;
+
+	private final Map<Object, String> identityValues = new IdentityHashMap<Object, String>( );
+
+	/**
+	 * @param dimension
+	 *            the dimension, may be <code>null</code>
+	 * @return the text of the dimension, or "" if it is <code>null</code>
+	 */
+	public String getDimension( DimensionType dimension )
+	{
+		if ( dimension == null )
+		{
+			return ""; //$NON-NLS-1$
+		}
+		String text = identityValues.get( dimension );
+		if ( text == null )
+		{
+			text = dimension.toString( );
+			putIdentity( dimension, text );
+		}
+		return text;
+	}
+
+	/**
+	 * @param content
+	 *            the content
+	 * @return the CSS text of the inline style of the content
+	 */
+	public String getInlineStyleText( IContent content )
+	{
+		IStyle style = content.getInlineStyle( );
+		if ( style == null || style.isEmpty( ) )
+		{
+			return ""; //$NON-NLS-1$
+		}
+		String text = identityValues.get( style );
+		if ( text == null )
+		{
+			text = style.getCssText( );
+			putIdentity( style, text );
+		}
+		return text;
+	}
+
+	/**
+	 * @param content
+	 *            the content
+	 * @return the CSS text of the computed style of the content
+	 */
+	public String getStyleText( IContent content )
+	{
+		IStyle style = content.getStyle( );
+		if ( style == null )
+		{
+			return ""; //$NON-NLS-1$
+		}
+		String text = identityValues.get( style );
+		if ( text == null )
+		{
+			text = style.getCssText( );
+			if ( text == null )
+			{
+				text = ""; //$NON-NLS-1$
+			}
+			putIdentity( style, text );
+		}
+		return text;
+	}
+
+	/**
+	 * Drops all cached values.
+	 */
+	public void clear( )
+	{
+		identityValues.clear( );
+	}
+
+	private void putIdentity( Object key, String text )
+	{
+		if ( text == null )
+		{
+			return;
+		}
+		if ( identityValues.size( ) >= MAX_ENTRIES )
+		{
+			identityValues.clear( );
+		}
+		identityValues.put( key, text );
+	}
+}
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits the output of a report into numbered files.
+ * <p>
+ * The output file <code>report.xml</code> is written as
+ * <code>report-1.xml</code>, <code>report-2.xml</code> and so on. A part is
+ * full once it holds <code>maxRows</code> top level rows or
+ * <code>maxBytes</code> bytes; the emitter then closes it and opens the next
+ * one when the next top level row starts, so that no part is empty. At the
+ * end of the report the parts and their row ranges are listed in
+ * <code>report-manifest.xml</code>.
+ */
+public class RollingOutput
+{
+
+	private final File folder;
+
+	private final String prefix;
+
+	private final String suffix;
+
+	private final long maxRows;
+
+	private final long maxBytes;
+
+	private final List<Part> parts = new ArrayList<Part>( );
+
+	private Part current;
+
+	private long rows;
+
+	/**
+	 * @param file
+	 *            the output file of the report
+	 * @param maxRows
+	 *            the number of rows of a part, 0 for no limit
+	 * @param maxBytes
+	 *            the number of bytes of a part, 0 for no limit
+	 */
+	public RollingOutput( File file, long maxRows, long maxBytes )
+	{
+		this.folder = file.getParentFile( );
+		String name = file.getName( );
+		int dot = name.lastIndexOf( '.' );
+		this.prefix = dot > 0 ? name.substring( 0, dot ) : name;
+		this.suffix = dot > 0 ? name.substring( dot ) : ""; //$NON-NLS-1$
+		this.maxRows = maxRows;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Starts the next part.
+	 *
+	 * @return the file of the part
+	 */
+	public File startPart( )
+	{
+		current = new Part( new File( folder, prefix + "-" //$NON-NLS-1$
+				+ ( parts.size( ) + 1 ) + suffix ), rows + 1 );
+		parts.add( current );
+		return current.file;
+	}
+
+	/**
+	 * Ends the current part.
+	 *
+	 * @param bytes
+	 *            the number of bytes written to the part
+	 */
+	public void endPart( long bytes )
+	{
+		if ( current != null )
+		{
+			current.bytes = bytes;
+			current = null;
+		}
+	}
+
+	/**
+	 * Counts a top level row of the current part.
+	 */
+	public void rowEnded( )
+	{
+		rows++;
+		current.rows++;
+	}
+
+	/**
+	 * @param bytes
+	 *            the number of bytes written to the current part
+	 * @return whether the current part is full
+	 */
+	public boolean isFull( long bytes )
+	{
+		return ( maxRows > 0 && current.rows >= maxRows )
+				|| ( maxBytes > 0 && bytes >= maxBytes );
+	}
+
+	/**
+	 * @return the number of parts started
+	 */
+	public int getPartCount( )
+	{
+		return parts.size( );
+	}
+
+	/**
+	 * @return the manifest file
+	 */
+	public File getManifestFile( )
+	{
+		return new File( folder, prefix + "-manifest.xml" ); //$NON-NLS-1$
+	}
+
+	/**
+	 * Writes the manifest listing the parts.
+	 *
+	 * @param escaper
+	 *            escapes the file names
+	 * @throws IOException
+	 *             if the manifest cannot be written
+	 */
+	public void writeManifest( XMLEscaper escaper ) throws IOException
+	{
+		XMLFileWriter writer = new XMLFileWriter( );
+		writer.open( new BufferedOutputStream( new FileOutputStream(
+				getManifestFile( ) ) ), "UTF-8" ); //$NON-NLS-1$
+		writer.writeCode( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" ); //$NON-NLS-1$
+		writer.writeCode( XMLTags.TAG_CR );
+		writer.writeCode( "<parts rows=\"" + rows + "\">" ); //$NON-NLS-1$ //$NON-NLS-2$
+		writer.writeCode( XMLTags.TAG_CR );
+		for ( Part part : parts )
+		{
+			writer.writeCode( "<part file=\"" ); //$NON-NLS-1$
+			escaper.write( part.file.getName( ),
+					ExportTemplate.CONTEXT_ATTRIBUTE, writer );
+			writer.writeCode( "\" firstRow=\"" + part.firstRow //$NON-NLS-1$
+					+ "\" lastRow=\"" + ( part.firstRow + part.rows - 1 ) //$NON-NLS-1$
+					+ "\" bytes=\"" + part.bytes + "\"/>" ); //$NON-NLS-1$ //$NON-NLS-2$
+			writer.writeCode( XMLTags.TAG_CR );
+		}
+		writer.writeCode( "</parts>" ); //$NON-NLS-1$
+		writer.writeCode( XMLTags.TAG_CR );
+		writer.endWriter( );
+		writer.close( );
+	}
+
+	/**
+	 * A part of the output.
+	 */
+	private static class Part
+	{
+
+		final File file;
+
+		final long firstRow;
+
+		long rows;
+
+		long bytes;
+
+		Part( File file, long firstRow )
+		{
+			this.file = file;
+			this.firstRow = firstRow;
+		}
+	}
+}
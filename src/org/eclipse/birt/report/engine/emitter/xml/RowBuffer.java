@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The output captured by a writer, kept to be written later, possibly to
+ * other writers.
+ * <p>
+ * The text is kept in one growing character array, and deferred contents
+ * are kept with the position of the text they follow. The buffer is meant to
+ * be reused: {@link #clear()} keeps the array unless it grew very large.
+ */
+public class RowBuffer
+{
+
+	private static final int INITIAL_SIZE = 4096;
+
+	/**
+	 * the size above which the array is released when the buffer is cleared
+	 */
+	private static final int MAX_RETAINED_SIZE = 1024 * 1024;
+
+	private char[] chars = new char[INITIAL_SIZE];
+
+	private int length;
+
+	private final List<XMLFileWriter.DeferredContent> deferred = new ArrayList<XMLFileWriter.DeferredContent>( );
+
+	private int[] deferredAt = new int[4];
+
+	/**
+	 * Appends text.
+	 *
+	 * @param text
+	 *            the text
+	 */
+	public void append( String text )
+	{
+		int count = text.length( );
+		ensureCapacity( length + count );
+		text.getChars( 0, count, chars, length );
+		length += count;
+	}
+
+	/**
+	 * Appends a range of characters.
+	 *
+	 * @param buffer
+	 *            the characters
+	 * @param offset
+	 *            the index of the first character
+	 * @param count
+	 *            the number of characters
+	 */
+	public void append( char[] buffer, int offset, int count )
+	{
+		ensureCapacity( length + count );
+		System.arraycopy( buffer, offset, chars, length, count );
+		length += count;
+	}
+
+	/**
+	 * Appends deferred content.
+	 *
+	 * @param content
+	 *            the content
+	 */
+	public void append( XMLFileWriter.DeferredContent content )
+	{
+		int index = deferred.size( );
+		if ( index == deferredAt.length )
+		{
+			int[] larger = new int[index * 2];
+			System.arraycopy( deferredAt, 0, larger, 0, index );
+			deferredAt = larger;
+		}
+		deferredAt[index] = length;
+		deferred.add( content );
+	}
+
+	/**
+	 * @return whether nothing was appended since the buffer was cleared
+	 */
+	public boolean isEmpty( )
+	{
+		return length == 0 && deferred.isEmpty( );
+	}
+
+	/**
+	 * @return the number of characters in the buffer
+	 */
+	public int length( )
+	{
+		return length;
+	}
+
+	/**
+	 * Writes the content of the buffer, in one call per run of text.
+	 *
+	 * @param writer
+	 *            the writer
+	 */
+	public void writeTo( XMLFileWriter writer )
+	{
+		int position = 0;
+		for ( int i = 0; i < deferred.size( ); i++ )
+		{
+			int end = deferredAt[i];
+			if ( end > position )
+			{
+				writer.writeCode( chars, position, end - position );
+				position = end;
+			}
+			writer.writeDeferred( deferred.get( i ) );
+		}
+		if ( length > position )
+		{
+			writer.writeCode( chars, position, length - position );
+		}
+	}
+
+	/**
+	 * Empties the buffer.
+	 */
+	public void clear( )
+	{
+		length = 0;
+		deferred.clear( );
+		if ( chars.length > MAX_RETAINED_SIZE )
+		{
+			chars = new char[INITIAL_SIZE];
+		}
+	}
+
+	private void ensureCapacity( int capacity )
+	{
+		if ( capacity > chars.length )
+		{
+			char[] larger = new char[Math.max( capacity, chars.length * 2 )];
+			System.arraycopy( chars, 0, larger, 0, length );
+			chars = larger;
+		}
+	}
+}
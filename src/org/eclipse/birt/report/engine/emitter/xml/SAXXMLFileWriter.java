@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Writes the report to a SAX content handler, as a whole document.
+ * <p>
+ * Names are passed as qualified names without namespace processing, and
+ * CDATA sections of the schema arrive as plain characters.
+ */
+public class SAXXMLFileWriter extends EventXMLFileWriter
+{
+
+	private static final String CDATA = "CDATA"; //$NON-NLS-1$
+
+	private static final String NO_URI = ""; //$NON-NLS-1$
+
+	private final ContentHandler handler;
+
+	private final AttributesImpl attributes = new AttributesImpl( );
+
+	private final char[] chars = new char[1024];
+
+	/**
+	 * @param handler
+	 *            the content handler
+	 */
+	public SAXXMLFileWriter( ContentHandler handler )
+	{
+		this.handler = handler;
+	}
+
+	protected void startDocument( ) throws SAXException
+	{
+		handler.startDocument( );
+	}
+
+	protected void endDocument( ) throws SAXException
+	{
+		handler.endDocument( );
+	}
+
+	protected void startElement( String name, String[] attributeNames,
+			String[] attributeValues, int count ) throws SAXException
+	{
+		attributes.clear( );
+		for ( int i = 0; i < count; i++ )
+		{
+			attributes.addAttribute( NO_URI, localName( attributeNames[i] ),
+					attributeNames[i], CDATA, attributeValues[i] );
+		}
+		handler.startElement( NO_URI, localName( name ), name, attributes );
+	}
+
+	protected void endElement( String name ) throws SAXException
+	{
+		handler.endElement( NO_URI, localName( name ), name );
+	}
+
+	protected void characters( String text ) throws SAXException
+	{
+		int length = text.length( );
+		for ( int base = 0; base < length; base += chars.length )
+		{
+			int count = Math.min( chars.length, length - base );
+			text.getChars( base, base + count, chars, 0 );
+			handler.characters( chars, 0, count );
+		}
+	}
+
+	protected void characters( char[] buffer, int offset, int length )
+			throws SAXException
+	{
+		handler.characters( buffer, offset, length );
+	}
+
+	protected void flushEvents( )
+	{
+	}
+
+	private static String localName( String name )
+	{
+		return name.substring( name.indexOf( ':' ) + 1 );
+	}
+}
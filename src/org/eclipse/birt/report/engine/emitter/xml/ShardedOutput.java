@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Distributes the rows of a report over several files by the hash of a key.
+ * <p>
+ * The output file <code>report.xml</code> is written as
+ * <code>report-shard1.xml</code>, <code>report-shard2.xml</code> and so on.
+ * A row with a key goes to the shard <code>(key.hashCode( ) &amp;
+ * 0x7fffffff) % count</code>, so the rows of one key always land in the same
+ * file. Rows without a key and the content outside rows, such as the start
+ * and end tags, go to every shard, so each shard is a complete document.
+ * <p>
+ * Each shard has its own stream from the stream factory, so it is buffered
+ * and compressed on its own.
+ */
+public class ShardedOutput
+{
+
+	private final File[] files;
+
+	private final OutputStream[] streams;
+
+	private final CountingOutputStream[] counters;
+
+	private final XMLFileWriter[] writers;
+
+	/**
+	 * @param file
+	 *            the output file of the report
+	 * @param count
+	 *            the number of shards
+	 */
+	public ShardedOutput( File file, int count )
+	{
+		File folder = file.getParentFile( );
+		String name = file.getName( );
+		int dot = name.lastIndexOf( '.' );
+		String prefix = dot > 0 ? name.substring( 0, dot ) : name;
+		String suffix = dot > 0 ? name.substring( dot ) : ""; //$NON-NLS-1$
+		files = new File[count];
+		for ( int i = 0; i < count; i++ )
+		{
+			files[i] = new File( folder, prefix + "-shard" + ( i + 1 ) //$NON-NLS-1$
+					+ suffix );
+		}
+		streams = new OutputStream[count];
+		counters = new CountingOutputStream[count];
+		writers = new XMLFileWriter[count];
+	}
+
+	/**
+	 * Opens the shard files.
+	 *
+	 * @param factory
+	 *            opens the files
+	 * @param count
+	 *            whether the streams count their bytes, <code>false</code>
+	 *            when the writers count them
+	 * @throws IOException
+	 *             if a file cannot be opened
+	 */
+	public void open( OutputStreamFactory factory, boolean count )
+			throws IOException
+	{
+		for ( int i = 0; i < files.length; i++ )
+		{
+			streams[i] = factory.open( files[i] );
+			if ( count )
+			{
+				counters[i] = new CountingOutputStream( streams[i] );
+				streams[i] = counters[i];
+			}
+		}
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int getShardCount( )
+	{
+		return files.length;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the shard
+	 * @param writer
+	 *            the writer of the shard, not opened yet
+	 */
+	public void setWriter( int index, XMLFileWriter writer )
+	{
+		writers[index] = writer;
+	}
+
+	/**
+	 * Opens the writers.
+	 */
+	public void startWriters( )
+	{
+		for ( int i = 0; i < writers.length; i++ )
+		{
+			writers[i].open( streams[i], "UTF-8" ); //$NON-NLS-1$
+			writers[i].startWriter( );
+		}
+	}
+
+	/**
+	 * Writes content to every shard.
+	 *
+	 * @param buffer
+	 *            the content
+	 */
+	public void broadcast( RowBuffer buffer )
+	{
+		for ( int i = 0; i < writers.length; i++ )
+		{
+			buffer.writeTo( writers[i] );
+		}
+	}
+
+	/**
+	 * Writes a row to the shard of its key, or to every shard if it has no
+	 * key.
+	 *
+	 * @param buffer
+	 *            the row
+	 * @param key
+	 *            the key of the row, may be <code>null</code>
+	 * @param maxPending
+	 *            the number of deferred contents a shard may keep queued
+	 */
+	public void route( RowBuffer buffer, String key, int maxPending )
+	{
+		if ( key == null )
+		{
+			broadcast( buffer );
+			for ( int i = 0; i < writers.length; i++ )
+			{
+				endRow( writers[i], maxPending );
+			}
+			return;
+		}
+		XMLFileWriter writer = writers[( key.hashCode( ) & 0x7fffffff )
+				% writers.length];
+		buffer.writeTo( writer );
+		endRow( writer, maxPending );
+	}
+
+	private void endRow( XMLFileWriter writer, int maxPending )
+	{
+		if ( writer.getDeferredCount( ) > 0 )
+		{
+			writer.drainDeferred( maxPending );
+		}
+		writer.endRow( );
+	}
+
+	/**
+	 * Drops the deferred contents the shards have not written yet.
+	 */
+	public void dropDeferred( )
+	{
+		for ( int i = 0; i < writers.length; i++ )
+		{
+			writers[i].dropDeferred( );
+		}
+	}
+
+	/**
+	 * @return the number of bytes written to all shards
+	 */
+	public long getByteCount( )
+	{
+		long bytes = 0;
+		for ( int i = 0; i < writers.length; i++ )
+		{
+			if ( writers[i] instanceof ChannelXMLFileWriter )
+			{
+				bytes += ( (ChannelXMLFileWriter) writers[i] ).getByteCount( );
+			}
+			else if ( counters[i] != null )
+			{
+				bytes += counters[i].getCount( );
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Writes the queued content and closes the shards.
+	 *
+	 * @throws IOException
+	 *             the first error closing a shard
+	 */
+	public void close( ) throws IOException
+	{
+		IOException error = null;
+		for ( int i = 0; i < writers.length; i++ )
+		{
+			writers[i].drainDeferred( 0 );
+			writers[i].endWriter( );
+			writers[i].close( );
+			if ( error == null && writers[i] instanceof ChannelXMLFileWriter )
+			{
+				error = ( (ChannelXMLFileWriter) writers[i] ).getError( );
+			}
+			try
+			{
+				streams[i].close( );
+			}
+			catch ( IOException e )
+			{
+				if ( error == null )
+				{
+					error = e;
+				}
+			}
+		}
+		if ( error != null )
+		{
+			throw error;
+		}
+	}
+}
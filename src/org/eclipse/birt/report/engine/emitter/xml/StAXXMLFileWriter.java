@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Writes the report to a StAX stream writer.
+ * <p>
+ * The document itself is left to the caller, which may start it before the
+ * report and write more elements around it; the writer only adds the
+ * elements of the report and flushes the stream writer at the end.
+ */
+public class StAXXMLFileWriter extends EventXMLFileWriter
+{
+
+	private final XMLStreamWriter streamWriter;
+
+	/**
+	 * @param streamWriter
+	 *            the stream writer
+	 */
+	public StAXXMLFileWriter( XMLStreamWriter streamWriter )
+	{
+		this.streamWriter = streamWriter;
+	}
+
+	protected void startDocument( )
+	{
+	}
+
+	protected void endDocument( )
+	{
+	}
+
+	protected void startElement( String name, String[] attributeNames,
+			String[] attributeValues, int count ) throws XMLStreamException
+	{
+		streamWriter.writeStartElement( name );
+		for ( int i = 0; i < count; i++ )
+		{
+			streamWriter.writeAttribute( attributeNames[i], attributeValues[i] );
+		}
+	}
+
+	protected void endElement( String name ) throws XMLStreamException
+	{
+		streamWriter.writeEndElement( );
+	}
+
+	protected void characters( String text ) throws XMLStreamException
+	{
+		streamWriter.writeCharacters( text );
+	}
+
+	protected void characters( char[] buffer, int offset, int length )
+			throws XMLStreamException
+	{
+		streamWriter.writeCharacters( buffer, offset, length );
+	}
+
+	protected void flushEvents( ) throws XMLStreamException
+	{
+		streamWriter.flush( );
+	}
+}
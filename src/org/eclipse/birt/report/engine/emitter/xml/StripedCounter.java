@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter updated by many threads with little contention.
+ * <p>
+ * The count is spread over several cells, and a thread adds to the cell
+ * picked by its id. The cells are a cache line apart so that threads adding
+ * to different cells do not share a line. Reading the count sums the cells,
+ * so it is meant for counters that are updated often and read rarely.
+ */
+public class StripedCounter
+{
+
+	/**
+	 * the number of longs from one cell to the next, 64 bytes
+	 */
+	private static final int PADDING = 8;
+
+	private static final int MAX_STRIPES = 64;
+
+	private final AtomicLongArray cells;
+
+	private final int mask;
+
+	/**
+	 * Creates a counter with two cells per processor.
+	 */
+	public StripedCounter( )
+	{
+		this( Runtime.getRuntime( ).availableProcessors( ) * 2 );
+	}
+
+	/**
+	 * @param stripes
+	 *            the number of cells, rounded up to a power of two
+	 */
+	public StripedCounter( int stripes )
+	{
+		int count = 1;
+		while ( count < stripes && count < MAX_STRIPES )
+		{
+			count <<= 1;
+		}
+		cells = new AtomicLongArray( count * PADDING );
+		mask = count - 1;
+	}
+
+	/**
+	 * @param delta
+	 *            the number added to the count
+	 */
+	public void add( long delta )
+	{
+		long id = Thread.currentThread( ).getId( );
+		int hash = (int) ( id ^ ( id >>> 32 ) ) * 0x9E3779B9;
+		cells.getAndAdd( ( ( hash >>> 16 ) & mask ) * PADDING, delta );
+	}
+
+	/**
+	 * Adds one to the count.
+	 */
+	public void increment( )
+	{
+		add( 1 );
+	}
+
+	/**
+	 * @return the count, the sum of the cells
+	 */
+	public long get( )
+	{
+		long sum = 0;
+		for ( int i = 0; i < cells.length( ); i += PADDING )
+		{
+			sum += cells.get( i );
+		}
+		return sum;
+	}
+
+	/**
+	 * Sets the count to 0. Additions made while the cells are cleared may be
+	 * lost.
+	 */
+	public void reset( )
+	{
+		for ( int i = 0; i < cells.length( ); i += PADDING )
+		{
+			cells.set( i, 0 );
+		}
+	}
+}
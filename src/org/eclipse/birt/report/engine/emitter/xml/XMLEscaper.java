@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+/**
+ * Writes values into the output so that the document stays well-formed.
+ * <p>
+ * The escaping depends on where the value lands in the template:
+ * <ul>
+ * <li>in a CDATA section, <code>]]&gt;</code> is split across two sections;</li>
+ * <li>in text, <code>&amp;</code>, <code>&lt;</code> and <code>&gt;</code>
+ * are replaced by entities;</li>
+ * <li>in a tag, quotes and white space are escaped as well.</li>
+ * </ul>
+ * Characters that are not allowed in XML are dropped in every context.
+ * {@link #removeIllegal(String)} applies the same rule to values handed to an
+ * XML API instead of being written.
+ * <p>
+ * Values are copied in chunks into a reusable buffer and scanned with a
+ * lookup table. Runs of characters that need no handling are written in bulk
+ * straight from the buffer, so a value that needs no escaping is written
+ * without allocating anything.
+ */
+public class XMLEscaper
+{
+
+	private static final int CHUNK_SIZE = 4096;
+
+	private static final byte ILLEGAL = 1;
+	private static final byte TEXT = 2;
+	private static final byte ATTRIBUTE = 4;
+	private static final byte CDATA = 8;
+
+	private static final byte[] FLAGS = new byte[128];
+
+	static
+	{
+		for ( int c = 0; c < 0x20; c++ )
+		{
+			FLAGS[c] = ILLEGAL;
+		}
+		FLAGS['\t'] = ATTRIBUTE;
+		FLAGS['\n'] = ATTRIBUTE;
+		FLAGS['\r'] = ATTRIBUTE;
+		FLAGS['&'] = TEXT;
+		FLAGS['<'] = TEXT;
+		FLAGS['>'] = TEXT | CDATA;
+		FLAGS['"'] = ATTRIBUTE;
+		FLAGS['\''] = ATTRIBUTE;
+	}
+
+	private static final String CDATA_SPLIT = "]]><![CDATA["; //$NON-NLS-1$
+
+	private final char[] buffer = new char[CHUNK_SIZE];
+
+	/**
+	 * Writes a value escaped for its context. A <code>null</code> value
+	 * writes nothing.
+	 *
+	 * @param value
+	 *            the value
+	 * @param context
+	 *            one of the <code>ExportTemplate.CONTEXT_*</code> constants
+	 * @param writer
+	 *            the writer
+	 */
+	public void write( String value, int context, XMLFileWriter writer )
+	{
+		if ( value == null )
+		{
+			return;
+		}
+		int mask = getMask( context );
+		int length = value.length( );
+		for ( int base = 0; base < length; base += CHUNK_SIZE )
+		{
+			int count = Math.min( CHUNK_SIZE, length - base );
+			value.getChars( base, base + count, buffer, 0 );
+			int runStart = 0;
+			for ( int i = 0; i < count; i++ )
+			{
+				char c = buffer[i];
+				if ( c < 0x80 )
+				{
+					if ( ( FLAGS[c] & mask ) == 0 )
+					{
+						continue;
+					}
+				}
+				else if ( c < 0xD800 || ( c >= 0xE000 && c < 0xFFFE ) )
+				{
+					continue;
+				}
+
+				String replacement = null;
+				if ( isSurrogatePair( value, base + i ) )
+				{
+					continue;
+				}
+				if ( context == ExportTemplate.CONTEXT_CDATA && c == '>' )
+				{
+					int index = base + i;
+					if ( index < 2 || value.charAt( index - 1 ) != ']'
+							|| value.charAt( index - 2 ) != ']' )
+					{
+						continue;
+					}
+					// close the section before '>' and reopen it
+					writer.writeCode( buffer, runStart, i - runStart );
+					writer.writeCode( CDATA_SPLIT );
+					runStart = i;
+					continue;
+				}
+				if ( c < 0x80 && ( FLAGS[c] & ILLEGAL ) == 0 )
+				{
+					replacement = getEntity( c );
+				}
+				writer.writeCode( buffer, runStart, i - runStart );
+				if ( replacement != null )
+				{
+					writer.writeCode( replacement );
+				}
+				runStart = i + 1;
+			}
+			if ( count > runStart )
+			{
+				writer.writeCode( buffer, runStart, count - runStart );
+			}
+		}
+	}
+
+	/**
+	 * Drops the characters that are not allowed in XML, by the same rule as
+	 * {@link #write(String, int, XMLFileWriter)}.
+	 * 
+	 * @param value
+	 *            the value, may be <code>null</code>
+	 * @return the value without those characters, the same instance if it
+	 *         has none
+	 */
+	public static String removeIllegal( String value )
+	{
+		int index = indexOfIllegal( value );
+		if ( index < 0 )
+		{
+			return value;
+		}
+		int length = value.length( );
+		StringBuilder result = new StringBuilder( length );
+		result.append( value, 0, index );
+		for ( int i = index + 1; i < length; i++ )
+		{
+			if ( isLegal( value, i ) )
+			{
+				result.append( value.charAt( i ) );
+			}
+		}
+		return result.toString( );
+	}
+
+	/**
+	 * @param value
+	 *            the value, may be <code>null</code>
+	 * @return the index of the first character not allowed in XML, or -1
+	 */
+	public static int indexOfIllegal( CharSequence value )
+	{
+		if ( value == null )
+		{
+			return -1;
+		}
+		int length = value.length( );
+		for ( int i = 0; i < length; i++ )
+		{
+			if ( !isLegal( value, i ) )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isLegal( CharSequence value, int index )
+	{
+		char c = value.charAt( index );
+		if ( c < 0x80 )
+		{
+			return ( FLAGS[c] & ILLEGAL ) == 0;
+		}
+		if ( c < 0xD800 || ( c >= 0xE000 && c < 0xFFFE ) )
+		{
+			return true;
+		}
+		return isSurrogatePair( value, index );
+	}
+
+	private static int getMask( int context )
+	{
+		switch ( context )
+		{
+			case ExportTemplate.CONTEXT_CDATA :
+				return ILLEGAL | CDATA;
+			case ExportTemplate.CONTEXT_ATTRIBUTE :
+				return ILLEGAL | TEXT | ATTRIBUTE;
+			default :
+				return ILLEGAL | TEXT;
+		}
+	}
+
+	/**
+	 * @return whether the surrogate at the index is half of a valid pair
+	 */
+	private static boolean isSurrogatePair( CharSequence value, int index )
+	{
+		char c = value.charAt( index );
+		if ( c >= 0xD800 && c < 0xDC00 )
+		{
+			return index + 1 < value.length( )
+					&& isLowSurrogate( value.charAt( index + 1 ) );
+		}
+		if ( isLowSurrogate( c ) )
+		{
+			char previous = index > 0 ? value.charAt( index - 1 ) : 0;
+			return previous >= 0xD800 && previous < 0xDC00;
+		}
+		return false;
+	}
+
+	private static boolean isLowSurrogate( char c )
+	{
+		return c >= 0xDC00 && c < 0xE000;
+	}
+
+	private static String getEntity( char c )
+	{
+		switch ( c )
+		{
+			case '&' :
+				return "&amp;"; //$NON-NLS-1$
+			case '<' :
+				return "&lt;"; //$NON-NLS-1$
+			case '>' :
+				return "&gt;"; //$NON-NLS-1$
+			case '"' :
+				return "&quot;"; //$NON-NLS-1$
+			case '\'' :
+				return "&apos;"; //$NON-NLS-1$
+			case '\t' :
+				return "&#9;"; //$NON-NLS-1$
+			case '\n' :
+				return "&#10;"; //$NON-NLS-1$
+			case '\r' :
+				return "&#13;"; //$NON-NLS-1$
+			default :
+				return null;
+		}
+	}
+}
@@ -11,9 +11,106 @@
 
 package org.eclipse.birt.report.engine.emitter.xml;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.LinkedList;
+
 import org.eclipse.birt.report.engine.emitter.XMLWriter;
 
 public class XMLFileWriter extends XMLWriter {
+
+	/**
+	 * Content whose text is not available yet, for example an image that is
+	 * still being fetched. The writer keeps everything written after it in
+	 * memory until it is written, so the output order is preserved.
+	 */
+	public interface DeferredContent
+	{
+
+		/**
+		 * @return whether {@link #write(XMLFileWriter)} can run without
+		 *         blocking
+		 */
+		boolean isReady( );
+
+		/**
+		 * Writes the content, waiting for it if needed.
+		 * 
+		 * @param writer
+		 *            the writer
+		 */
+		void write( XMLFileWriter writer );
+	}
+
+	private static final String UTF_8 = "UTF-8"; //$NON-NLS-1$
+
+	/**
+	 * the output. The writer prints to it itself rather than through the
+	 * buffer of XMLWriter, whose fields change between engine versions.
+	 */
+	private Writer output;
+
+	/**
+	 * the first error of the output
+	 */
+	private IOException outputError;
+
+	/**
+	 * the deferred contents and the text written after them, in order
+	 */
+	private final LinkedList<Object> deferred = new LinkedList<Object>( );
+
+	/**
+	 * the text written after the last deferred content
+	 */
+	private StringBuilder deferredText;
+
+	private int deferredCount;
+
+	/**
+	 * the number of characters of text queued behind deferred contents
+	 */
+	private long deferredChars;
+
+	/**
+	 * the number of queued characters above which draining waits for the
+	 * deferred contents, 0 for no limit
+	 */
+	private long maxDeferredChars;
+
+	private boolean draining;
+
+	/**
+	 * the buffer capturing the output, <code>null</code> when the output is
+	 * written
+	 */
+	private RowBuffer capture;
+
+	/**
+	 * the number of captured characters above which the capture is written,
+	 * 0 for no limit
+	 */
+	private int captureLimit;
+
+	private boolean captureSpilled;
+
+	private boolean flushPolicy;
+
+	private int flushRows;
+
+	private long flushChars;
+
+	private long flushInterval;
+
+	private int rowsSinceFlush;
+
+	private long charsSinceFlush;
+
+	private long lastFlush;
+
 	/**
 	 * Creates a CSVWriter using this constructor.
 	 */
@@ -21,6 +118,89 @@ public class XMLFileWriter extends XMLWriter {
 	{
 	}
 
+	/**
+	 * Opens the writer on a stream.
+	 * 
+	 * @param out
+	 *            the stream
+	 * @param encoding
+	 *            the encoding of the characters
+	 */
+	public void open( OutputStream out, String encoding )
+	{
+		try
+		{
+			output = new OutputStreamWriter( out, encoding );
+		}
+		catch ( UnsupportedEncodingException e )
+		{
+			throw new IllegalArgumentException( "Unsupported encoding: " //$NON-NLS-1$
+					+ encoding );
+		}
+		outputError = null;
+	}
+
+	public void open( OutputStream out )
+	{
+		open( out, UTF_8 );
+	}
+
+	/**
+	 * Flushes the characters to the stream and closes it.
+	 */
+	public void close( )
+	{
+		if ( output == null )
+		{
+			return;
+		}
+		try
+		{
+			output.close( );
+		}
+		catch ( IOException e )
+		{
+			setOutputError( e );
+		}
+		output = null;
+	}
+
+	/**
+	 * Prints a string to the output.
+	 * 
+	 * @param s
+	 *            the string
+	 */
+	public void print( String s )
+	{
+		try
+		{
+			output.write( s );
+		}
+		catch ( IOException e )
+		{
+			setOutputError( e );
+		}
+	}
+
+	/**
+	 * Prints a character to the output.
+	 * 
+	 * @param c
+	 *            the character
+	 */
+	public void print( char c )
+	{
+		try
+		{
+			output.write( c );
+		}
+		catch ( IOException e )
+		{
+			setOutputError( e );
+		}
+	}
+
 	/**
 	 * Outputs java script code.
 	 * 
@@ -29,11 +209,355 @@ public class XMLFileWriter extends XMLWriter {
 	 */
 	public void writeCode( String code )
 	{
-		
+		// deferred content written while draining belongs before the capture
+		if ( capture != null && !draining )
+		{
+			capture.append( code );
+			checkCaptureLimit( );
+			return;
+		}
+		charsSinceFlush += code.length( );
+		if ( deferredCount > 0 && !draining )
+		{
+			deferText( ).append( code );
+			deferredChars += code.length( );
+			return;
+		}
 //		super.printWriter.print( code );
 		print( code );
 	}
 
+	/**
+	 * Outputs a range of characters without creating a string.
+	 * 
+	 * @param buffer
+	 *            the characters
+	 * @param offset
+	 *            the index of the first character
+	 * @param length
+	 *            the number of characters
+	 */
+	public void writeCode( char[] buffer, int offset, int length )
+	{
+		if ( capture != null && !draining )
+		{
+			capture.append( buffer, offset, length );
+			checkCaptureLimit( );
+			return;
+		}
+		charsSinceFlush += length;
+		if ( deferredCount > 0 && !draining )
+		{
+			deferText( ).append( buffer, offset, length );
+			deferredChars += length;
+			return;
+		}
+		print( buffer, offset, length );
+	}
+
+	/**
+	 * Prints a range of characters to the output.
+	 * 
+	 * @param buffer
+	 *            the characters
+	 * @param offset
+	 *            the index of the first character
+	 * @param length
+	 *            the number of characters
+	 */
+	protected void print( char[] buffer, int offset, int length )
+	{
+		try
+		{
+			output.write( buffer, offset, length );
+		}
+		catch ( IOException e )
+		{
+			setOutputError( e );
+		}
+	}
+
+	private void setOutputError( IOException e )
+	{
+		if ( outputError == null )
+		{
+			outputError = e;
+		}
+	}
+
+	/**
+	 * Outputs content that may not be available yet. It is written right away
+	 * if it is ready and nothing else is waiting, otherwise it is queued.
+	 * 
+	 * @param content
+	 *            the deferred content
+	 */
+	public void writeDeferred( DeferredContent content )
+	{
+		if ( capture != null && !draining )
+		{
+			capture.append( content );
+			return;
+		}
+		if ( ( deferredCount == 0 || draining ) && content.isReady( ) )
+		{
+			content.write( this );
+			return;
+		}
+		deferred.add( content );
+		deferredText = null;
+		deferredCount++;
+	}
+
+	/**
+	 * Sets how much text may be queued behind deferred contents that are not
+	 * ready, such as the rows written while a slow image is fetched.
+	 * 
+	 * @param chars
+	 *            the number of queued characters above which
+	 *            {@link #drainDeferred(int)} waits for the deferred contents,
+	 *            0 for no limit
+	 */
+	public void setMaxDeferredChars( long chars )
+	{
+		maxDeferredChars = Math.max( 0, chars );
+	}
+
+	/**
+	 * Writes the queued output in order. A deferred content that is ready is
+	 * written; one that is not blocks only while more than
+	 * <code>maxPending</code> contents are waiting or more text than the
+	 * limit set by {@link #setMaxDeferredChars(long)} is queued.
+	 * 
+	 * @param maxPending
+	 *            the number of deferred contents allowed to stay queued, 0
+	 *            writes everything
+	 */
+	public void drainDeferred( int maxPending )
+	{
+		while ( !deferred.isEmpty( ) )
+		{
+			Object head = deferred.getFirst( );
+			if ( head instanceof DeferredContent )
+			{
+				DeferredContent content = (DeferredContent) head;
+				if ( deferredCount <= maxPending
+						&& ( maxDeferredChars == 0 || deferredChars <= maxDeferredChars )
+						&& !content.isReady( ) )
+				{
+					return;
+				}
+				draining = true;
+				try
+				{
+					content.write( this );
+				}
+				finally
+				{
+					draining = false;
+				}
+				deferredCount--;
+			}
+			else
+			{
+				String text = head.toString( );
+				print( text );
+				deferredChars -= text.length( );
+			}
+			deferred.removeFirst( );
+		}
+		deferredText = null;
+		deferredChars = 0;
+	}
+
+	/**
+	 * Writes the queued text and drops the deferred contents that were not
+	 * written yet, so that nothing waits for them.
+	 */
+	public void dropDeferred( )
+	{
+		while ( !deferred.isEmpty( ) )
+		{
+			Object head = deferred.removeFirst( );
+			if ( !( head instanceof DeferredContent ) )
+			{
+				print( head.toString( ) );
+			}
+		}
+		deferredCount = 0;
+		deferredText = null;
+		deferredChars = 0;
+	}
+
+	/**
+	 * Keeps the output in a buffer instead of writing it, until
+	 * {@link #endCapture()}. Deferred content written by
+	 * {@link #drainDeferred(int)} is not captured, since it precedes the
+	 * captured output.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 */
+	public void startCapture( RowBuffer buffer )
+	{
+		startCapture( buffer, 0 );
+	}
+
+	/**
+	 * Keeps the output in a buffer, writing the buffer whenever it holds more
+	 * than <code>limit</code> characters, so that a large row, such as one
+	 * with a large image, is written in pieces.
+	 * 
+	 * @param buffer
+	 *            the buffer
+	 * @param limit
+	 *            the number of characters kept, 0 for no limit
+	 */
+	public void startCapture( RowBuffer buffer, int limit )
+	{
+		capture = buffer;
+		captureLimit = limit;
+		captureSpilled = false;
+	}
+
+	/**
+	 * @return whether part of the current capture was already written
+	 */
+	public boolean isCaptureSpilled( )
+	{
+		return captureSpilled;
+	}
+
+	private void checkCaptureLimit( )
+	{
+		if ( captureLimit > 0 && capture.length( ) > captureLimit )
+		{
+			RowBuffer buffer = capture;
+			capture = null;
+			buffer.writeTo( this );
+			buffer.clear( );
+			capture = buffer;
+			captureSpilled = true;
+		}
+	}
+
+	/**
+	 * Stops capturing the output.
+	 * 
+	 * @return the buffer holding the captured output
+	 */
+	public RowBuffer endCapture( )
+	{
+		RowBuffer buffer = capture;
+		capture = null;
+		return buffer;
+	}
+
+	/**
+	 * @return whether the output is being captured
+	 */
+	public boolean isCapturing( )
+	{
+		return capture != null;
+	}
+
+	/**
+	 * @return the number of deferred contents waiting to be written
+	 */
+	public int getDeferredCount( )
+	{
+		return deferredCount;
+	}
+
+	/**
+	 * Sets when the output is flushed while the report is written. The
+	 * output is flushed at the end of a row once any of the limits is
+	 * reached; a limit of 0 is not checked.
+	 * 
+	 * @param rows
+	 *            the number of rows between flushes
+	 * @param bytes
+	 *            the number of bytes between flushes, counted as characters
+	 *            before encoding
+	 * @param interval
+	 *            the time between flushes in milliseconds
+	 */
+	public void setFlushPolicy( int rows, long bytes, long interval )
+	{
+		flushRows = Math.max( 0, rows );
+		flushChars = Math.max( 0, bytes );
+		flushInterval = Math.max( 0, interval ) * 1000000;
+		flushPolicy = flushRows > 0 || flushChars > 0 || flushInterval > 0;
+	}
+
+	/**
+	 * Notes the end of a row and flushes the output if the flush policy asks
+	 * for it.
+	 */
+	public void endRow( )
+	{
+		if ( !flushPolicy )
+		{
+			return;
+		}
+		rowsSinceFlush++;
+		if ( ( flushRows > 0 && rowsSinceFlush >= flushRows )
+				|| ( flushChars > 0 && charsSinceFlush >= flushChars )
+				|| ( flushInterval > 0 && System.nanoTime( ) - lastFlush >= flushInterval ) )
+		{
+			flush( );
+		}
+	}
+
+	/**
+	 * Flushes the output written so far. Deferred content stays queued.
+	 */
+	public void flush( )
+	{
+		flushOutput( );
+		rowsSinceFlush = 0;
+		charsSinceFlush = 0;
+		lastFlush = System.nanoTime( );
+	}
+
+	/**
+	 * Flushes the underlying output.
+	 */
+	protected void flushOutput( )
+	{
+		if ( output == null )
+		{
+			return;
+		}
+		try
+		{
+			output.flush( );
+		}
+		catch ( IOException e )
+		{
+			setOutputError( e );
+		}
+	}
+
+	/**
+	 * @return the first error of the output, or <code>null</code> if there
+	 *         was none
+	 */
+	public Exception getError( )
+	{
+		return outputError;
+	}
+
+	private StringBuilder deferText( )
+	{
+		if ( deferredText == null )
+		{
+			deferredText = new StringBuilder( );
+			deferred.add( deferredText );
+		}
+		return deferredText;
+	}
+
 	// Overrides
 	/*
 	 * (non-Javadoc)
@@ -42,9 +566,20 @@ public class XMLFileWriter extends XMLWriter {
 	 */
 	public void startWriter( )
 	{
-
+		rowsSinceFlush = 0;
+		charsSinceFlush = 0;
+		lastFlush = System.nanoTime( );
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.eclipse.birt.report.engine.emitter.XMLWriter#endWriter()
+	 */
+	public void endWriter( )
+	{
+		flush( );
+	}
 
 	/**
 	 * Close the tag
@@ -55,7 +590,7 @@ public class XMLFileWriter extends XMLWriter {
 	public void closeTag( String tagName )
 	{
 		//super.printWriter.print( tagName );	
-		print( tagName );	
+		writeCode( tagName );	
 
 	}
 
@@ -10,11 +10,205 @@
  *******************************************************************************/
 
 package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.util.zip.Deflater;
+
 import org.eclipse.birt.report.engine.api.RenderOption;
 
 public class XMLRenderOption extends RenderOption{
 
 	public static final String XML = "XML";
+
+	/**
+	 * Boolean option. When set, each distinct image is written once with the
+	 * schema's <code>imagedef</code> tag and every later occurrence is written
+	 * as a short reference with the <code>imageref</code> tag.
+	 */
+	public static final String IMAGE_DEDUPLICATION = "imageDeduplication"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The number of threads fetching URI images in the
+	 * background. 0, the default, fetches each image on the rendering thread.
+	 */
+	public static final String IMAGE_FETCH_THREADS = "imageFetchThreads"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The number of background image fetches that may be
+	 * outstanding before rendering waits for the oldest one.
+	 */
+	public static final String IMAGE_MAX_PENDING = "imageMaxPending"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The number of characters written behind outstanding
+	 * background image fetches that may be held before rendering waits for
+	 * the oldest one. 0 holds any amount.
+	 */
+	public static final String IMAGE_MAX_DEFERRED_CHARS = "imageMaxDeferredChars"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The image connect timeout in milliseconds.
+	 */
+	public static final String IMAGE_CONNECT_TIMEOUT = "imageConnectTimeout"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The image read timeout in milliseconds.
+	 */
+	public static final String IMAGE_READ_TIMEOUT = "imageReadTimeout"; //$NON-NLS-1$
+
+	/**
+	 * Boolean option. Whether URI images are served from and added to the
+	 * process wide image cache. Defaults to true.
+	 */
+	public static final String IMAGE_CACHE = "imageCache"; //$NON-NLS-1$
+
+	/**
+	 * String option. The compression of the output: "none", the default,
+	 * "gzip", or "deflate" for a raw deflate stream without header.
+	 */
+	public static final String OUTPUT_COMPRESSION = "outputCompression"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The compression level from 0 to 9, or -1, the default,
+	 * for the compressor's default level.
+	 */
+	public static final String COMPRESSION_LEVEL = "compressionLevel"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The size of the compression buffer in bytes.
+	 */
+	public static final String COMPRESSION_BUFFER_SIZE = "compressionBufferSize"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The number of threads compressing gzip output. With more
+	 * than one, the default, the output is cut into blocks compressed
+	 * concurrently and written as a sequence of gzip members.
+	 */
+	public static final String COMPRESSION_THREADS = "compressionThreads"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The size in bytes of a block compressed by one thread.
+	 */
+	public static final String COMPRESSION_BLOCK_SIZE = "compressionBlockSize"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The number of blocks being compressed or waiting to be
+	 * written before the writing thread waits. Defaults to twice the threads.
+	 */
+	public static final String COMPRESSION_MAX_BLOCKS = "compressionMaxBlocks"; //$NON-NLS-1$
+
+	/**
+	 * Boolean option. When set, the output is encoded by the emitter into a
+	 * large buffer written to a file channel, instead of going through a
+	 * <code>PrintWriter</code>. Only UTF-8 output is supported.
+	 */
+	public static final String CHANNEL_OUTPUT = "channelOutput"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The size in bytes of the buffer in front of the output
+	 * file, or of the buffer of the channel writer. Large buffers suit batch
+	 * exports to files.
+	 */
+	public static final String OUTPUT_BUFFER_SIZE = "outputBufferSize"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The output is flushed after this number of rows. 0, the
+	 * default, does not flush before the end of the report.
+	 */
+	public static final String FLUSH_ROWS = "flushRows"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The output is flushed at the end of a row once this
+	 * number of bytes, counted before encoding, was written since the last
+	 * flush.
+	 */
+	public static final String FLUSH_BYTES = "flushBytes"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The output is flushed at the end of a row once this
+	 * number of milliseconds passed since the last flush. Small values
+	 * suit streaming to a client.
+	 */
+	public static final String FLUSH_INTERVAL = "flushInterval"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. When set, the output file is split into numbered parts
+	 * of this number of top level rows. Each part is a complete document, and
+	 * a manifest lists the parts and their row ranges.
+	 */
+	public static final String SPLIT_ROWS = "splitRows"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. When set, a part of a split output file is closed at the
+	 * end of the first top level row reaching this number of bytes.
+	 */
+	public static final String SPLIT_BYTES = "splitBytes"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. When above 1 and a shard key is set, the top level rows
+	 * are distributed over this number of output files by the hash of their
+	 * key. Content outside rows and rows without a key go to every file.
+	 */
+	public static final String SHARD_COUNT = "shardCount"; //$NON-NLS-1$
+
+	/**
+	 * String option. The name of the data element whose value is the shard
+	 * key of a row.
+	 */
+	public static final String SHARD_KEY = "shardKey"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. When set, the output is handed in buffers of 64 KB to a
+	 * dedicated thread that compresses and writes it, and this is the number
+	 * of buffers. 0, the default, writes on the rendering thread.
+	 */
+	public static final String ASYNC_BUFFERS = "asyncBuffers"; //$NON-NLS-1$
+
+	/**
+	 * Boolean option. When set, the report is written in the compact binary
+	 * encoding of {@link BinaryXMLFileWriter} instead of text, and is read
+	 * back with {@link BinaryXMLDecoder}. Sharded output is always text.
+	 */
+	public static final String BINARY_OUTPUT = "binaryOutput"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. The number of characters of a top level row collected
+	 * before they are written, the row being written at once at its end if
+	 * it is smaller. 0 writes every element as it comes.
+	 */
+	public static final String ROW_BATCH_SIZE = "rowBatchSize"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. When set, the content of the pages before this page
+	 * number, counted from 1, is not written.
+	 * <p>
+	 * The emitter is registered with <code>no-pagination</code>, so the
+	 * engine hands it the whole report as a single page. The page range is
+	 * then ignored with a warning; it only applies to an emitter that
+	 * receives paginated content. Use {@link #FIRST_ROW} and
+	 * {@link #MAX_ROWS} to write part of a report.
+	 */
+	public static final String START_PAGE = "startPage"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. When set, the content of the pages after this page
+	 * number is not written. See {@link #START_PAGE} about unpaginated
+	 * rendering.
+	 */
+	public static final String END_PAGE = "endPage"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. When set, the top level rows before this row are not
+	 * written. The rows are counted from 0 over the whole report, including
+	 * the pages outside the page range.
+	 */
+	public static final String FIRST_ROW = "firstRow"; //$NON-NLS-1$
+
+	/**
+	 * Integer option. When set, no more than this number of top level rows
+	 * are written, from the first row.
+	 */
+	public static final String MAX_ROWS = "maxRows"; //$NON-NLS-1$
+
 	/**
 	 * constructor
 	 *
@@ -22,4 +216,503 @@ public class XMLRenderOption extends RenderOption{
 	public XMLRenderOption( ) {
 		
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @param deduplicate
+	 *            whether repeated images are written as references
+	 */
+	public void setImageDeduplication( boolean deduplicate )
+	{
+		setOption( IMAGE_DEDUPLICATION, Boolean.valueOf( deduplicate ) );
+	}
+
+	/**
+	 * @return whether repeated images are written as references
+	 */
+	public boolean getImageDeduplication( )
+	{
+		return getBooleanOption( IMAGE_DEDUPLICATION, false );
+	}
+
+	/**
+	 * @param threads
+	 *            the number of background image fetch threads
+	 */
+	public void setImageFetchThreads( int threads )
+	{
+		setOption( IMAGE_FETCH_THREADS, Integer.valueOf( threads ) );
+	}
+
+	/**
+	 * @return the number of background image fetch threads
+	 */
+	public int getImageFetchThreads( )
+	{
+		return getIntOption( IMAGE_FETCH_THREADS, 0 );
+	}
+
+	/**
+	 * @param maxPending
+	 *            the number of outstanding background image fetches
+	 */
+	public void setImageMaxPending( int maxPending )
+	{
+		setOption( IMAGE_MAX_PENDING, Integer.valueOf( maxPending ) );
+	}
+
+	/**
+	 * @return the number of outstanding background image fetches
+	 */
+	public int getImageMaxPending( )
+	{
+		return getIntOption( IMAGE_MAX_PENDING,
+				XMLReportEmitter.DEFAULT_IMAGE_MAX_PENDING );
+	}
+
+	/**
+	 * @param chars
+	 *            the number of characters held behind outstanding background
+	 *            image fetches, 0 for no limit
+	 */
+	public void setImageMaxDeferredChars( int chars )
+	{
+		setOption( IMAGE_MAX_DEFERRED_CHARS, Integer.valueOf( chars ) );
+	}
+
+	/**
+	 * @return the number of characters held behind outstanding background
+	 *         image fetches
+	 */
+	public int getImageMaxDeferredChars( )
+	{
+		return getIntOption( IMAGE_MAX_DEFERRED_CHARS,
+				XMLReportEmitter.DEFAULT_IMAGE_MAX_DEFERRED_CHARS );
+	}
+
+	/**
+	 * @param timeout
+	 *            the image connect timeout in milliseconds
+	 */
+	public void setImageConnectTimeout( int timeout )
+	{
+		setOption( IMAGE_CONNECT_TIMEOUT, Integer.valueOf( timeout ) );
+	}
+
+	/**
+	 * @return the image connect timeout in milliseconds
+	 */
+	public int getImageConnectTimeout( )
+	{
+		return getIntOption( IMAGE_CONNECT_TIMEOUT,
+				ImageLoader.DEFAULT_CONNECT_TIMEOUT );
+	}
+
+	/**
+	 * @param timeout
+	 *            the image read timeout in milliseconds
+	 */
+	public void setImageReadTimeout( int timeout )
+	{
+		setOption( IMAGE_READ_TIMEOUT, Integer.valueOf( timeout ) );
+	}
+
+	/**
+	 * @return the image read timeout in milliseconds
+	 */
+	public int getImageReadTimeout( )
+	{
+		return getIntOption( IMAGE_READ_TIMEOUT,
+				ImageLoader.DEFAULT_READ_TIMEOUT );
+	}
+
+	/**
+	 * @param useCache
+	 *            whether URI images use the process wide image cache
+	 */
+	public void setImageCache( boolean useCache )
+	{
+		setOption( IMAGE_CACHE, Boolean.valueOf( useCache ) );
+	}
+
+	/**
+	 * @return whether URI images use the process wide image cache
+	 */
+	public boolean getImageCache( )
+	{
+		return getBooleanOption( IMAGE_CACHE, true );
+	}
+
+	/**
+	 * @param compression
+	 *            "none", "gzip" or "deflate"
+	 */
+	public void setOutputCompression( String compression )
+	{
+		setOption( OUTPUT_COMPRESSION, compression );
+	}
+
+	/**
+	 * @return the compression of the output
+	 */
+	public String getOutputCompression( )
+	{
+		Object compression = getOption( OUTPUT_COMPRESSION );
+		return compression == null ? OutputStreamFactory.COMPRESSION_NONE
+				: compression.toString( );
+	}
+
+	/**
+	 * @param level
+	 *            the compression level from 0 to 9, or -1 for the default
+	 */
+	public void setCompressionLevel( int level )
+	{
+		setOption( COMPRESSION_LEVEL, Integer.valueOf( level ) );
+	}
+
+	/**
+	 * @return the compression level
+	 */
+	public int getCompressionLevel( )
+	{
+		return getIntOption( COMPRESSION_LEVEL, Deflater.DEFAULT_COMPRESSION );
+	}
+
+	/**
+	 * @param size
+	 *            the size of the compression buffer in bytes
+	 */
+	public void setCompressionBufferSize( int size )
+	{
+		setOption( COMPRESSION_BUFFER_SIZE, Integer.valueOf( size ) );
+	}
+
+	/**
+	 * @return the size of the compression buffer in bytes
+	 */
+	public int getCompressionBufferSize( )
+	{
+		return getIntOption( COMPRESSION_BUFFER_SIZE,
+				OutputStreamFactory.DEFAULT_BUFFER_SIZE );
+	}
+
+	/**
+	 * @param threads
+	 *            the number of threads compressing gzip output
+	 */
+	public void setCompressionThreads( int threads )
+	{
+		setOption( COMPRESSION_THREADS, Integer.valueOf( threads ) );
+	}
+
+	/**
+	 * @return the number of threads compressing gzip output
+	 */
+	public int getCompressionThreads( )
+	{
+		return getIntOption( COMPRESSION_THREADS, 1 );
+	}
+
+	/**
+	 * @param size
+	 *            the size in bytes of a block compressed by one thread
+	 */
+	public void setCompressionBlockSize( int size )
+	{
+		setOption( COMPRESSION_BLOCK_SIZE, Integer.valueOf( size ) );
+	}
+
+	/**
+	 * @return the size in bytes of a block compressed by one thread
+	 */
+	public int getCompressionBlockSize( )
+	{
+		return getIntOption( COMPRESSION_BLOCK_SIZE,
+				ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE );
+	}
+
+	/**
+	 * @param maxBlocks
+	 *            the number of blocks in flight, 0 for twice the threads
+	 */
+	public void setCompressionMaxBlocks( int maxBlocks )
+	{
+		setOption( COMPRESSION_MAX_BLOCKS, Integer.valueOf( maxBlocks ) );
+	}
+
+	/**
+	 * @return the number of blocks in flight, 0 for twice the threads
+	 */
+	public int getCompressionMaxBlocks( )
+	{
+		return getIntOption( COMPRESSION_MAX_BLOCKS, 0 );
+	}
+
+	/**
+	 * @param channelOutput
+	 *            whether the output is written through a channel
+	 */
+	public void setChannelOutput( boolean channelOutput )
+	{
+		setOption( CHANNEL_OUTPUT, Boolean.valueOf( channelOutput ) );
+	}
+
+	/**
+	 * @return whether the output is written through a channel
+	 */
+	public boolean getChannelOutput( )
+	{
+		return getBooleanOption( CHANNEL_OUTPUT, false );
+	}
+
+	/**
+	 * @param size
+	 *            the size in bytes of the output buffer
+	 */
+	public void setOutputBufferSize( int size )
+	{
+		setOption( OUTPUT_BUFFER_SIZE, Integer.valueOf( size ) );
+	}
+
+	/**
+	 * @return the size in bytes of the output buffer, 0 for the default
+	 */
+	public int getOutputBufferSize( )
+	{
+		return getIntOption( OUTPUT_BUFFER_SIZE, 0 );
+	}
+
+	/**
+	 * @param rows
+	 *            the number of rows between flushes
+	 */
+	public void setFlushRows( int rows )
+	{
+		setOption( FLUSH_ROWS, Integer.valueOf( rows ) );
+	}
+
+	/**
+	 * @return the number of rows between flushes
+	 */
+	public int getFlushRows( )
+	{
+		return getIntOption( FLUSH_ROWS, 0 );
+	}
+
+	/**
+	 * @param bytes
+	 *            the number of bytes between flushes
+	 */
+	public void setFlushBytes( int bytes )
+	{
+		setOption( FLUSH_BYTES, Integer.valueOf( bytes ) );
+	}
+
+	/**
+	 * @return the number of bytes between flushes
+	 */
+	public int getFlushBytes( )
+	{
+		return getIntOption( FLUSH_BYTES, 0 );
+	}
+
+	/**
+	 * @param interval
+	 *            the time between flushes in milliseconds
+	 */
+	public void setFlushInterval( int interval )
+	{
+		setOption( FLUSH_INTERVAL, Integer.valueOf( interval ) );
+	}
+
+	/**
+	 * @return the time between flushes in milliseconds
+	 */
+	public int getFlushInterval( )
+	{
+		return getIntOption( FLUSH_INTERVAL, 0 );
+	}
+
+	/**
+	 * @param rows
+	 *            the number of top level rows of a part of the output
+	 */
+	public void setSplitRows( int rows )
+	{
+		setOption( SPLIT_ROWS, Integer.valueOf( rows ) );
+	}
+
+	/**
+	 * @return the number of top level rows of a part of the output
+	 */
+	public int getSplitRows( )
+	{
+		return getIntOption( SPLIT_ROWS, 0 );
+	}
+
+	/**
+	 * @param bytes
+	 *            the number of bytes of a part of the output
+	 */
+	public void setSplitBytes( int bytes )
+	{
+		setOption( SPLIT_BYTES, Integer.valueOf( bytes ) );
+	}
+
+	/**
+	 * @return the number of bytes of a part of the output
+	 */
+	public int getSplitBytes( )
+	{
+		return getIntOption( SPLIT_BYTES, 0 );
+	}
+
+	/**
+	 * @param count
+	 *            the number of output files the rows are distributed over
+	 */
+	public void setShardCount( int count )
+	{
+		setOption( SHARD_COUNT, Integer.valueOf( count ) );
+	}
+
+	/**
+	 * @return the number of output files the rows are distributed over
+	 */
+	public int getShardCount( )
+	{
+		return getIntOption( SHARD_COUNT, 0 );
+	}
+
+	/**
+	 * @param name
+	 *            the name of the data element holding the shard key
+	 */
+	public void setShardKey( String name )
+	{
+		setOption( SHARD_KEY, name );
+	}
+
+	/**
+	 * @return the name of the data element holding the shard key
+	 */
+	public String getShardKey( )
+	{
+		Object name = getOption( SHARD_KEY );
+		return name == null ? null : name.toString( );
+	}
+
+	/**
+	 * @param buffers
+	 *            the number of buffers handed to the I/O thread, 0 to write
+	 *            on the rendering thread
+	 */
+	public void setAsyncBuffers( int buffers )
+	{
+		setOption( ASYNC_BUFFERS, Integer.valueOf( buffers ) );
+	}
+
+	/**
+	 * @return the number of buffers handed to the I/O thread
+	 */
+	public int getAsyncBuffers( )
+	{
+		return getIntOption( ASYNC_BUFFERS, 0 );
+	}
+
+	/**
+	 * @param binaryOutput
+	 *            whether the report is written in the binary encoding
+	 */
+	public void setBinaryOutput( boolean binaryOutput )
+	{
+		setOption( BINARY_OUTPUT, Boolean.valueOf( binaryOutput ) );
+	}
+
+	/**
+	 * @return whether the report is written in the binary encoding
+	 */
+	public boolean getBinaryOutput( )
+	{
+		return getBooleanOption( BINARY_OUTPUT, false );
+	}
+
+	/**
+	 * @param size
+	 *            the number of characters of a row collected before they are
+	 *            written, 0 not to collect rows
+	 */
+	public void setRowBatchSize( int size )
+	{
+		setOption( ROW_BATCH_SIZE, Integer.valueOf( size ) );
+	}
+
+	/**
+	 * @return the number of characters of a row collected before they are
+	 *         written
+	 */
+	public int getRowBatchSize( )
+	{
+		return getIntOption( ROW_BATCH_SIZE,
+				XMLReportEmitter.DEFAULT_ROW_BATCH_SIZE );
+	}
+
+	/**
+	 * Only applies to paginated content, see {@link #START_PAGE}.
+	 * 
+	 * @param startPage
+	 *            the first page written, counted from 1
+	 * @param endPage
+	 *            the last page written, 0 for the last page of the report
+	 */
+	public void setPageRange( int startPage, int endPage )
+	{
+		setOption( START_PAGE, Integer.valueOf( startPage ) );
+		setOption( END_PAGE, Integer.valueOf( endPage ) );
+	}
+
+	/**
+	 * @return the first page written
+	 */
+	public int getStartPage( )
+	{
+		return getIntOption( START_PAGE, 0 );
+	}
+
+	/**
+	 * @return the last page written, 0 for the last page of the report
+	 */
+	public int getEndPage( )
+	{
+		return getIntOption( END_PAGE, 0 );
+	}
+
+	/**
+	 * @param firstRow
+	 *            the first top level row written, counted from 0
+	 * @param maxRows
+	 *            the number of top level rows written, 0 for all the rows
+	 *            from the first one
+	 */
+	public void setRowWindow( int firstRow, int maxRows )
+	{
+		setOption( FIRST_ROW, Integer.valueOf( firstRow ) );
+		setOption( MAX_ROWS, Integer.valueOf( maxRows ) );
+	}
+
+	/**
+	 * @return the first top level row written
+	 */
+	public int getFirstRow( )
+	{
+		return getIntOption( FIRST_ROW, 0 );
+	}
+
+	/**
+	 * @return the number of top level rows written, 0 for all
+	 */
+	public int getMaxRows( )
+	{
+		return getIntOption( MAX_ROWS, 0 );
+	}
+}
@@ -11,23 +11,21 @@
 
 package org.eclipse.birt.report.engine.emitter.xml;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.net.URL;
 import java.util.Map;
 // import java.util.Stack;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
+
+import javax.xml.stream.XMLStreamWriter;
 
-import org.apache.xerces.impl.dv.util.Base64;
 import org.eclipse.birt.report.engine.api.IRenderOption;
 import org.eclipse.birt.report.engine.api.RenderOption;
+import org.eclipse.birt.report.engine.api.script.IReportContext;
 import org.eclipse.birt.report.engine.content.ICellContent;
 import org.eclipse.birt.report.engine.content.IContainerContent;
 import org.eclipse.birt.report.engine.content.IDataContent;
@@ -46,11 +44,29 @@ import org.eclipse.birt.report.engine.emitter.ContentEmitterAdapter;
 import org.eclipse.birt.report.engine.emitter.IEmitterServices;
 
 import org.eclipse.birt.report.engine.presentation.ContentEmitterVisitor;
+import org.xml.sax.ContentHandler;
 
 public class XMLReportEmitter extends ContentEmitterAdapter {
 	
 	public final static String APPCONTEXT_XML_RENDER_CONTEXT = "XML_RENDER_CONTEXT"; //$NON-NLS-1$
 
+	/**
+	 * the app context key of an event sink receiving the report instead of
+	 * the output stream, either a <code>javax.xml.stream.XMLStreamWriter</code>
+	 * or an <code>org.xml.sax.ContentHandler</code>
+	 */
+	public final static String APPCONTEXT_XML_EVENT_SINK = "XML_EVENT_SINK"; //$NON-NLS-1$
+
+	/**
+	 * the app context key of an {@link ExportProgressListener}
+	 */
+	public final static String APPCONTEXT_XML_PROGRESS_LISTENER = "XML_PROGRESS_LISTENER"; //$NON-NLS-1$
+
+	/**
+	 * the app context key of a {@link CancellationToken}
+	 */
+	public final static String APPCONTEXT_XML_CANCELLATION = "XML_CANCELLATION"; //$NON-NLS-1$
+
 	/**
 	 * the output format
 	 */
@@ -60,6 +76,23 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 */
 	public static final String REPORT_FILE = "report.xml"; //$NON-NLS-1$
 
+	/**
+	 * the default number of outstanding background image fetches
+	 */
+	public static final int DEFAULT_IMAGE_MAX_PENDING = 16;
+
+	/**
+	 * the default number of characters written behind background image
+	 * fetches before rendering waits for the oldest one
+	 */
+	public static final int DEFAULT_IMAGE_MAX_DEFERRED_CHARS = 1024 * 1024;
+
+	/**
+	 * the default number of characters of a row collected before they are
+	 * written
+	 */
+	public static final int DEFAULT_ROW_BATCH_SIZE = 64 * 1024;
+
 	/**
 	 * output stream
 	 */
@@ -104,11 +137,220 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 */
 	protected ContentEmitterVisitor contentVisitor;
 	
+	/**
+	 * counts the content written for the report, logged at the end
+	 */
+	protected EmitterStatistics statistics = new EmitterStatistics( );
+
+	/**
+	 * the metrics of all the emitters, which the statistics are added to
+	 */
+	protected EmitterMetrics metrics = EmitterMetrics.getInstance( );
+
+	/**
+	 * the Flight Recorder event of the report, <code>null</code> when it is
+	 * not recorded
+	 */
+	private Object reportEvent;
+
+	/**
+	 * counts the bytes written to the output stream
+	 */
+	protected CountingOutputStream countingOut;
+
+	/**
+	 * opens the output files and adds compression to the output
+	 */
+	protected OutputStreamFactory streamFactory;
+
+	/**
+	 * splits the output into numbered files, <code>null</code> when the
+	 * output is not split
+	 */
+	protected RollingOutput rollingOutput;
+
+	/**
+	 * whether the current part is full and the next top level row starts a
+	 * new one
+	 */
+	private boolean rollPending;
+
+	/**
+	 * distributes the rows over several files, <code>null</code> when the
+	 * output is not sharded
+	 */
+	protected ShardedOutput shardedOutput;
+
+	/**
+	 * the name of the data element whose value selects the shard of a row
+	 */
+	private String shardKey;
+
+	/**
+	 * the key of the top level row being captured
+	 */
+	private String rowShardKey;
+
+	/**
+	 * holds the output captured for the shards, or the top level row being
+	 * batched
+	 */
+	private final RowBuffer rowBuffer = new RowBuffer( );
+
+	/**
+	 * the number of characters of a row collected before they are written, 0
+	 * when rows are not batched
+	 */
+	private int rowBatchSize;
+
+	/**
+	 * whether the output is written through a channel writer
+	 */
+	private boolean channelOutput;
+
+	/**
+	 * whether the output is written in the binary encoding
+	 */
+	private boolean binaryOutput;
+
+	/**
+	 * the size of the output buffer, 0 for the default
+	 */
+	private int outputBufferSize;
+
+	/**
+	 * the number of bytes written to the documents closed so far
+	 */
+	private long closedDocumentBytes;
+
+	/**
+	 * whether a document is open on the writer
+	 */
+	private boolean documentOpen;
+
+	/**
+	 * the number of rows started and not ended
+	 */
+	private int rowDepth;
+
+	/**
+	 * the number of rows counted before the current top level row, restored
+	 * when the row is dropped
+	 */
+	private long rowsBeforeRow;
+
+	/**
+	 * the listener of the progress, may be <code>null</code>
+	 */
+	private ExportProgressListener progressListener;
+
+	/**
+	 * the token stopping the report, may be <code>null</code>
+	 */
+	private CancellationToken cancellation;
+
+	/**
+	 * whether the report was cancelled and its document closed
+	 */
+	private boolean cancelled;
+
+	/**
+	 * the first and last pages written, 0 when not limited
+	 */
+	private long startPageNumber, endPageNumber;
+
+	/**
+	 * the first top level row written and the number of rows written, 0 when
+	 * not limited
+	 */
+	private long firstRow, maxRows;
+
+	/**
+	 * the number of the current page, 0 before the first page
+	 */
+	private long pageNumber;
+
+	/**
+	 * the number of top level rows started
+	 */
+	private long topLevelRows;
+
+	/**
+	 * whether the current page is outside the page range
+	 */
+	private boolean pageSkipped;
+
+	/**
+	 * whether the content received is not written, because it is outside the
+	 * page range or in a row outside the row window
+	 */
+	private boolean skipping;
+
+	/**
+	 * whether the output is written by I/O threads
+	 */
+	private boolean asyncOutput;
+
+	/**
+	 * whether an error of the I/O threads was logged
+	 */
+	private boolean asyncErrorLogged;
+
 	/**
 	 * loads the properties from the xml schema file
 	 */	
 	protected LoadExportSchema exportSchema = null;
 
+	/**
+	 * encodes image data into the writer
+	 */
+	protected Base64Encoder imageEncoder = new Base64Encoder( );
+
+	/**
+	 * escapes the values written into the templates
+	 */
+	protected XMLEscaper escaper = new XMLEscaper( );
+
+	/**
+	 * the property values of the element being written, by property index
+	 */
+	private final String[] propertyValues = new String[ExportTemplate.MAX_PROPERTIES];
+
+	/**
+	 * fills the slots of the templates written as events
+	 */
+	private final TemplateSlots templateSlots = new TemplateSlots( );
+
+	/**
+	 * the style and dimension texts computed for the report
+	 */
+	protected PropertyValueCache valueCache = new PropertyValueCache( );
+
+	/**
+	 * whether repeated images are written as references
+	 */
+	protected boolean deduplicateImages = false;
+
+	/**
+	 * the ids of the images written so far, used when images are deduplicated
+	 */
+	protected ImageDictionary imageDictionary;
+
+	/**
+	 * the id filling the <code>??ImageID</code> slot of the current image
+	 */
+	private String currentImageId;
+
+	/**
+	 * loads the images referenced by URI
+	 */
+	protected ImageLoader imageLoader;
+
+	/**
+	 * the number of background image fetches allowed to be outstanding
+	 */
+	protected int maxPendingImages = DEFAULT_IMAGE_MAX_PENDING;
+
 	/**
 	 * the constructor
 	 */
@@ -125,7 +367,90 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	public void initialize( IEmitterServices services )
 	{
 		this.services = services;
-		
+		channelOutput = getBooleanOption( XMLRenderOption.CHANNEL_OUTPUT,
+				false );
+		binaryOutput = getBooleanOption( XMLRenderOption.BINARY_OUTPUT, false );
+		if ( binaryOutput && isShardedOutput( ) )
+		{
+			// the shards are filled with text captured from the rows
+			logger.log( Level.WARNING,
+					"Sharded output is written as text." ); //$NON-NLS-1$
+			binaryOutput = false;
+		}
+		if ( binaryOutput )
+		{
+			// the binary writer encodes and buffers the bytes itself
+			channelOutput = false;
+		}
+		streamFactory = createStreamFactory( );
+		outputBufferSize = getIntOption( XMLRenderOption.OUTPUT_BUFFER_SIZE, 0 );
+		streamFactory.setBuffered( !channelOutput && !binaryOutput );
+		streamFactory.setOutputBufferSize( outputBufferSize );
+		int asyncBuffers = getIntOption( XMLRenderOption.ASYNC_BUFFERS, 0 );
+		streamFactory.setAsyncBuffers( asyncBuffers );
+		asyncOutput = asyncBuffers > 0;
+		asyncErrorLogged = false;
+
+		EventXMLFileWriter eventWriter = createEventWriter( );
+		if ( eventWriter != null )
+		{
+			writer = eventWriter;
+		}
+		else
+		{
+			openOutput( );
+		}
+		deduplicateImages = getBooleanOption(
+				XMLRenderOption.IMAGE_DEDUPLICATION, false );
+		if ( deduplicateImages && shardedOutput != null )
+		{
+			// a reference could land in another shard than its definition
+			logger.log( Level.WARNING,
+					"Images are not deduplicated in sharded output." ); //$NON-NLS-1$
+			deduplicateImages = false;
+		}
+		imageLoader = new ImageLoader( getIntOption(
+				XMLRenderOption.IMAGE_FETCH_THREADS, 0 ), getIntOption(
+				XMLRenderOption.IMAGE_CONNECT_TIMEOUT,
+				ImageLoader.DEFAULT_CONNECT_TIMEOUT ), getIntOption(
+				XMLRenderOption.IMAGE_READ_TIMEOUT,
+				ImageLoader.DEFAULT_READ_TIMEOUT ), getBooleanOption(
+				XMLRenderOption.IMAGE_CACHE, true ) ? ImageCache
+				.getInstance( ) : null );
+		maxPendingImages = getIntOption( XMLRenderOption.IMAGE_MAX_PENDING,
+				DEFAULT_IMAGE_MAX_PENDING );
+		rowBatchSize = getIntOption( XMLRenderOption.ROW_BATCH_SIZE,
+				DEFAULT_ROW_BATCH_SIZE );
+		startPageNumber = Math.max(
+				getIntOption( XMLRenderOption.START_PAGE, 0 ), 0 );
+		endPageNumber = Math.max( getIntOption( XMLRenderOption.END_PAGE, 0 ),
+				0 );
+		if ( ( startPageNumber > 1 || endPageNumber > 0 ) && !isPaginated( ) )
+		{
+			// the whole report is a single page, a start page after 1 would
+			// leave the document empty
+			logger.log( Level.WARNING,
+					"The page range is ignored, the report is not paginated. Use firstRow and maxRows to write part of it." ); //$NON-NLS-1$
+			startPageNumber = 0;
+			endPageNumber = 0;
+		}
+		firstRow = Math.max( getIntOption( XMLRenderOption.FIRST_ROW, 0 ), 0 );
+		maxRows = Math.max( getIntOption( XMLRenderOption.MAX_ROWS, 0 ), 0 );
+		Object listener = getAppContextValue( APPCONTEXT_XML_PROGRESS_LISTENER );
+		progressListener = listener instanceof ExportProgressListener
+				? (ExportProgressListener) listener
+				: null;
+		Object token = getAppContextValue( APPCONTEXT_XML_CANCELLATION );
+		cancellation = token instanceof CancellationToken
+				? (CancellationToken) token
+				: null;
+	}
+
+	/**
+	 * Opens the output file or stream and creates its writer.
+	 */
+	private void openOutput( )
+	{
 		Object fd = services.getOption( RenderOption.OUTPUT_FILE_NAME );
 		File file = null;
 		try
@@ -133,131 +458,732 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 			if ( fd != null )
 			{
 				file = new File( fd.toString( ) );
-				File parent = file.getParentFile( );
-				if ( parent != null && !parent.exists( ) )
-				{
-					parent.mkdirs( );
-				}
-				out = new BufferedOutputStream( new FileOutputStream( file ) );
+				out = openFile( file );
 			}
 		}
-		catch ( FileNotFoundException e )
+		catch ( IOException e )
 		{
 			logger.log( Level.WARNING, e.getMessage( ), e );
 		}
 
-		if ( out == null )
+		if ( out == null && shardedOutput == null )
 		{
 			Object value = services.getOption( RenderOption.OUTPUT_STREAM );
 			if ( value != null && value instanceof OutputStream )
 			{
-				out = (OutputStream) value;
+				try
+				{
+					out = streamFactory.wrap( (OutputStream) value );
+				}
+				catch ( IOException e )
+				{
+					logger.log( Level.SEVERE, e.getMessage( ), e );
+				}
+				if ( isSplitOutput( ) || isShardedOutput( ) )
+				{
+					logger.log( Level.WARNING,
+							"Split and sharded output need an output file, writing a single document." ); //$NON-NLS-1$
+				}
+			}
+			else
+			{
+				try
+				{
+					file = new File( REPORT_FILE );
+					out = openFile( file );
+				}
+				catch ( IOException e )
+				{
+					
+					logger.log( Level.SEVERE, e.getMessage( ), e );
+				}
+			}
+		}
+		if ( out == null && shardedOutput == null )
+		{
+			out = discardedOutput( );
+		}
+
+		createWriter( );
+	}
+
+	/**
+	 * Creates the writer of the event sink found in the app context.
+	 * 
+	 * @return the writer, or <code>null</code> if there is no event sink
+	 */
+	private EventXMLFileWriter createEventWriter( )
+	{
+		Object sink = getAppContextValue( APPCONTEXT_XML_EVENT_SINK );
+		EventXMLFileWriter eventWriter = null;
+		if ( sink instanceof XMLStreamWriter )
+		{
+			eventWriter = new StAXXMLFileWriter( (XMLStreamWriter) sink );
+		}
+		else if ( sink instanceof ContentHandler )
+		{
+			eventWriter = new SAXXMLFileWriter( (ContentHandler) sink );
+		}
+		else if ( sink != null )
+		{
+			logger.log( Level.WARNING, "Unsupported XML event sink: " //$NON-NLS-1$
+					+ sink.getClass( ).getName( ) );
+			return null;
+		}
+		else
+		{
+			return null;
+		}
+		configure( eventWriter );
+		return eventWriter;
+	}
+
+	/**
+	 * @param key
+	 *            the key of the value
+	 * @return the value of the app context, or <code>null</code>
+	 */
+	private Object getAppContextValue( String key )
+	{
+		IReportContext reportContext = services.getReportContext( );
+		Map<?, ?> appContext = reportContext == null ? null : reportContext
+				.getAppContext( );
+		return appContext == null ? null : appContext.get( key );
+	}
+
+	/**
+	 * @return whether the split options are set
+	 */
+	private boolean isSplitOutput( )
+	{
+		return getIntOption( XMLRenderOption.SPLIT_ROWS, 0 ) > 0
+				|| getIntOption( XMLRenderOption.SPLIT_BYTES, 0 ) > 0;
+	}
+
+	/**
+	 * @return whether the shard options are set
+	 */
+	private boolean isShardedOutput( )
+	{
+		return getIntOption( XMLRenderOption.SHARD_COUNT, 0 ) > 1
+				&& services.getOption( XMLRenderOption.SHARD_KEY ) != null;
+	}
+
+	/**
+	 * Opens the output file, or its first part if the output is split. If the
+	 * output is sharded, opens the shard files and returns <code>null</code>.
+	 * 
+	 * @param file
+	 *            the output file
+	 * @return the output stream
+	 * @throws IOException
+	 *             if the file cannot be opened
+	 */
+	private OutputStream openFile( File file ) throws IOException
+	{
+		if ( isShardedOutput( ) )
+		{
+			if ( isSplitOutput( ) )
+			{
+				logger.log( Level.WARNING, "Sharded output is not split." ); //$NON-NLS-1$
+			}
+			shardKey = services.getOption( XMLRenderOption.SHARD_KEY )
+					.toString( );
+			ShardedOutput shards = new ShardedOutput( file, getIntOption(
+					XMLRenderOption.SHARD_COUNT, 0 ) );
+			shards.open( streamFactory, !channelOutput );
+			shardedOutput = shards;
+			return null;
+		}
+		if ( isSplitOutput( ) )
+		{
+			rollingOutput = new RollingOutput( file, getIntOption(
+					XMLRenderOption.SPLIT_ROWS, 0 ), getIntOption(
+					XMLRenderOption.SPLIT_BYTES, 0 ) );
+			file = rollingOutput.startPart( );
+		}
+		return streamFactory.open( file );
+	}
+
+	/**
+	 * Creates the writer of the output stream. If the output is sharded,
+	 * creates the writers of the shards and a writer capturing the output for
+	 * them.
+	 */
+	private void createWriter( )
+	{
+		countingOut = null;
+		if ( shardedOutput != null )
+		{
+			for ( int i = 0; i < shardedOutput.getShardCount( ); i++ )
+			{
+				shardedOutput.setWriter( i, newWriter( ) );
+			}
+			writer = new XMLFileWriter( );
+			return;
+		}
+		if ( !channelOutput && out != null )
+		{
+			countingOut = new CountingOutputStream( out );
+			out = countingOut;
+		}
+		writer = newWriter( );
+	}
+
+	/**
+	 * @return a writer following the binary, channel and flush options, the
+	 *         channel writer counts the bytes itself so that a file keeps its
+	 *         channel
+	 */
+	private XMLFileWriter newWriter( )
+	{
+		XMLFileWriter newWriter;
+		if ( binaryOutput )
+		{
+			newWriter = new BinaryXMLFileWriter( );
+		}
+		else
+		{
+			newWriter = channelOutput ? new ChannelXMLFileWriter(
+					outputBufferSize ) : new XMLFileWriter( );
+		}
+		configure( newWriter );
+		return newWriter;
+	}
+
+	/**
+	 * Sets the flush options and the limit of the text queued behind pending
+	 * images on a writer.
+	 * 
+	 * @param newWriter
+	 *            the writer
+	 */
+	private void configure( XMLFileWriter newWriter )
+	{
+		newWriter.setFlushPolicy( getIntOption( XMLRenderOption.FLUSH_ROWS,
+				0 ), getIntOption( XMLRenderOption.FLUSH_BYTES, 0 ),
+				getIntOption( XMLRenderOption.FLUSH_INTERVAL, 0 ) );
+		newWriter.setMaxDeferredChars( getIntOption(
+				XMLRenderOption.IMAGE_MAX_DEFERRED_CHARS,
+				DEFAULT_IMAGE_MAX_DEFERRED_CHARS ) );
+	}
+
+	/**
+	 * Creates the factory of the output streams from the compression options.
+	 * An invalid compression setting is logged and the output is written
+	 * uncompressed.
+	 * 
+	 * @return the stream factory
+	 */
+	protected OutputStreamFactory createStreamFactory( )
+	{
+		Object compression = services
+				.getOption( XMLRenderOption.OUTPUT_COMPRESSION );
+		int bufferSize = getIntOption(
+				XMLRenderOption.COMPRESSION_BUFFER_SIZE,
+				OutputStreamFactory.DEFAULT_BUFFER_SIZE );
+		try
+		{
+			OutputStreamFactory factory = new OutputStreamFactory(
+					compression == null ? null : compression.toString( ),
+					getIntOption( XMLRenderOption.COMPRESSION_LEVEL,
+							Deflater.DEFAULT_COMPRESSION ), bufferSize );
+			factory.setParallelism( getIntOption(
+					XMLRenderOption.COMPRESSION_THREADS, 1 ), getIntOption(
+					XMLRenderOption.COMPRESSION_BLOCK_SIZE,
+					ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE ),
+					getIntOption( XMLRenderOption.COMPRESSION_MAX_BLOCKS, 0 ) );
+			return factory;
+		}
+		catch ( IllegalArgumentException e )
+		{
+			logger.log( Level.WARNING, e.getMessage( ) );
+			return new OutputStreamFactory(
+					OutputStreamFactory.COMPRESSION_NONE,
+					Deflater.DEFAULT_COMPRESSION, bufferSize );
+		}
+	}
+
+	/**
+	 * 
+	 * @param name
+	 * @param defaultValue
+	 * @return the integer value of the render option
+	 */
+	private int getIntOption( String name, int defaultValue )
+	{
+		Object value = services.getOption( name );
+		if ( value instanceof Number )
+		{
+			return ( (Number) value ).intValue( );
+		}
+		if ( value != null )
+		{
+			try
+			{
+				return Integer.parseInt( value.toString( ).trim( ) );
+			}
+			catch ( NumberFormatException e )
+			{
+				logger.log( Level.WARNING, "Invalid value of option " + name //$NON-NLS-1$
+						+ ": " + value ); //$NON-NLS-1$
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * 
+	 * @param name
+	 * @param defaultValue
+	 * @return the boolean value of the render option
+	 */
+	private boolean getBooleanOption( String name, boolean defaultValue )
+	{
+		Object value = services.getOption( name );
+		if ( value instanceof Boolean )
+		{
+			return ( (Boolean) value ).booleanValue( );
+		}
+		if ( value != null )
+		{
+			return Boolean.valueOf( value.toString( ) ).booleanValue( );
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * @return the <code>Report</code> object.
+	 */
+	public IReportContent getReport( )
+	{
+		return report;
+	}
+
+	public String getOutputFormat( )
+	{
+		return OUTPUT_FORMAT_XML;
+	}
+
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.eclipse.birt.report.engine.emitter.IContentEmitter#start(org.eclipse.birt.report.engine.content.IReportContent)
+	 */
+	public void start( IReportContent report )
+	{
+		logger.log( Level.FINE, "[XMLReportEmitter] Start emitter." ); //$NON-NLS-1$
+		statistics.start( );
+		metrics.exportStarted( );
+		reportEvent = FlightRecorderEvents.begin( FlightRecorderEvents.REPORT );
+		
+		exportSchema = loadExportSchema( report );
+		this.report = report;
+		imageDictionary = deduplicateImages ? new ImageDictionary( ) : null;
+		valueCache.clear( );
+		rowDepth = 0;
+		closedDocumentBytes = 0;
+		cancelled = false;
+		pageNumber = 0;
+		topLevelRows = 0;
+		pageSkipped = false;
+		skipping = false;
+		startDocument( );
+	}
+
+	/**
+	 * Opens the writer and writes the start of the document.
+	 */
+	private void startDocument( )
+	{
+		if ( shardedOutput != null )
+		{
+			shardedOutput.startWriters( );
+			writer.startCapture( rowBuffer );
+		}
+		else
+		{
+			writer.open( out, "UTF-8" ); //$NON-NLS-1$
+		}
+		documentOpen = true;
+
+		writer.startWriter( );
+		
+		writer.closeTag( exportSchema.getExportStartTag());
+		writer.closeTag( XMLTags.TAG_CR );
+		
+		writeTemplate( exportSchema.getReportTemplate( ), report, null );
+		writer.closeTag( XMLTags.TAG_CR );
+	}
+
+	/**
+	 * Returns whether the engine hands the emitter paginated content. The
+	 * emitter is registered with <code>no-pagination</code>, so it sees the
+	 * whole report as one page and the page range options are ignored. An
+	 * emitter registered with pagination returns <code>true</code>.
+	 * 
+	 * @return whether the content comes in pages
+	 */
+	protected boolean isPaginated( )
+	{
+		return false;
+	}
+
+	/**
+	 * Returns the export schema of the report: the <code>.xmlemitter</code>
+	 * file named after the design, looked up in the resource folder and then
+	 * next to the design, or the default schema.
+	 * 
+	 * @param report
+	 *            the report content
+	 * @return the export schema
+	 */
+	protected LoadExportSchema loadExportSchema( IReportContent report )
+	{
+		String fileName = report.getDesign().getReportDesign().getFileName();
+		ExportSchemaCache schemaCache = ExportSchemaCache.getInstance( );
+		LoadExportSchema schema = null;
+
+		int pos = fileName.indexOf("/"); 
+		String fn = fileName.substring(pos+1,fileName.length());
+		fileName = fn;
+		if (fileName.length() > 0) {
+			pos =  fileName.lastIndexOf(".");
+			if ( pos > 0 )
+				fileName = fileName.substring(0, pos);
+			
+				fileName = fileName + ".xmlemitter";
+				pos = fileName.lastIndexOf("/");
+				String propFileName = fileName.substring( pos+1 , fileName.length() );
+				String resourceFolder = report.getDesign().getReportDesign().getResourceFolder();
+				schema = schemaCache.getSchema( resourceFolder + "/" + propFileName );
+				if ( schema == null )
+					schema = schemaCache.getSchema( fileName );
+		}
+		if ( schema == null )
+			schema = schemaCache.getDefaultSchema( ); // no schema file, load the defaults
+		return schema;
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see org.eclipse.birt.report.engine.emitter.IContentEmitter#end(org.eclipse.birt.report.engine.content.IReportContent)
+	 */
+	public void end( IReportContent report )
+	{
+		if ( cancelled )
+		{
+			// the document was closed when the report was cancelled
+			return;
+		}
+		long writeStart = System.nanoTime( );
+		Object stallEvent = FlightRecorderEvents
+				.begin( FlightRecorderEvents.OUTPUT_STALL );
+		endDocument( );
+		statistics.outputNanos += System.nanoTime( ) - writeStart;
+		commitStallEvent( stallEvent );
+		endReport( );
+	}
+
+	/**
+	 * Stops the loads of images, writes the manifest and reports the end of
+	 * the report to the metrics, the recorder and the progress listener.
+	 */
+	private void endReport( )
+	{
+		imageLoader.shutdown( );
+		abortOutput( );
+		if ( rollingOutput != null )
+		{
+			try
+			{
+				rollingOutput.writeManifest( escaper );
+			}
+			catch ( IOException e )
+			{
+				logger.log( Level.WARNING, e.getMessage( ), e );
+			}
+		}
+		statistics.end( );
+		statistics.publish( metrics, getOutputBytes( ), imageEncoder
+				.getByteCount( ) );
+		metrics.exportEnded( statistics.getElapsedTime( ) * 1000000 );
+		if ( reportEvent != null )
+		{
+			FlightRecorderEvents.commit( reportEvent, getDesignFileName( ),
+					exportSchema.getFileName( ), Long.valueOf( statistics
+							.getRows( ) ), Long.valueOf( getOutputBytes( ) ) );
+			reportEvent = null;
+		}
+		if ( logger.isLoggable( Level.FINE ) )
+		{
+			logger.log( Level.FINE, "[XMLReportEmitter] End report: " //$NON-NLS-1$
+					+ statistics.getSummary( getOutputBytes( ),
+							imageEncoder.getByteCount( ) ) );
+		}
+		if ( progressListener != null )
+		{
+			progressListener.finished( statistics.getRows( ),
+					getOutputBytes( ), cancelled );
+		}
+	}
+
+	/**
+	 * Checks the cancellation token, at a row boundary.
+	 * 
+	 * @return whether the report is cancelled
+	 */
+	private boolean isCancelled( )
+	{
+		if ( cancelled )
+		{
+			return true;
+		}
+		if ( cancellation == null || !cancellation.isCancelled( ) )
+		{
+			return false;
+		}
+		cancelExport( );
+		return true;
+	}
+
+	/**
+	 * Ends a cancelled report: drops the current row if none of it was
+	 * written yet, or else closes its open rows, then writes the end of the
+	 * document and closes the output. The content received afterwards is
+	 * ignored.
+	 */
+	private void cancelExport( )
+	{
+		cancelled = true;
+		// the images not loaded yet are dropped
+		imageLoader.shutdown( );
+		if ( rowDepth > 0 && !skipping )
+		{
+			if ( writer.isCapturing( )
+					&& ( shardedOutput != null || !writer
+							.isCaptureSpilled( ) ) )
+			{
+				rowBuffer.clear( );
+				statistics.rows = rowsBeforeRow;
 			}
 			else
 			{
-				try
-				{
-					file = new File( REPORT_FILE );
-					out = new BufferedOutputStream( new FileOutputStream( file ) );
-				}
-				catch ( FileNotFoundException e )
-				{
-					
-					logger.log( Level.SEVERE, e.getMessage( ), e );
-				}
+				for ( int i = 0; i < rowDepth; i++ )
+				{
+					writer.closeTag( exportSchema.getExportEndRowTag( ) );
+					writer.closeTag( XMLTags.TAG_CR );
+				}
+			}
+			rowDepth = 0;
+		}
+		logger.log( Level.FINE, "[XMLReportEmitter] Report cancelled after " //$NON-NLS-1$
+				+ statistics.getRows( ) + " rows." ); //$NON-NLS-1$
+		endDocument( );
+		endReport( );
+	}
+
+	/**
+	 * Writes the end of the document and closes the output.
+	 */
+	private void endDocument( )
+	{
+		writer.closeTag( exportSchema.getExportEndTag());
+		if ( shardedOutput != null )
+		{
+			endShardedDocument( );
+			return;
+		}
+		if ( writer.isCapturing( ) )
+		{
+			// the report ended inside a row
+			writer.endCapture( );
+			rowBuffer.writeTo( writer );
+			rowBuffer.clear( );
+		}
+		if ( cancelled )
+		{
+			writer.dropDeferred( );
+		}
+		else
+		{
+			writer.drainDeferred( 0 );
+		}
+
+		writer.endWriter( );
+		writer.close( );
+		Exception error = writer.getError( );
+		if ( error != null )
+		{
+			logger.log( Level.WARNING, error.getMessage( ), error );
+		}
+		if( out != null )
+		{
+			try
+			{
+				out.close( );
+			}
+			catch ( IOException e )
+			{
+				logger.log( Level.WARNING, e.getMessage( ), e );
+				abortOutput( );
+			}
+		}	
+		long bytes = getPartBytes( );
+		closedDocumentBytes += bytes;
+		documentOpen = false;
+		if ( rollingOutput != null )
+		{
+			rollingOutput.endPart( bytes );
+		}
+	}
+
+	/**
+	 * Writes the end of the document to every shard and closes them.
+	 */
+	private void endShardedDocument( )
+	{
+		shardedOutput.broadcast( writer.endCapture( ) );
+		rowBuffer.clear( );
+		if ( cancelled )
+		{
+			shardedOutput.dropDeferred( );
+		}
+		try
+		{
+			shardedOutput.close( );
+		}
+		catch ( IOException e )
+		{
+			logger.log( Level.WARNING, e.getMessage( ), e );
+		}
+		closedDocumentBytes += shardedOutput.getByteCount( );
+		documentOpen = false;
+	}
+
+	/**
+	 * Closes the current part at a row boundary and starts the next one,
+	 * which begins with the start and report tags of its own.
+	 */
+	protected void rollOver( )
+	{
+		endDocument( );
+		try
+		{
+			out = streamFactory.open( rollingOutput.startPart( ) );
+		}
+		catch ( IOException e )
+		{
+			logger.log( Level.SEVERE, e.getMessage( ), e );
+			out = discardedOutput( );
+		}
+		createWriter( );
+		// every part defines the images it references
+		imageDictionary = deduplicateImages ? new ImageDictionary( ) : null;
+		startDocument( );
+	}
+
+	/**
+	 * @return a stream dropping everything, so that rendering goes on after
+	 *         a failure to open the output was logged
+	 */
+	private static OutputStream discardedOutput( )
+	{
+		return new OutputStream( ) {
+
+			public void write( int b )
+			{
 			}
-		}
 
-		writer = new XMLFileWriter( );
+			public void write( byte[] b, int off, int len )
+			{
+			}
+		};
 	}
 
 	/**
-	 * @return the <code>Report</code> object.
+	 * Releases the threads and compressors of the output streams that were
+	 * not closed, after a failed or cancelled report.
 	 */
-	public IReportContent getReport( )
+	private void abortOutput( )
 	{
-		return report;
+		try
+		{
+			streamFactory.abort( );
+		}
+		catch ( IOException e )
+		{
+			logger.log( Level.WARNING, e.getMessage( ), e );
+		}
 	}
 
-	public String getOutputFormat( )
+	/**
+	 * Logs the first error of the I/O threads, whose later writes are
+	 * dropped.
+	 */
+	private void checkAsyncError( )
 	{
-		return OUTPUT_FORMAT_XML;
+		IOException e = streamFactory.getAsyncError( );
+		if ( e != null )
+		{
+			asyncErrorLogged = true;
+			logger.log( Level.SEVERE, e.getMessage( ), e );
+		}
 	}
 
-	
-	/*
-	 * (non-Javadoc)
+	/**
+	 * Records an output stall event, which Flight Recorder keeps only if the
+	 * write lasted longer than its threshold.
 	 * 
-	 * @see org.eclipse.birt.report.engine.emitter.IContentEmitter#start(org.eclipse.birt.report.engine.content.IReportContent)
+	 * @param event
+	 *            the event, may be <code>null</code>
 	 */
-	public void start( IReportContent report )
+	private void commitStallEvent( Object event )
 	{
-		logger.log( Level.FINE, "[XMLReportEmitter] Start emitter." ); //$NON-NLS-1$
-		
-		String fileName = report.getDesign().getReportDesign().getFileName();
-
-		int pos = fileName.indexOf("/"); 
-		String fn = fileName.substring(pos+1,fileName.length());
-		fileName = fn;
-		if (fileName.length() > 0) {
-			pos =  fileName.lastIndexOf(".");
-			if ( pos > 0 )
-				fileName = fileName.substring(0, pos);
-			
-				fileName = fileName + ".xmlemitter";
-				pos = fileName.lastIndexOf("/");
-				String propFileName = fileName.substring( pos+1 , fileName.length() );
-				String resourceFolder = report.getDesign().getReportDesign().getResourceFolder();
-				if ( fileExists(resourceFolder + "/" + propFileName))
-					exportSchema = new LoadExportSchema( resourceFolder + "/" + propFileName );
-				else if ( fileExists(fileName))
-						exportSchema = new LoadExportSchema( fileName );
-					else exportSchema = new LoadExportSchema( "" ); // no schema file, load the defaults
+		if ( event != null )
+		{
+			FlightRecorderEvents.commit( event, Long.valueOf( statistics
+					.getRows( ) ), Long.valueOf( getOutputBytes( ) ) );
 		}
-		this.report = report;
-		writer.open( out, "UTF-8" ); //$NON-NLS-1$
+	}
 
-		writer.startWriter( );
-		
-		writer.closeTag( exportSchema.getExportStartTag());
-		writer.closeTag( XMLTags.TAG_CR );
-		
-		String rp = exportSchema.getExportReportTag();
-		for (int i = 0;i < XMLTags.rPropList.length;i++)
+	/**
+	 * @return the file name of the report design, or <code>null</code>
+	 */
+	private String getDesignFileName( )
+	{
+		if ( report == null || report.getDesign( ) == null
+				|| report.getDesign( ).getReportDesign( ) == null )
 		{
-			if (exportSchema.isPropertyRequired(XMLTags.rPropList[i], rp))
-			{
-				String propValue = getReportPropValue(i,report);
-				rp = replaceTag( rp, "??"+XMLTags.rPropList[i], propValue );
-			}
+			return null;
 		}
-		writer.writeCode( rp );
-		writer.closeTag( XMLTags.TAG_CR );
+		return report.getDesign( ).getReportDesign( ).getFileName( );
 	}
-	
-	/*
-	 * (non-Javadoc)
-	 * 
-	 * @see org.eclipse.birt.report.engine.emitter.IContentEmitter#end(org.eclipse.birt.report.engine.content.IReportContent)
+
+	/**
+	 * @return the number of bytes written to the output so far
 	 */
-	public void end( IReportContent report )
+	protected long getOutputBytes( )
 	{
-		logger.log( Level.FINE, "[XMLReportEmitter] End report." ); //$NON-NLS-1$
-		writer.closeTag( exportSchema.getExportEndTag());
+		return closedDocumentBytes + ( documentOpen ? getPartBytes( ) : 0 );
+	}
 
-		writer.endWriter( );
-		writer.close( );
-		if( out != null )
+	/**
+	 * @return the number of bytes written to the current output stream
+	 */
+	private long getPartBytes( )
+	{
+		if ( shardedOutput != null )
 		{
-			try
-			{
-				out.close( );
-			}
-			catch ( IOException e )
-			{
-				logger.log( Level.WARNING, e.getMessage( ), e );
-			}
-		}	
+			return shardedOutput.getByteCount( );
+		}
+		if ( writer instanceof ChannelXMLFileWriter )
+		{
+			return ( (ChannelXMLFileWriter) writer ).getByteCount( );
+		}
+		return countingOut == null ? 0 : countingOut.getCount( );
 	}
 
 	/*
@@ -267,7 +1193,14 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 */
 	public void startPage( IPageContent page )
 	{
-
+		long number = page == null ? 0 : page.getPageNumber( );
+		pageNumber = number > 0 ? number : pageNumber + 1;
+		pageSkipped = pageNumber < startPageNumber || endPageNumber > 0
+				&& pageNumber > endPageNumber;
+		if ( rowDepth == 0 )
+		{
+			skipping = pageSkipped;
+		}
 	}
 
 	/*
@@ -287,7 +1220,11 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	public void startTable( ITableContent table )
 	{
 		assert table != null;
-		logger.log( Level.FINE, "[XMLTableEmitter] Start table" ); 		
+		if ( cancelled || skipping )
+		{
+			return;
+		}
+		statistics.tables++;
 	}
 	/*
 	 * (non-Javadoc)
@@ -296,24 +1233,55 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 */
 	public void endTable( ITableContent table )
 	{
-
-		logger.log( Level.FINE, "[XMLReportEmitter] End table" ); //$NON-NLS-1$
-	
 	}
 
 	public void startRow( IRowContent row )
 	{
-		logger.log( Level.FINE, "[XMLReportEmitter] Start row." ); //$NON-NLS-1$
-		String txt = exportSchema.getExportStartRowTag();
-		for (int i = 0;i < XMLTags.rowPropList.length;i++)
+		if ( isCancelled( ) )
+		{
+			return;
+		}
+		if ( rowDepth == 0 )
+		{
+			// a top level row is written or skipped as a whole, so that the
+			// document stays well formed
+			long index = topLevelRows++;
+			skipping = pageSkipped || index < firstRow || maxRows > 0
+					&& index - firstRow >= maxRows;
+		}
+		if ( skipping )
+		{
+			rowDepth++;
+			return;
+		}
+		if ( rowDepth == 0 )
+		{
+			rowsBeforeRow = statistics.rows;
+		}
+		statistics.rows++;
+		if ( rowDepth == 0 )
 		{
-			if (exportSchema.isPropertyRequired(XMLTags.rowPropList[i], txt))
+			if ( rollPending )
+			{
+				rollPending = false;
+				rollOver( );
+			}
+			if ( shardedOutput != null )
+			{
+				// the content before the row goes to every shard
+				shardedOutput.broadcast( rowBuffer );
+				rowBuffer.clear( );
+				rowShardKey = null;
+			}
+			else if ( rowBatchSize > 0
+					&& !( writer instanceof EventXMLFileWriter ) )
 			{
-				String propValue = getRowPropValue(i, row);
-				txt = replaceTag( txt, "??"+XMLTags.rowPropList[i], propValue );
+				// a large row is written in pieces
+				writer.startCapture( rowBuffer, rowBatchSize );
 			}
-		}		
-		writer.writeCode(txt);
+		}
+		rowDepth++;
+		writeTemplate( exportSchema.getStartRowTemplate( ), row, null );
 		writer.closeTag( XMLTags.TAG_CR );
 	}
 
@@ -326,9 +1294,77 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 */
 	public void endRow( IRowContent row )
 	{
-		logger.log( Level.FINE, "[XMLReportEmitter] End row." ); //$NON-NLS-1$
+		if ( isCancelled( ) )
+		{
+			return;
+		}
+		if ( skipping )
+		{
+			if ( --rowDepth == 0 )
+			{
+				skipping = pageSkipped;
+			}
+			return;
+		}
 		writer.closeTag( exportSchema.getExportEndRowTag());
 		writer.closeTag( XMLTags.TAG_CR );	
+		if ( rowDepth == 1 && shardedOutput == null && writer.isCapturing( ) )
+		{
+			writer.endCapture( );
+			long writeStart = System.nanoTime( );
+			Object stallEvent = FlightRecorderEvents
+					.begin( FlightRecorderEvents.OUTPUT_STALL );
+			writeRow( rowBuffer );
+			statistics.outputNanos += System.nanoTime( ) - writeStart;
+			commitStallEvent( stallEvent );
+			rowBuffer.clear( );
+		}
+		if ( writer.getDeferredCount( ) > 0 )
+		{
+			writer.drainDeferred( maxPendingImages );
+		}
+		writer.endRow( );
+		if ( asyncOutput && !asyncErrorLogged )
+		{
+			checkAsyncError( );
+		}
+		if ( --rowDepth == 0 )
+		{
+			if ( shardedOutput != null )
+			{
+				long writeStart = System.nanoTime( );
+				Object stallEvent = FlightRecorderEvents
+						.begin( FlightRecorderEvents.OUTPUT_STALL );
+				shardedOutput.route( rowBuffer, rowShardKey, maxPendingImages );
+				statistics.outputNanos += System.nanoTime( ) - writeStart;
+				commitStallEvent( stallEvent );
+				rowBuffer.clear( );
+			}
+			else if ( rollingOutput != null )
+			{
+				rollingOutput.rowEnded( );
+				rollPending = rollingOutput.isFull( getPartBytes( ) );
+			}
+			if ( statistics.isPublishDue( ) )
+			{
+				statistics.publish( metrics, getOutputBytes( ), imageEncoder
+						.getByteCount( ) );
+				if ( FlightRecorderEvents
+						.isEnabled( FlightRecorderEvents.ROW_PROGRESS ) )
+				{
+					FlightRecorderEvents.emit(
+							FlightRecorderEvents.ROW_PROGRESS,
+							getDesignFileName( ), Long.valueOf( statistics
+									.getRows( ) ), Long
+									.valueOf( getOutputBytes( ) ) );
+				}
+				if ( progressListener != null )
+				{
+					progressListener.progress( statistics.getRows( ),
+							getOutputBytes( ) );
+				}
+			}
+		}
 	}
 
 	/*
@@ -338,9 +1374,11 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 */
 	public void startCell( ICellContent cell )
 	{
-		
-		logger.log( Level.FINE, "[XMLReportEmitter] Start cell." ); //$NON-NLS-1$
-
+		if ( cancelled || skipping )
+		{
+			return;
+		}
+		statistics.cells++;
 	}
 
 	/*
@@ -350,9 +1388,6 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 */
 	public void endCell( ICellContent cell )
 	{
-		logger.log( Level.FINE, "[XMLReportEmitter] End cell." ); //$NON-NLS-1$
-	
-
 	}
 
 	/*
@@ -362,9 +1397,11 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 */
 	public void startContainer( IContainerContent container )
 	{
-		
-		logger.log( Level.FINE, "[XMLReportEmitter] Start container" ); //$NON-NLS-1$
-
+		if ( cancelled || skipping )
+		{
+			return;
+		}
+		statistics.containers++;
 	}
 
 	/*
@@ -374,7 +1411,6 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 */
 	public void endContainer( IContainerContent container )
 	{
-		logger.log( Level.FINE, "[CSVContainerEmitter] End container" ); //$NON-NLS-1$
 	}
 
 	/*
@@ -384,22 +1420,12 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 */
 	public void startText( ITextContent text )
 	{
-
-		logger.log( Level.FINE, "[XMLReportEmitter] Start text" ); //$NON-NLS-1$
-		String txt = exportSchema.getExportTextTag();
-		// label=<label:??name>??value</label>
-		// int len =  XMLTags.lPropList.length;
-		for (int i = 0;i < XMLTags.lPropList.length;i++)
+		if ( cancelled || skipping )
 		{
-			if (exportSchema.isPropertyRequired(XMLTags.lPropList[i], txt))
-			{
-				String propValue = getTextPropValue(i,text);
-				txt = replaceTag( txt, "??"+XMLTags.tPropList[i], propValue );
-			}
-		}		
-		
-		String textValue = text.getText();
-		writer.writeCode( replaceTag( txt, XMLTags.valueTag, textValue ) );
+			return;
+		}
+		statistics.texts++;
+		writeTemplate( exportSchema.getTextTemplate( ), text, text.getText( ) );
 
 		writer.closeTag( XMLTags.TAG_CR );
 
@@ -423,21 +1449,12 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	{   
 //		static String[] lPropList = {"Bookmark","Height","Hyperlink","InlineStyle","Name","TOC","Width","X","Y"};
 		
-		String lbl = exportSchema.getExportLabelTag();
-		// label=<label:??name>??value</label>
-		// int len =  XMLTags.lPropList.length;
-		for (int i = 0;i < XMLTags.lPropList.length;i++)
+		if ( cancelled || skipping )
 		{
-			if (exportSchema.isPropertyRequired(XMLTags.lPropList[i], lbl))
-			{
-				String propValue = getLabelPropValue(i,label);
-				lbl = replaceTag( lbl, "??"+XMLTags.lPropList[i], propValue );
-			}
-		}		
-		
-		//startText( label, lbl );
-		String textValue = label.getText( );
-		writer.writeCode( replaceTag( lbl, XMLTags.valueTag, textValue ) );
+			return;
+		}
+		statistics.labels++;
+		writeTemplate( exportSchema.getLabelTemplate( ), label, label.getText( ) );
 
 		writer.closeTag( XMLTags.TAG_CR );
 	}
@@ -450,20 +1467,18 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	{
 		//static String[] dPropList = {"Bookmark","Height","Hyperlink","InlineStyle","Name","Style","TOC","Width","X","Y"};
 		
-		String dt = exportSchema.getExportDataTag();
-		//label=<label:??name>??value</label>
-		
-		for (int i = 0;i < XMLTags.dPropList.length;i++)
+		if ( cancelled || skipping )
 		{
-			if (exportSchema.isPropertyRequired(XMLTags.dPropList[i], dt))
-			{
-				String propValue = getDataPropValue(i,data);
-				dt = replaceTag( dt, "??"+XMLTags.dPropList[i], propValue );
-			}
-		}		
-//		startText( data, dt );
-		String textValue = data.getText( );
-		writer.writeCode( replaceTag( dt, XMLTags.valueTag, textValue ) );
+			return;
+		}
+		statistics.data++;
+		if ( shardedOutput != null && rowShardKey == null && rowDepth > 0
+				&& shardKey.equals( data.getName( ) ) )
+		{
+			Object value = data.getValue( );
+			rowShardKey = value != null ? value.toString( ) : data.getText( );
+		}
+		writeTemplate( exportSchema.getDataTemplate( ), data, data.getText( ) );
 
 		writer.closeTag( XMLTags.TAG_CR );
 	}
@@ -476,22 +1491,32 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	
 	public void startImage( IImageContent image )
 	{
-		byte[] data = parseImage(image);
-		
-		String pic2Text = Base64.encode(data);
-			//new sun.misc.BASE64Encoder().encode(data);
-		String im = exportSchema.getExportImageTag();
-		
-		for (int i = 0;i < XMLTags.iPropList.length;i++)
+		if ( cancelled || skipping )
+		{
+			return;
+		}
+		statistics.images++;
+		ExportTemplate template = exportSchema.getImageTemplate( );
+		if ( imageDictionary != null )
 		{
-			if (exportSchema.isPropertyRequired(XMLTags.iPropList[i], im))
+			String key = imageDictionary.getKey( image );
+			if ( key != null )
 			{
-				String propValue = getImagePropValue(i,image);
-				im = replaceTag( im, "??"+XMLTags.iPropList[i], propValue );
+				currentImageId = imageDictionary.getId( key );
+				if ( currentImageId != null )
+				{
+					template = exportSchema.getImageRefTemplate( );
+				}
+				else
+				{
+					currentImageId = imageDictionary.register( key );
+					template = exportSchema.getImageDefTemplate( );
+				}
 			}
 		}
-		writer.writeCode( replaceTag( im, XMLTags.valueTag, pic2Text ) );
+		writeTemplate( template, image, null );
 		writer.closeTag( XMLTags.TAG_CR );
+		currentImageId = null;
 	}
 
 	/**
@@ -499,102 +1524,188 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	 * 
 	 * @param uri
 	 *            uri in style image
-	 * @return
+	 * @return the id of the image if it was already written, otherwise
+	 *         <code>null</code>
 	 */
 	public String handleStyleImage( String uri )
 	{
 		String id = null;
+		if ( imageDictionary != null && uri != null )
+		{
+			id = imageDictionary.getId( imageDictionary.uriKey( uri ) );
+		}
 		return id;
 	}
 	
 	
 	/**
+	 * Streams the Base64 encoded image data into the writer.
 	 * 
-	 * @param fileName
-	 * @return
+	 * @param image
+	 *            the image content
 	 */
-	private boolean fileExists( String fileName )
+	private void writeImage( IImageContent image )
 	{
-		File file = new File( fileName );
-		return file.exists();
+		byte[] data = image.getData( );
+		if ( data != null )
+		{
+			imageEncoder.encode( data, writer );
+			return;
+		}
+		String url = image.getURI( );
+		if ( url == null )
+		{
+			return;
+		}
+		if ( imageLoader.isAsynchronous( ) )
+		{
+			writer.writeDeferred( new PendingImage( url, imageLoader
+					.fetch( url ), imageEncoder ) );
+			writer.drainDeferred( maxPendingImages );
+			return;
+		}
+		InputStream in = null;
+		// the image is encoded while it is read, so the load time includes
+		// the encoding
+		long fetchStart = System.nanoTime( );
+		Object fetchEvent = FlightRecorderEvents
+				.begin( FlightRecorderEvents.IMAGE_FETCH );
+		long encodedBytes = imageEncoder.getByteCount( );
+		try
+		{
+			in = imageLoader.openStream( url );
+			imageEncoder.encode( in, writer );
+		}
+		catch ( ImageUnavailableException e )
+		{
+			logger.log( Level.FINE, e.getMessage( ) );
+		}
+		catch ( IOException e )
+		{
+			logger.log( Level.WARNING, e.getMessage( ) );
+			logger.log( Level.FINE, e.getMessage( ), e );
+		}
+		finally
+		{
+			if ( in != null )
+			{
+				try
+				{
+					in.close( );
+				}
+				catch ( IOException e )
+				{
+					logger.log( Level.WARNING, e.getMessage( ), e );
+				}
+			}
+			metrics.imageFetched( System.nanoTime( ) - fetchStart );
+			if ( fetchEvent != null )
+			{
+				FlightRecorderEvents.commit( fetchEvent, url, Long
+						.valueOf( imageEncoder.getByteCount( ) - encodedBytes ) );
+			}
+		}
 	}
-	
+
 	/**
+	 * Writes an element by walking the compiled template: the literals are
+	 * written as they are and each slot is filled with the property value of
+	 * the content or with the element value, escaped for the slot's context.
 	 * 
-	 * @param is
-	 * @return
-	 * @throws Exception
+	 * @param template
+	 *            the compiled schema tag
+	 * @param content
+	 *            the content whose properties fill the slots
+	 * @param value
+	 *            the text written for the <code>??value</code> slot, images
+	 *            stream their data instead
 	 */
-	private byte[] getImage(InputStream is) throws Exception {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-
-		int cnt;
-		byte[] buf = new byte[4096];
-
-		while ((cnt = is.read(buf)) >= 0) {
-			baos.write(buf, 0, cnt);
+	private void writeTemplate( ExportTemplate template, Object content,
+			String value )
+	{
+		int elementType = template.getElementType( );
+		int propertyCount = template.getPropertyCount( );
+		for ( int i = 0; i < propertyCount; i++ )
+		{
+			int property = template.getProperty( i );
+			propertyValues[property] = getPropValue( elementType, property,
+					content );
 		}
-        is.close();
-        baos.close();
-		return baos.toByteArray();
-	}
-/**
- * 
- * @param image
- * @return image data
- */
-	private byte[] parseImage(IImageContent image) {
-		byte[] data = null;
-
-		if (image.getData() != null) {
-			data = image.getData();
-		} else {
-			String url = image.getURI();
-
-			if (url == null) {
-				return null;
+		if ( writer instanceof EventXMLFileWriter )
+		{
+			templateSlots.template = template;
+			templateSlots.content = content;
+			templateSlots.value = value;
+			( (EventXMLFileWriter) writer ).writeTemplate( template,
+					templateSlots );
+			templateSlots.content = null;
+			return;
+		}
+		int count = template.getSlotCount( );
+		for ( int i = 0; i < count; i++ )
+		{
+			writer.writeCode( template.getLiteral( i ) );
+			int slot = template.getSlot( i );
+			if ( slot == ExportTemplate.VALUE_SLOT )
+			{
+				if ( elementType == XMLTags.ELEMENT_IMAGE )
+				{
+					writeImage( (IImageContent) content );
+				}
+				else
+				{
+					escaper.write( value, template.getContext( i ), writer );
+				}
 			}
-			try {
-				URL ourl = new URL(url);
-
-				return getImage(ourl.openStream());
-			} catch (Exception e) {
-				logger.log(Level.WARNING, e.getMessage(), e);
+			else
+			{
+				escaper.write( propertyValues[slot], template.getContext( i ),
+						writer );
 			}
 		}
-		return data;
+		writer.writeCode( template.getLiteral( count ) );
 	}
+
 	/**
+	 * Writes a top level row collected in the row buffer, with one write per
+	 * run of text. Subclasses may override it to filter, transform or
+	 * checksum whole rows; a row larger than the batch size reaches it only
+	 * with its last piece.
 	 * 
-	 * @param exportTag
-	 * @param oldPattern
-	 * @param newPattern
-	 * @return the replaced string
+	 * @param row
+	 *            the collected row
 	 */
-	private String replaceTag( String exportTag, String oldPattern, String newPattern)
+	protected void writeRow( RowBuffer row )
 	{
-		if ( oldPattern.equals("") ) {
-	        throw new IllegalArgumentException("Old pattern must have content.");
-	     }
-
-	     final StringBuffer result = new StringBuffer();
-	     //startIdx and idxOld delimit various chunks of exportTag; these
-	     //chunks always end where oldPattern begins
-	     int startIdx = 0;
-	     int idxOld = 0;
-	     while ((idxOld = (exportTag.toLowerCase()).indexOf(oldPattern.toLowerCase(), startIdx)) >= 0) {
-	       //grab a part of exportTag which does not include oldPattern
-	       result.append( exportTag.substring(startIdx, idxOld) );
-	       //add newPattern to take place of oldPattern
-	       result.append( newPattern );
+		row.writeTo( writer );
+	}
 
-	       //reset the startIdx to just after the current match, to see
-	       //if there are any further matches
-	       startIdx = idxOld + oldPattern.length();
-	     }
-	     //the final chunk will go to the end of exportTag
-	     result.append( exportTag.substring(startIdx) );
-	     return result.toString();
+	/**
+	 * 
+	 * @param elementType
+	 * @param property
+	 * @param content
+	 * @return String - property value
+	 */
+	private String getPropValue( int elementType, int property, Object content )
+	{
+		switch ( elementType )
+		{
+			case XMLTags.ELEMENT_REPORT :
+				return getReportPropValue( property, (IReportContent) content );
+			case XMLTags.ELEMENT_ROW :
+				return getRowPropValue( property, (IRowContent) content );
+			case XMLTags.ELEMENT_TEXT :
+				return getTextPropValue( property, (ITextContent) content );
+			case XMLTags.ELEMENT_LABEL :
+				return getLabelPropValue( property, (ILabelContent) content );
+			case XMLTags.ELEMENT_DATA :
+				return getDataPropValue( property, (IDataContent) content );
+			case XMLTags.ELEMENT_IMAGE :
+				return getImagePropValue( property, (IImageContent) content );
+			default :
+				return "";
+		}
 	}
 	/**
 	 * 
@@ -606,7 +1717,7 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	{
 		String propValue;
 		//static String[] iPropList = {"Bookmark","Height","Hyperlink","ImageMap",
-		//"InlineStyle","MIMEType","Name","Style","TOC","URI","Width","X","Y"};
+		//"InlineStyle","MIMEType","Name","Style","TOC","URI","Width","X","Y","ImageID"};
 		
 		switch (property) { 
 	    case 0: // "Bookmark":
@@ -614,7 +1725,7 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    	break;
 	    case 1: // "Height":
 	    	if ( image.getHeight() != null )
-	    		propValue = image.getHeight().toString();
+	    		propValue = valueCache.getDimension( image.getHeight() );
 	    	else 
 	    		propValue = "";
 	    	break;
@@ -630,7 +1741,7 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    		propValue = "";
 	    	break;	    	
 	    case 4: //"InlineStyle":
-	    	propValue = image.getInlineStyle().getCssText();
+	    	propValue = valueCache.getInlineStyleText( image );
 	    	break;
 	    case 5: //"MIMEType":
 	    	propValue = image.getMIMEType();
@@ -639,7 +1750,7 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    	propValue = image.getName();
 	    	break;
 	    case 7: //"Style":
-	    	propValue = image.getStyle().getCssText();
+	    	propValue = valueCache.getStyleText( image );
 	    	break;    	
 	    case 8: //"TOC":
 	    	if ( image.getTOC() != null )
@@ -654,20 +1765,23 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    	
 	    case 10: //"Width":
 	    	if ( image.getWidth() != null )
-	    		propValue = image.getWidth().toString();
+	    		propValue = valueCache.getDimension( image.getWidth() );
 	    	else propValue = "";
 	    	break;
 	    case 11: //"X":
 	    	if ( image.getX() != null )
-	    		propValue = image.getX().toString();
+	    		propValue = valueCache.getDimension( image.getX() );
 	    	else 
 	    		propValue = "";
 	    	break;
 	    case 12: //"Y": 
 	    	if ( image.getY() != null )
-	    		propValue = image.getY().toString();
+	    		propValue = valueCache.getDimension( image.getY() );
 	    	else 
 	    		propValue = "";	    	break;	    
+	    case 13: //"ImageID":
+	    	propValue = currentImageId;
+	    	break;
 	    default: propValue = ""; 
     		break;
 	}
@@ -693,7 +1807,7 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    	break;
 	    case 1: // "Height":
 	    	if ( data.getHeight() != null )
-	    		propValue = data.getHeight().toString();
+	    		propValue = valueCache.getDimension( data.getHeight() );
 	    	else 
 	    		propValue = "";
 	    	break;
@@ -703,13 +1817,13 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    		else propValue = "";
 	    	break;
 	    case 3: //"InlineStyle":
-	    	propValue = data.getInlineStyle().getCssText();
+	    	propValue = valueCache.getInlineStyleText( data );
 	    	break;
 	    case 4: //"Name":
 	    	propValue = data.getName();
 	    	break;
 	    case 5: //"Style":
-	    	propValue = data.getStyle().getCssText();
+	    	propValue = valueCache.getStyleText( data );
 	    	break;    	
 	    case 6: //"TOC":
 	    	if ( data.getTOC() != null )
@@ -718,18 +1832,18 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    	break;
 	    case 7: //"Width":
 	    	if ( data.getWidth() != null )
-	    		propValue = data.getWidth().toString();
+	    		propValue = valueCache.getDimension( data.getWidth() );
 	    	else propValue = "";
 	    	break;
 	    case 8: //"X":
 	    	if ( data.getX() != null )
-	    		propValue = data.getX().toString();
+	    		propValue = valueCache.getDimension( data.getX() );
 	    	else 
 	    		propValue = "";
 	    	break;
 	    case 9: //"Y": 
 	    	if ( data.getY() != null )
-	    		propValue = data.getY().toString();
+	    		propValue = valueCache.getDimension( data.getY() );
 	    	else 
 	    		propValue = "";
 	    	break;
@@ -740,22 +1854,10 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    	propValue = data.getLabelKey();
 	    	break;
 	    case 12: //"DataKey":
-	    	try {
-	    	  String prop = "DataKey";
-	    	  Map<String, Object> userProp = data.getUserProperties();
-	    	  propValue = userProp.get(prop).toString();
-	    	} catch (Exception e) {
-	    	  propValue = "";
-	    	}
+	    	propValue = getUserPropValue( data, "DataKey" );
 	    	break;
 	    case 13: //"DataDesc":
-	    	try {
-	    	  String prop = "DataDesc";
-	    	  Map<String, Object> userProp = data.getUserProperties();
-	    	  propValue = userProp.get(prop).toString();
-	    	} catch (Exception e) {
-	    	  propValue = "";
-	    	}
+	    	propValue = getUserPropValue( data, "DataDesc" );
 	    	break;
 	    default: propValue = ""; 
     		break;
@@ -765,6 +1867,23 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 
 		return propValue;
 	}
+	/**
+	 * 
+	 * @param data
+	 * @param name
+	 * @return the user property value, or "" if it is not set
+	 */
+	private String getUserPropValue( IDataContent data, String name )
+	{
+		Map<String, Object> userProp = data.getUserProperties( );
+		if ( userProp == null )
+		{
+			return "";
+		}
+		Object value = userProp.get( name );
+		return value == null ? "" : value.toString( );
+	}
+
 	/**
 	 * 
 	 * @param property
@@ -783,7 +1902,7 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    	break;
 	    case 1: // "Height":
 	    	if ( text.getHeight() != null )
-	    		propValue = text.getHeight().toString();
+	    		propValue = valueCache.getDimension( text.getHeight() );
 	    	else 
 	    		propValue = "";
 	    	break;
@@ -793,13 +1912,13 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    		else propValue = "";
 	    	break;
 	    case 3: //"InlineStyle":
-	    	propValue = text.getInlineStyle().getCssText();
+	    	propValue = valueCache.getInlineStyleText( text );
 	    	break;
 	    case 4: //"Name":
 	    	propValue = text.getName();
 	    	break;
 	    case 5: //"Style":
-	    	propValue = text.getStyle().getCssText();
+	    	propValue = valueCache.getStyleText( text );
 	    	break; 
 	    case 6: //"TOC":
 	    	if ( text.getTOC() != null )
@@ -808,18 +1927,18 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    	break;
 	    case 7: //"Width":
 	    	if ( text.getWidth() != null )
-	    		propValue = text.getWidth().toString();
+	    		propValue = valueCache.getDimension( text.getWidth() );
 	    	else propValue = "";
 	    	break;
 	    case 8: //"X":
 	    	if ( text.getX() != null )
-	    		propValue = text.getX().toString();
+	    		propValue = valueCache.getDimension( text.getX() );
 	    	else 
 	    		propValue = "";
 	    	break;
 	    case 9: //"Y": 
 	    	if ( text.getY() != null )
-	    		propValue = text.getY().toString();
+	    		propValue = valueCache.getDimension( text.getY() );
 	    	else 
 	    		propValue = "";	    	break;	    
 	    default: propValue = ""; 
@@ -846,7 +1965,7 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    	break;
 	    case 1: // "Height":
 	    	if ( label.getHeight() != null )
-	    		propValue = label.getHeight().toString();
+	    		propValue = valueCache.getDimension( label.getHeight() );
 	    	else 
 	    		propValue = "";
 	    	break;
@@ -856,7 +1975,7 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    		else propValue = "";
 	    	break;
 	    case 3: //"InlineStyle":
-	    	propValue = label.getInlineStyle().getCssText();
+	    	propValue = valueCache.getInlineStyleText( label );
 	    	break;
 	    case 4: //"Name":
 	    	propValue = label.getName();
@@ -868,18 +1987,18 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 	    	break;
 	    case 6: //"Width":
 	    	if ( label.getWidth() != null )
-	    		propValue = label.getWidth().toString();
+	    		propValue = valueCache.getDimension( label.getWidth() );
 	    	else propValue = "";
 	    	break;
 	    case 7: //"X":
 	    	if ( label.getX() != null )
-	    		propValue = label.getX().toString();
+	    		propValue = valueCache.getDimension( label.getX() );
 	    	else 
 	    		propValue = "";
 	    	break;
 	    case 8: //"Y": 
 	    	if ( label.getY() != null )
-	    		propValue = label.getY().toString();
+	    		propValue = valueCache.getDimension( label.getY() );
 	    	else 
 	    		propValue = "";
 	    	break;
@@ -951,7 +2070,7 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 
 		switch (property) { 
 	      case 0: // "rowID":
-	    	propValue = new Integer(row.getRowID()).toString();
+	    	propValue = Integer.toString( row.getRowID() );
 	    	break;
 	      default: propValue = ""; 
     		break;
@@ -960,4 +2079,40 @@ public class XMLReportEmitter extends ContentEmitterAdapter {
 			propValue = "";
 		return propValue;
 	}
+
+	/**
+	 * Fills the slots of a template written as events. The values are passed
+	 * unescaped, the event writer escapes or encodes them.
+	 */
+	private class TemplateSlots implements EventXMLFileWriter.SlotWriter
+	{
+
+		ExportTemplate template;
+
+		Object content;
+
+		String value;
+
+		public String getSlotText( int index )
+		{
+			int slot = template.getSlot( index );
+			return slot == ExportTemplate.VALUE_SLOT ? value
+					: propertyValues[slot];
+		}
+
+		public void writeSlot( int index, XMLFileWriter writer )
+		{
+			if ( template.getSlot( index ) == ExportTemplate.VALUE_SLOT
+					&& template.getElementType( ) == XMLTags.ELEMENT_IMAGE )
+			{
+				writeImage( (IImageContent) content );
+				return;
+			}
+			String text = getSlotText( index );
+			if ( text != null )
+			{
+				writer.writeCode( text );
+			}
+		}
+	}
 }
@@ -15,6 +15,7 @@ public class XMLTags {
 	public static final String TAG_CR = "\n" ;
 
 	static String valueTag = "??value";
+	static String valueName = "value";
 	
 	//static String label = "??label";
 	//static String text = "??text";
@@ -24,16 +25,25 @@ public class XMLTags {
 	static String labelControl = "label";
 	static String textControl = "text";
 	static String imageControl = "image";
+	static String imageDefControl = "imagedef";
+	static String imageRefControl = "imageref";
 	static String dataControl = "data";
 	static String reportControl = "report";
 	static String startControl = "start";
 	static String endControl = "end";
 
-	static String[] iPropList = {"Bookmark","Height","Hyperlink","ImageMap","InlineStyle","MIMEType","Name","Style","TOC","URI","Width","X","Y"};
+	static String[] iPropList = {"Bookmark","Height","Hyperlink","ImageMap","InlineStyle","MIMEType","Name","Style","TOC","URI","Width","X","Y","ImageID"};
 	static String[] dPropList = {"Bookmark","Height","Hyperlink","InlineStyle","Name","Style","TOC","Width","X","Y","LabelText","LabelKey","DataKey","DataDesc"};
 	static String[] lPropList = {"Bookmark","Height","Hyperlink","InlineStyle","Name","TOC","Width","X","Y","LabelText","LabelKey"};
 
 	static String[] tPropList = {"Bookmark","Height","Hyperlink","InlineStyle","Name","Style","TOC","Width","X","Y"};
 	static String[] rPropList = {"TotalPages", "TOCTree", "Name"};
 	static String[] rowPropList = {"rowID"};
+
+	static final int ELEMENT_REPORT = 0;
+	static final int ELEMENT_ROW = 1;
+	static final int ELEMENT_TEXT = 2;
+	static final int ELEMENT_LABEL = 3;
+	static final int ELEMENT_DATA = 4;
+	static final int ELEMENT_IMAGE = 5;
 }
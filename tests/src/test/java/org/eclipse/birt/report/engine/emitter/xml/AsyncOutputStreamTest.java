@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class AsyncOutputStreamTest
+{
+
+	private static int writerThreads( )
+	{
+		int count = 0;
+		for ( Thread thread : Thread.getAllStackTraces( ).keySet( ) )
+		{
+			if ( thread.isAlive( )
+					&& thread.getName( ).startsWith( "XMLEmitter-Writer-" ) ) //$NON-NLS-1$
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static void awaitNoWriterThreads( boolean collect )
+			throws InterruptedException
+	{
+		for ( int i = 0; i < 200 && writerThreads( ) > 0; i++ )
+		{
+			if ( collect )
+			{
+				System.gc( );
+			}
+			Thread.sleep( 50 );
+		}
+		assertEquals( 0, writerThreads( ) );
+	}
+
+	@Test
+	public void testWrite( ) throws Exception
+	{
+		ByteArrayOutputStream target = new ByteArrayOutputStream( );
+		AsyncOutputStream out = new AsyncOutputStream( target, 16, 2 );
+		byte[] data = new byte[1000];
+		for ( int i = 0; i < data.length; i++ )
+		{
+			data[i] = (byte) i;
+		}
+		out.write( data, 0, 500 );
+		out.flush( );
+		for ( int i = 500; i < data.length; i++ )
+		{
+			out.write( data[i] );
+		}
+		out.close( );
+		assertArrayEquals( data, target.toByteArray( ) );
+	}
+
+	@Test
+	public void testAbortBlockedTarget( ) throws Exception
+	{
+		final CountDownLatch release = new CountDownLatch( 1 );
+		final boolean[] closed = new boolean[1];
+		OutputStream blocked = new OutputStream( ) {
+
+			public void write( int b ) throws IOException
+			{
+				try
+				{
+					release.await( );
+				}
+				catch ( InterruptedException e )
+				{
+					throw new IOException( e.getMessage( ) );
+				}
+			}
+
+			public void close( )
+			{
+				closed[0] = true;
+			}
+		};
+		AsyncOutputStream out = new AsyncOutputStream( blocked, 16, 2 );
+		out.write( new byte[20] );
+		// returns while the target blocks
+		out.abort( );
+		release.countDown( );
+		awaitNoWriterThreads( false );
+		assertTrue( closed[0] );
+	}
+
+	@Test
+	public void testUnclosedStream( ) throws Exception
+	{
+		for ( int i = 0; i < 3; i++ )
+		{
+			AsyncOutputStream out = new AsyncOutputStream(
+					new ByteArrayOutputStream( ), 16, 2 );
+			out.write( new byte[40] );
+		}
+		// the threads stop once their streams are collected
+		awaitNoWriterThreads( true );
+	}
+
+	/**
+	 * The factory does not keep the streams it closed, nor their targets, but
+	 * keeps their first error.
+	 */
+	@Test
+	public void testClosedStreamsAreReleased( ) throws Exception
+	{
+		OutputStreamFactory factory = new OutputStreamFactory(
+				OutputStreamFactory.COMPRESSION_NONE, -1, 0 );
+		factory.setAsyncBuffers( 2 );
+		ByteArrayOutputStream target = new ByteArrayOutputStream( );
+		OutputStream out = factory.wrap( target );
+		out.write( new byte[100000] );
+		out.close( );
+		assertEquals( 100000, target.size( ) );
+		WeakReference<ByteArrayOutputStream> reference = new WeakReference<ByteArrayOutputStream>(
+				target );
+		target = null;
+		out = null;
+		assertTrue( ReportStubs.awaitCollected( reference ) );
+
+		out = factory.wrap( new OutputStream( ) {
+
+			public void write( int b ) throws IOException
+			{
+				throw new IOException( "disk full" ); //$NON-NLS-1$
+			}
+		} );
+		out.write( new byte[100] );
+		try
+		{
+			out.close( );
+		}
+		catch ( IOException e )
+		{
+		}
+		assertNotNull( factory.getAsyncError( ) );
+		factory.abort( );
+	}
+
+	@Test
+	public void testCancelledReport( ) throws Exception
+	{
+		ByteArrayOutputStream target = new ByteArrayOutputStream( );
+		CancellationToken token = new CancellationToken( );
+		XMLReportEmitter emitter = ReportStubs.emitter( null, ReportStubs.map(
+				"outputStream", target, XMLRenderOption.ASYNC_BUFFERS, //$NON-NLS-1$
+				Integer.valueOf( 2 ) ), ReportStubs.map(
+				XMLReportEmitter.APPCONTEXT_XML_CANCELLATION, token ) );
+		emitter.start( ReportStubs.report( ) );
+		ReportStubs.writeRows( emitter, 0, 100, 2 );
+		token.cancel( );
+		ReportStubs.writeRows( emitter, 100, 200, 2 );
+		awaitNoWriterThreads( false );
+		ReportStubs.parse( new java.io.ByteArrayInputStream( target
+				.toByteArray( ) ) );
+	}
+}
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompressedOutputTest
+{
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder( );
+
+	private static byte[] readAll( InputStream in ) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream( );
+		byte[] buffer = new byte[8192];
+		int count;
+		while ( ( count = in.read( buffer ) ) > 0 )
+		{
+			out.write( buffer, 0, count );
+		}
+		in.close( );
+		return out.toByteArray( );
+	}
+
+	private static byte[] sample( int length )
+	{
+		byte[] data = new byte[length];
+		Random random = new Random( 42 );
+		for ( int i = 0; i < length; i++ )
+		{
+			// compressible, but not trivially
+			data[i] = (byte) ( 'a' + random.nextInt( 8 ) );
+		}
+		return data;
+	}
+
+	@Test
+	public void testParallelGZIPStream( ) throws Exception
+	{
+		byte[] data = sample( 3 * 1024 * 1024 + 17 );
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream( );
+		ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(
+				compressed, 6, 4, 128 * 1024, 8 );
+		// uneven writes across the block boundaries
+		int offset = 0;
+		int size = 1;
+		while ( offset < data.length )
+		{
+			int count = Math.min( size, data.length - offset );
+			out.write( data, offset, count );
+			offset += count;
+			size = size * 3 % 100003 + 1;
+		}
+		out.write( 'x' );
+		out.close( );
+
+		byte[] expected = new byte[data.length + 1];
+		System.arraycopy( data, 0, expected, 0, data.length );
+		expected[data.length] = 'x';
+		assertArrayEquals( expected, readAll( new GZIPInputStream(
+				new ByteArrayInputStream( compressed.toByteArray( ) ) ) ) );
+	}
+
+	@Test
+	public void testEmptyParallelGZIPStream( ) throws Exception
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream( );
+		new ParallelGZIPOutputStream( compressed, 6, 4, 128 * 1024, 8 )
+				.close( );
+		assertEquals( 0, readAll( new GZIPInputStream(
+				new ByteArrayInputStream( compressed.toByteArray( ) ) ) ).length );
+	}
+
+	/**
+	 * The factory does not keep the parallel streams it closed, nor their
+	 * targets.
+	 */
+	@Test
+	public void testClosedStreamsAreReleased( ) throws Exception
+	{
+		OutputStreamFactory factory = new OutputStreamFactory(
+				OutputStreamFactory.COMPRESSION_GZIP, 6, 0 );
+		factory.setParallelism( 4, 16 * 1024, 8 );
+		byte[] data = sample( 100 * 1024 );
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream( );
+		OutputStream out = factory.wrap( compressed );
+		out.write( data );
+		out.close( );
+		assertArrayEquals( data, readAll( new GZIPInputStream(
+				new ByteArrayInputStream( compressed.toByteArray( ) ) ) ) );
+
+		WeakReference<ByteArrayOutputStream> target = new WeakReference<ByteArrayOutputStream>(
+				compressed );
+		compressed = null;
+		out = null;
+		assertTrue( ReportStubs.awaitCollected( target ) );
+		factory.abort( );
+	}
+
+	private byte[] export( Object... options ) throws Exception
+	{
+		File file = folder.newFile( );
+		java.util.Map<String, Object> map = ReportStubs.map( options );
+		map.put( "outputFile", file.getPath( ) ); //$NON-NLS-1$
+		XMLReportEmitter emitter = ReportStubs.emitter( null, map, ReportStubs
+				.map( ) );
+		emitter.start( ReportStubs.report( ) );
+		ReportStubs.writeRows( emitter, 0, 20000, 5 );
+		emitter.end( ReportStubs.report( ) );
+		return readAll( new FileInputStream( file ) );
+	}
+
+	@Test
+	public void testCompressedReports( ) throws Exception
+	{
+		byte[] plain = export( );
+		assertArrayEquals( plain, readAll( new GZIPInputStream(
+				new ByteArrayInputStream( export(
+						XMLRenderOption.OUTPUT_COMPRESSION, "gzip", //$NON-NLS-1$
+						XMLRenderOption.COMPRESSION_THREADS, Integer
+								.valueOf( 1 ) ) ) ) ) );
+		assertArrayEquals( plain, readAll( new GZIPInputStream(
+				new ByteArrayInputStream( export(
+						XMLRenderOption.OUTPUT_COMPRESSION, "gzip", //$NON-NLS-1$
+						XMLRenderOption.COMPRESSION_THREADS, Integer
+								.valueOf( 4 ),
+						XMLRenderOption.COMPRESSION_BLOCK_SIZE, Integer
+								.valueOf( 64 * 1024 ) ) ) ) ) );
+		assertArrayEquals( plain, readAll( new GZIPInputStream(
+				new ByteArrayInputStream( export(
+						XMLRenderOption.OUTPUT_COMPRESSION, "gzip", //$NON-NLS-1$
+						XMLRenderOption.ASYNC_BUFFERS, Integer.valueOf( 2 ) ) ) ) ) );
+		assertArrayEquals( plain, readAll( new InflaterInputStream(
+				new ByteArrayInputStream( export(
+						XMLRenderOption.OUTPUT_COMPRESSION, "deflate" ) ), //$NON-NLS-1$
+				new Inflater( true ) ) ) );
+	}
+
+	@Test
+	public void testFailingGZIPHeader( ) throws Exception
+	{
+		OutputStream broken = new OutputStream( ) {
+
+			public void write( int b ) throws IOException
+			{
+				throw new IOException( "disk full" ); //$NON-NLS-1$
+			}
+		};
+		// logged by the emitter instead of escaping from initialize
+		XMLReportEmitter emitter = ReportStubs.emitter( null, ReportStubs
+				.map( "outputStream", broken, //$NON-NLS-1$
+						XMLRenderOption.OUTPUT_COMPRESSION, "gzip", //$NON-NLS-1$
+						XMLRenderOption.COMPRESSION_BUFFER_SIZE, Integer
+								.valueOf( 1 ) ), ReportStubs.map( ) );
+		emitter.start( ReportStubs.report( ) );
+		ReportStubs.writeRows( emitter, 0, 10, 2 );
+		emitter.end( ReportStubs.report( ) );
+	}
+
+	private static int compressorThreads( )
+	{
+		int count = 0;
+		for ( Thread thread : Thread.getAllStackTraces( ).keySet( ) )
+		{
+			if ( thread.isAlive( )
+					&& thread.getName( ).startsWith( "XMLEmitter-Compressor-" ) ) //$NON-NLS-1$
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testAbortStopsThreads( ) throws Exception
+	{
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream( );
+		ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(
+				compressed, 6, 4, 16 * 1024, 8 );
+		out.write( sample( 100 * 1024 ) );
+		out.abort( );
+		for ( int i = 0; i < 100 && compressorThreads( ) > 0; i++ )
+		{
+			Thread.sleep( 20 );
+		}
+		assertEquals( 0, compressorThreads( ) );
+		try
+		{
+			out.write( 'x' );
+			fail( );
+		}
+		catch ( IOException e )
+		{
+		}
+		// closing after an abort does nothing
+		out.close( );
+	}
+}
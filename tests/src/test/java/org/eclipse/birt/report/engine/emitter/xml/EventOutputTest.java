@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * Checks that the event sinks and the binary encoding carry the same document
+ * as the text output.
+ */
+public class EventOutputTest
+{
+
+	private static final String VALUE = "a<b>&\"c\" ]]> é 😀"; //$NON-NLS-1$
+
+	/**
+	 * the value with characters not allowed in XML, which every output drops
+	 */
+	private static final String ILLEGAL_VALUE = "\u0001a<b>&\"c\"\u001f ]]> é \ud800😀\ufffe"; //$NON-NLS-1$
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder( );
+
+	/**
+	 * the export schema of the reports, <code>null</code> for the default one
+	 */
+	private LoadExportSchema schema;
+
+	private void writeReport( XMLReportEmitter emitter )
+	{
+		emitter.start( ReportStubs.report( ) );
+		emitter.startLabel( ReportStubs.label( "title" ) ); //$NON-NLS-1$
+		ReportStubs.writeRows( emitter, 0, 50, 3 );
+		emitter.startRow( ReportStubs.row( ) );
+		emitter.startData( ReportStubs.data( "special", ILLEGAL_VALUE ) ); //$NON-NLS-1$
+		emitter.startData( ReportStubs.data( "na\u0002me", "x" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+		emitter.startImage( ReportStubs.image( new byte[]{1, 2, 3, 4, 5} ) );
+		emitter.endRow( null );
+		emitter.end( ReportStubs.report( ) );
+	}
+
+	private String exportText( ) throws Exception
+	{
+		File file = folder.newFile( );
+		writeReport( ReportStubs.emitter( schema, ReportStubs.map(
+				"outputFile", file.getPath( ) ), ReportStubs.map( ) ) ); //$NON-NLS-1$
+		return serialize( ReportStubs.parse( file ) );
+	}
+
+	/**
+	 * The event sinks carry text, not how it was written: compares CDATA
+	 * sections as text and leaves out comments and processing instructions,
+	 * which the sinks drop.
+	 */
+	private static String serialize( Document document ) throws Exception
+	{
+		removeComments( document );
+		document.getDomConfig( ).setParameter( "cdata-sections", //$NON-NLS-1$
+				Boolean.FALSE );
+		document.normalizeDocument( );
+		StringWriter text = new StringWriter( );
+		TransformerFactory.newInstance( ).newTransformer( ).transform(
+				new DOMSource( document ), new StreamResult( text ) );
+		return text.toString( );
+	}
+
+	private static void removeComments( Node node )
+	{
+		Node child = node.getFirstChild( );
+		while ( child != null )
+		{
+			Node next = child.getNextSibling( );
+			if ( child.getNodeType( ) == Node.COMMENT_NODE
+					|| child.getNodeType( ) == Node.PROCESSING_INSTRUCTION_NODE )
+			{
+				node.removeChild( child );
+			}
+			else
+			{
+				removeComments( child );
+			}
+			child = next;
+		}
+	}
+
+	private static TransformerHandler domHandler( DOMResult result )
+			throws Exception
+	{
+		TransformerHandler handler = ( (SAXTransformerFactory) TransformerFactory
+				.newInstance( ) ).newTransformerHandler( );
+		handler.setResult( result );
+		return handler;
+	}
+
+	@Test
+	public void testSAXSink( ) throws Exception
+	{
+		DOMResult result = new DOMResult( );
+		writeReport( ReportStubs.emitter( schema, ReportStubs.map( ),
+				ReportStubs.map( XMLReportEmitter.APPCONTEXT_XML_EVENT_SINK,
+						domHandler( result ) ) ) );
+		Document document = (Document) result.getNode( );
+		assertEquals( exportText( ), serialize( document ) );
+	}
+
+	@Test
+	public void testStAXSink( ) throws Exception
+	{
+		StringWriter text = new StringWriter( );
+		XMLStreamWriter streamWriter = XMLOutputFactory.newInstance( )
+				.createXMLStreamWriter( text );
+		streamWriter.writeStartDocument( "UTF-8", "1.0" ); //$NON-NLS-1$ //$NON-NLS-2$
+		writeReport( ReportStubs.emitter( schema, ReportStubs.map( ),
+				ReportStubs.map( XMLReportEmitter.APPCONTEXT_XML_EVENT_SINK,
+						streamWriter ) ) );
+		streamWriter.writeEndDocument( );
+		streamWriter.close( );
+		Document document = ReportStubs.parse( new java.io.ByteArrayInputStream( text.toString( )
+						.getBytes( "UTF-8" ) ) ); //$NON-NLS-1$
+		assertEquals( exportText( ), serialize( document ) );
+	}
+
+	@Test
+	public void testBinaryRoundTrip( ) throws Exception
+	{
+		String[] compressions = {"none", "gzip"}; //$NON-NLS-1$ //$NON-NLS-2$
+		for ( int i = 0; i < compressions.length; i++ )
+		{
+			File file = folder.newFile( );
+			Map<String, Object> options = ReportStubs.map( "outputFile", file //$NON-NLS-1$
+					.getPath( ), XMLRenderOption.BINARY_OUTPUT, Boolean.TRUE,
+					XMLRenderOption.OUTPUT_COMPRESSION, compressions[i] );
+			writeReport( ReportStubs.emitter( schema, options, ReportStubs
+					.map( ) ) );
+			InputStream in = new FileInputStream( file );
+			if ( i == 1 )
+			{
+				in = new GZIPInputStream( in );
+			}
+			DOMResult result = new DOMResult( );
+			try
+			{
+				new BinaryXMLDecoder( in ).parse( domHandler( result ) );
+			}
+			finally
+			{
+				in.close( );
+			}
+			Document document = (Document) result.getNode( );
+			assertEquals( compressions[i], exportText( ), serialize( document ) );
+			assertEquals( VALUE, document.getElementsByTagName( "data" ) //$NON-NLS-1$
+					.item( 150 ).getTextContent( ) );
+		}
+	}
+
+	/**
+	 * Placeholders in comments and processing instructions are dropped from
+	 * the events, and the later placeholders keep their properties.
+	 */
+	@Test
+	public void testCustomSchema( ) throws Exception
+	{
+		File schemaFile = folder.newFile( "report.xmlemitter" ); //$NON-NLS-1$
+		Writer schemaWriter = new OutputStreamWriter( new FileOutputStream(
+				schemaFile ), "UTF-8" ); //$NON-NLS-1$
+		schemaWriter.write( "report=<export>\n" //$NON-NLS-1$
+				+ "data=<data><!-- ??Bookmark --><?name ??Name?><n>??Name</n><v>??value</v></data>\n" //$NON-NLS-1$
+				+ "label=<caption>??value</caption>\n" //$NON-NLS-1$
+				+ "end=</export>\n" ); //$NON-NLS-1$
+		schemaWriter.close( );
+		schema = new LoadExportSchema( schemaFile.getPath( ) );
+
+		String text = exportText( );
+		testSAXSink( );
+		testStAXSink( );
+
+		File file = folder.newFile( );
+		writeReport( ReportStubs.emitter( schema, ReportStubs.map(
+				"outputFile", file.getPath( ), //$NON-NLS-1$
+				XMLRenderOption.BINARY_OUTPUT, Boolean.TRUE ), ReportStubs
+				.map( ) ) );
+		DOMResult result = new DOMResult( );
+		InputStream in = new FileInputStream( file );
+		try
+		{
+			new BinaryXMLDecoder( in ).parse( domHandler( result ) );
+		}
+		finally
+		{
+			in.close( );
+		}
+		Document document = (Document) result.getNode( );
+		assertEquals( text, serialize( document ) );
+		assertEquals( "special", document.getElementsByTagName( "n" ) //$NON-NLS-1$ //$NON-NLS-2$
+				.item( 150 ).getTextContent( ) );
+		assertEquals( VALUE, document.getElementsByTagName( "v" ) //$NON-NLS-1$
+				.item( 150 ).getTextContent( ) );
+	}
+
+	@Test
+	public void testBinaryDecoderMain( ) throws Exception
+	{
+		File file = folder.newFile( );
+		writeReport( ReportStubs.emitter( schema, ReportStubs.map( "outputFile", //$NON-NLS-1$
+				file.getPath( ), XMLRenderOption.BINARY_OUTPUT, Boolean.TRUE ),
+				ReportStubs.map( ) ) );
+		File text = folder.newFile( );
+		BinaryXMLDecoder.main( new String[]{file.getPath( ), text.getPath( )} );
+		assertEquals( exportText( ), serialize( ReportStubs.parse( text ) ) );
+	}
+
+	@Test
+	public void testBinaryIsSmaller( ) throws Exception
+	{
+		ByteArrayOutputStream text = new ByteArrayOutputStream( );
+		ByteArrayOutputStream binary = new ByteArrayOutputStream( );
+		writeReport( ReportStubs.emitter( schema, ReportStubs.map(
+				"outputStream", text ), ReportStubs.map( ) ) ); //$NON-NLS-1$
+		writeReport( ReportStubs.emitter( schema, ReportStubs.map(
+				"outputStream", binary, XMLRenderOption.BINARY_OUTPUT, //$NON-NLS-1$
+				Boolean.TRUE ), ReportStubs.map( ) ) );
+		assertTrue( binary.size( ) < text.size( ) );
+	}
+}
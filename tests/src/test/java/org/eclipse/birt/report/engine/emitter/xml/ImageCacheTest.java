@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class ImageCacheTest
+{
+
+	@Test
+	public void testLeastRecentlyUsed( ) throws Exception
+	{
+		ImageCache cache = new ImageCache( 400, 60000, 60000 );
+		cache.put( "a", new byte[100] ); //$NON-NLS-1$
+		cache.put( "b", new byte[100] ); //$NON-NLS-1$
+		cache.put( "c", new byte[100] ); //$NON-NLS-1$
+		cache.get( "a" ); //$NON-NLS-1$
+		cache.put( "d", new byte[100] ); //$NON-NLS-1$
+		cache.put( "e", new byte[100] ); //$NON-NLS-1$
+		assertNull( cache.get( "b" ) ); //$NON-NLS-1$
+		assertArrayEquals( new byte[100], cache.get( "a" ) ); //$NON-NLS-1$
+		assertEquals( 4, cache.size( ) );
+	}
+
+	@Test
+	public void testFailures( ) throws Exception
+	{
+		ImageCache cache = new ImageCache( 1024 * 1024, 60000, 60000 );
+		cache.put( "image", new byte[10] ); //$NON-NLS-1$
+		for ( int i = 0; i < ImageCache.MAX_FAILURES * 3; i++ )
+		{
+			cache.putFailure( "broken" + i, "not found" ); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		// failures are bounded by count, without evicting images
+		assertEquals( ImageCache.MAX_FAILURES + 1, cache.size( ) );
+		assertArrayEquals( new byte[10], cache.get( "image" ) ); //$NON-NLS-1$
+		assertNull( cache.get( "broken0" ) ); //$NON-NLS-1$
+		try
+		{
+			cache.get( "broken" + ( ImageCache.MAX_FAILURES * 3 - 1 ) ); //$NON-NLS-1$
+			fail( );
+		}
+		catch ( ImageUnavailableException e )
+		{
+		}
+	}
+
+	@Test
+	public void testFailuresCountTowardsSize( ) throws Exception
+	{
+		ImageCache cache = new ImageCache( 4096, 60000, 60000 );
+		for ( int i = 0; i < 200; i++ )
+		{
+			cache.putFailure( "broken" + i, "not found" ); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		assertTrue( cache.size( ) < 200 );
+	}
+
+	@Test
+	public void testExpiredEntriesAreEvicted( ) throws Exception
+	{
+		ImageCache cache = new ImageCache( 1024 * 1024, 20, 20 );
+		for ( int i = 0; i < 100; i++ )
+		{
+			cache.put( "image" + i, new byte[10] ); //$NON-NLS-1$
+			cache.putFailure( "broken" + i, null ); //$NON-NLS-1$
+		}
+		Thread.sleep( 50 );
+		// never looked up again, removed by the next change
+		cache.put( "image", new byte[10] ); //$NON-NLS-1$
+		assertEquals( 1, cache.size( ) );
+	}
+}
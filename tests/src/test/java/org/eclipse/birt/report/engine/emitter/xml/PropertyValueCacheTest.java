@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.birt.report.engine.content.IDataContent;
+import org.eclipse.birt.report.engine.content.IStyle;
+import org.junit.Test;
+
+public class PropertyValueCacheTest
+{
+
+	private static IDataContent data( String styleClass, IStyle style )
+	{
+		return ReportStubs.stub( IDataContent.class,
+				"getStyleClass", styleClass, "getStyle", style ); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testStylesOfTheSameClass( )
+	{
+		PropertyValueCache cache = new PropertyValueCache( );
+		// the same class, styled differently by their containers
+		IStyle red = ReportStubs.style( "color: red" ); //$NON-NLS-1$
+		IStyle blue = ReportStubs.style( "color: blue" ); //$NON-NLS-1$
+		assertEquals( "color: red", cache.getStyleText( data( "cell", red ) ) ); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals( "color: blue", cache.getStyleText( data( "cell", blue ) ) ); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals( "color: red", cache.getStyleText( data( "cell", red ) ) ); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testEmptyStyle( )
+	{
+		PropertyValueCache cache = new PropertyValueCache( );
+		assertEquals( "", cache.getStyleText( data( null, null ) ) ); //$NON-NLS-1$
+		assertEquals( "", cache.getStyleText( data( null, ReportStubs //$NON-NLS-1$
+				.style( null ) ) ) );
+	}
+}
@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.eclipse.birt.report.engine.api.script.IReportContext;
+import org.eclipse.birt.report.engine.content.ICellContent;
+import org.eclipse.birt.report.engine.content.IDataContent;
+import org.eclipse.birt.report.engine.content.IImageContent;
+import org.eclipse.birt.report.engine.content.ILabelContent;
+import org.eclipse.birt.report.engine.content.IPageContent;
+import org.eclipse.birt.report.engine.content.IReportContent;
+import org.eclipse.birt.report.engine.content.IRowContent;
+import org.eclipse.birt.report.engine.content.IStyle;
+import org.eclipse.birt.report.engine.content.ITextContent;
+import org.eclipse.birt.report.engine.emitter.IEmitterServices;
+import org.w3c.dom.Document;
+
+/**
+ * Synthetic report content for driving the emitter without an engine. The
+ * contents are proxies of the content interfaces whose getters return the
+ * values they are given, and the defaults of their types otherwise.
+ */
+public class ReportStubs
+{
+
+	private static final IStyle EMPTY_STYLE = style( "" ); //$NON-NLS-1$
+
+	/**
+	 * Creates a content.
+	 * 
+	 * @param type
+	 *            the content interface
+	 * @param values
+	 *            the names of getters followed by their values
+	 * @return the content
+	 */
+	public static <T> T stub( Class<T> type, Object... values )
+	{
+		final Map<String, Object> getters = new HashMap<String, Object>( );
+		for ( int i = 0; i < values.length; i += 2 )
+		{
+			getters.put( (String) values[i], values[i + 1] );
+		}
+		return type.cast( Proxy.newProxyInstance( ReportStubs.class
+				.getClassLoader( ), new Class<?>[]{type},
+				new InvocationHandler( ) {
+
+					public Object invoke( Object proxy, Method method,
+							Object[] args )
+					{
+						String name = method.getName( );
+						if ( getters.containsKey( name ) )
+						{
+							return getters.get( name );
+						}
+						if ( name.equals( "equals" ) ) //$NON-NLS-1$
+						{
+							return Boolean.valueOf( proxy == args[0] );
+						}
+						if ( name.equals( "hashCode" ) ) //$NON-NLS-1$
+						{
+							return Integer.valueOf( System
+									.identityHashCode( proxy ) );
+						}
+						return defaultValue( method.getReturnType( ) );
+					}
+				} ) );
+	}
+
+	private static Object defaultValue( Class<?> type )
+	{
+		if ( type == IStyle.class )
+		{
+			return EMPTY_STYLE;
+		}
+		if ( type == boolean.class )
+		{
+			return Boolean.FALSE;
+		}
+		if ( type == int.class )
+		{
+			return Integer.valueOf( 0 );
+		}
+		if ( type == long.class )
+		{
+			return Long.valueOf( 0 );
+		}
+		if ( type == float.class )
+		{
+			return Float.valueOf( 0 );
+		}
+		if ( type == double.class )
+		{
+			return Double.valueOf( 0 );
+		}
+		if ( type == Map.class )
+		{
+			return new HashMap<Object, Object>( );
+		}
+		return null;
+	}
+
+	public static IStyle style( String cssText )
+	{
+		return stub( IStyle.class, "getCssText", cssText ); //$NON-NLS-1$
+	}
+
+	public static IReportContent report( )
+	{
+		return stub( IReportContent.class );
+	}
+
+	public static IPageContent page( long number )
+	{
+		return stub( IPageContent.class, "getPageNumber", Long //$NON-NLS-1$
+				.valueOf( number ) );
+	}
+
+	public static IRowContent row( )
+	{
+		return stub( IRowContent.class );
+	}
+
+	public static ICellContent cell( )
+	{
+		return stub( ICellContent.class );
+	}
+
+	public static IDataContent data( String name, Object value )
+	{
+		return stub( IDataContent.class, "getName", name, "getValue", value, //$NON-NLS-1$ //$NON-NLS-2$
+				"getText", value == null ? null : value.toString( ) ); //$NON-NLS-1$
+	}
+
+	public static ILabelContent label( String text )
+	{
+		return stub( ILabelContent.class, "getText", text ); //$NON-NLS-1$
+	}
+
+	public static ITextContent text( String text )
+	{
+		return stub( ITextContent.class, "getText", text ); //$NON-NLS-1$
+	}
+
+	public static IImageContent image( byte[] data )
+	{
+		return stub( IImageContent.class, "getData", data ); //$NON-NLS-1$
+	}
+
+	public static IImageContent image( String uri )
+	{
+		return stub( IImageContent.class, "getURI", uri ); //$NON-NLS-1$
+	}
+
+	/**
+	 * Creates and initializes an emitter.
+	 * 
+	 * @param schema
+	 *            the export schema, <code>null</code> for the default one
+	 * @param options
+	 *            the render options
+	 * @param appContext
+	 *            the app context
+	 * @return the emitter
+	 */
+	public static XMLReportEmitter emitter( LoadExportSchema schema,
+			Map<String, Object> options, Map<String, Object> appContext )
+	{
+		return emitter( schema, options, appContext, false );
+	}
+
+	/**
+	 * Creates and initializes an emitter.
+	 * 
+	 * @param schema
+	 *            the export schema, <code>null</code> for the default one
+	 * @param options
+	 *            the render options
+	 * @param appContext
+	 *            the app context
+	 * @param paginated
+	 *            whether the emitter receives paginated content
+	 * @return the emitter
+	 */
+	public static XMLReportEmitter emitter( final LoadExportSchema schema,
+			Map<String, Object> options, Map<String, Object> appContext,
+			final boolean paginated )
+	{
+		XMLReportEmitter emitter = new XMLReportEmitter( ) {
+
+			protected LoadExportSchema loadExportSchema( IReportContent report )
+			{
+				return schema != null ? schema : ExportSchemaCache
+						.getInstance( ).getDefaultSchema( );
+			}
+
+			protected boolean isPaginated( )
+			{
+				return paginated;
+			}
+		};
+		IReportContext context = stub( IReportContext.class,
+				"getAppContext", appContext ); //$NON-NLS-1$
+		emitter.initialize( services( options, context ) );
+		return emitter;
+	}
+
+	private static IEmitterServices services( final Map<String, Object> options,
+			final IReportContext context )
+	{
+		return (IEmitterServices) Proxy.newProxyInstance( ReportStubs.class
+				.getClassLoader( ), new Class<?>[]{IEmitterServices.class},
+				new InvocationHandler( ) {
+
+					public Object invoke( Object proxy, Method method,
+							Object[] args )
+					{
+						if ( method.getName( ).equals( "getOption" ) ) //$NON-NLS-1$
+						{
+							return options.get( args[0] );
+						}
+						if ( method.getName( ).equals( "getReportContext" ) ) //$NON-NLS-1$
+						{
+							return context;
+						}
+						return null;
+					}
+				} );
+	}
+
+	/**
+	 * @param values
+	 *            keys followed by their values
+	 * @return a map of the values
+	 */
+	public static Map<String, Object> map( Object... values )
+	{
+		Map<String, Object> map = new HashMap<String, Object>( );
+		for ( int i = 0; i < values.length; i += 2 )
+		{
+			map.put( (String) values[i], values[i + 1] );
+		}
+		return map;
+	}
+
+	/**
+	 * Writes top level rows of data elements, named <code>c0</code>,
+	 * <code>c1</code>... with the values <code>v&lt;row&gt;_&lt;column&gt;</code>.
+	 */
+	public static void writeRows( XMLReportEmitter emitter, int from, int to,
+			int columns )
+	{
+		for ( int i = from; i < to; i++ )
+		{
+			emitter.startRow( row( ) );
+			for ( int j = 0; j < columns; j++ )
+			{
+				ICellContent cell = cell( );
+				emitter.startCell( cell );
+				emitter.startData( data( "c" + j, "v" + i + "_" + j ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				emitter.endCell( cell );
+			}
+			emitter.endRow( null );
+		}
+	}
+
+	/**
+	 * Parses a file, failing if it is not well formed.
+	 */
+	public static Document parse( File file ) throws Exception
+	{
+		return DocumentBuilderFactory.newInstance( ).newDocumentBuilder( )
+				.parse( file );
+	}
+
+	/**
+	 * Parses a stream, failing if it is not well formed.
+	 */
+	public static Document parse( InputStream in ) throws Exception
+	{
+		return DocumentBuilderFactory.newInstance( ).newDocumentBuilder( )
+				.parse( in );
+	}
+
+	/**
+	 * Collects garbage until the referent is collected or a few seconds have
+	 * passed.
+	 * 
+	 * @return whether the referent was collected
+	 */
+	public static boolean awaitCollected( Reference<?> reference )
+			throws InterruptedException
+	{
+		for ( int i = 0; i < 100 && reference.get( ) != null; i++ )
+		{
+			System.gc( );
+			Thread.sleep( 50 );
+		}
+		return reference.get( ) == null;
+	}
+
+	public static String read( File file ) throws IOException
+	{
+		return new String( Files.readAllBytes( file.toPath( ) ), "UTF-8" ); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+public class XMLEscaperTest
+{
+
+	private String escape( String value, int context ) throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream( );
+		XMLFileWriter writer = new XMLFileWriter( );
+		writer.open( out, "UTF-8" ); //$NON-NLS-1$
+		new XMLEscaper( ).write( value, context, writer );
+		writer.close( );
+		return out.toString( "UTF-8" ); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testText( ) throws Exception
+	{
+		assertEquals( "a&lt;b&amp;c&gt;d \"e\" 'f'\n", escape( //$NON-NLS-1$
+				"a<b&c>d \"e\" 'f'\n", ExportTemplate.CONTEXT_TEXT ) ); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testAttribute( ) throws Exception
+	{
+		assertEquals( "a&lt;b&amp;&quot;c&quot;&apos;&#9;&#10;&#13;", //$NON-NLS-1$
+				escape( "a<b&\"c\"'\t\n\r", ExportTemplate.CONTEXT_ATTRIBUTE ) ); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testCdata( ) throws Exception
+	{
+		assertEquals( "a<b&c>d", escape( "a<b&c>d", //$NON-NLS-1$ //$NON-NLS-2$
+				ExportTemplate.CONTEXT_CDATA ) );
+		assertEquals( "x]]]]><![CDATA[>y", escape( "x]]>y", //$NON-NLS-1$ //$NON-NLS-2$
+				ExportTemplate.CONTEXT_CDATA ) );
+		assertEquals( "]]]]><![CDATA[>]]]]><![CDATA[>", escape( "]]>]]>", //$NON-NLS-1$ //$NON-NLS-2$
+				ExportTemplate.CONTEXT_CDATA ) );
+	}
+
+	@Test
+	public void testIllegalCharacters( ) throws Exception
+	{
+		String value = "a\u0000b\u0001c\u001Fd￾e￿f"; //$NON-NLS-1$
+		for ( int context = ExportTemplate.CONTEXT_TEXT; context <= ExportTemplate.CONTEXT_CDATA; context++ )
+		{
+			assertEquals( "abcdef", escape( value, context ) ); //$NON-NLS-1$
+		}
+	}
+
+	@Test
+	public void testSurrogates( ) throws Exception
+	{
+		String pair = "😀"; //$NON-NLS-1$
+		assertEquals( "x" + pair + "y", escape( "x" + pair + "y", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+				ExportTemplate.CONTEXT_TEXT ) );
+		// unpaired halves are not allowed in XML
+		assertEquals( "xyz", escape( "x\uD83Dy\uDE00z", //$NON-NLS-1$ //$NON-NLS-2$
+				ExportTemplate.CONTEXT_TEXT ) );
+	}
+
+	@Test
+	public void testLongValue( ) throws Exception
+	{
+		StringBuilder value = new StringBuilder( );
+		StringBuilder expected = new StringBuilder( );
+		for ( int i = 0; i < 10000; i++ )
+		{
+			value.append( "é<" ); //$NON-NLS-1$
+			expected.append( "é&lt;" ); //$NON-NLS-1$
+		}
+		assertEquals( expected.toString( ), escape( value.toString( ),
+				ExportTemplate.CONTEXT_TEXT ) );
+	}
+
+	@Test
+	public void testNull( ) throws Exception
+	{
+		assertEquals( "", escape( null, ExportTemplate.CONTEXT_TEXT ) ); //$NON-NLS-1$
+	}
+}
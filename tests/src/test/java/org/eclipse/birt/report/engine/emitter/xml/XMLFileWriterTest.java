@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+public class XMLFileWriterTest
+{
+
+	@Test
+	public void testCaptureLimit( ) throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream( );
+		XMLFileWriter writer = new XMLFileWriter( );
+		writer.open( out );
+		RowBuffer buffer = new RowBuffer( );
+		writer.startCapture( buffer, 100 );
+		StringBuilder expected = new StringBuilder( );
+		char[] piece = new char[76];
+		for ( int i = 0; i < 1000; i++ )
+		{
+			java.util.Arrays.fill( piece, (char) ( 'a' + i % 26 ) );
+			writer.writeCode( piece, 0, piece.length );
+			expected.append( piece );
+			// the buffer never holds more than the limit and one piece
+			assertTrue( buffer.length( ) <= 100 + piece.length );
+		}
+		assertTrue( writer.isCaptureSpilled( ) );
+		writer.endCapture( ).writeTo( writer );
+		writer.close( );
+		assertEquals( expected.toString( ), out.toString( "UTF-8" ) ); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testUnlimitedCapture( ) throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream( );
+		XMLFileWriter writer = new XMLFileWriter( );
+		writer.open( out );
+		RowBuffer buffer = new RowBuffer( );
+		writer.startCapture( buffer );
+		for ( int i = 0; i < 1000; i++ )
+		{
+			writer.writeCode( "0123456789" ); //$NON-NLS-1$
+		}
+		assertFalse( writer.isCaptureSpilled( ) );
+		assertEquals( 10000, buffer.length( ) );
+		writer.close( );
+		assertEquals( 0, out.size( ) );
+	}
+
+	@Test
+	public void testDeferredTextLimit( ) throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream( );
+		XMLFileWriter writer = new XMLFileWriter( );
+		writer.open( out );
+		writer.setMaxDeferredChars( 20 );
+		final boolean[] written = new boolean[1];
+		writer.writeDeferred( new XMLFileWriter.DeferredContent( ) {
+
+			public boolean isReady( )
+			{
+				return false;
+			}
+
+			public void write( XMLFileWriter target )
+			{
+				// a slow image, read when the text behind it is too long
+				written[0] = true;
+				target.writeCode( "image" ); //$NON-NLS-1$
+			}
+		} );
+		writer.writeCode( "0123456789" ); //$NON-NLS-1$
+		writer.drainDeferred( 16 );
+		assertFalse( written[0] );
+		assertEquals( 1, writer.getDeferredCount( ) );
+
+		writer.writeCode( "0123456789a".toCharArray( ), 0, 11 ); //$NON-NLS-1$
+		writer.drainDeferred( 16 );
+		assertTrue( written[0] );
+		assertEquals( 0, writer.getDeferredCount( ) );
+		writer.close( );
+		assertEquals( "image01234567890123456789a", out.toString( "UTF-8" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testDrainedContentIsNotCaptured( ) throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream( );
+		XMLFileWriter writer = new XMLFileWriter( );
+		writer.open( out );
+		final boolean[] ready = new boolean[1];
+		writer.writeCode( "<a>" ); //$NON-NLS-1$
+		writer.writeDeferred( new XMLFileWriter.DeferredContent( ) {
+
+			public boolean isReady( )
+			{
+				return ready[0];
+			}
+
+			public void write( XMLFileWriter target )
+			{
+				target.writeCode( "image" ); //$NON-NLS-1$
+			}
+		} );
+		writer.writeCode( "</a>" ); //$NON-NLS-1$
+		RowBuffer buffer = new RowBuffer( );
+		writer.startCapture( buffer );
+		writer.writeCode( "<b/>" ); //$NON-NLS-1$
+		ready[0] = true;
+		writer.drainDeferred( 0 );
+		assertEquals( 4, buffer.length( ) );
+		writer.endCapture( ).writeTo( writer );
+		writer.close( );
+		assertEquals( "<a>image</a><b/>", out.toString( "UTF-8" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+}
@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.birt.report.engine.content.IDataContent;
+import org.eclipse.birt.report.engine.content.IImageContent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Throughput of the emitter for typical report shapes, written to a stream
+ * that only counts the bytes. Run with <code>mvn -Pbenchmark verify</code>;
+ * the GC profiler reports the allocation per operation next to the time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class XMLReportEmitterBenchmark
+{
+
+	private static final int ROWS = 2000;
+
+	/**
+	 * The writer configuration, see {@link XMLRenderOption}.
+	 */
+	@Param({"default", "channel", "batch", "binary", "gzip"})
+	public String output;
+
+	private LoadExportSchema customSchema;
+
+	private File schemaFile;
+
+	private IDataContent[] narrowRow;
+
+	private IDataContent[] wideRow;
+
+	private IDataContent[] longTextRow;
+
+	private IImageContent[] images;
+
+	/**
+	 * Discards the output, keeping its length.
+	 */
+	private static class NullOutputStream extends OutputStream
+	{
+
+		long count;
+
+		public void write( int b )
+		{
+			count++;
+		}
+
+		public void write( byte[] b, int off, int len )
+		{
+			count += len;
+		}
+	}
+
+	@Setup
+	public void setUp( ) throws IOException
+	{
+		narrowRow = row( 3, 8 );
+		wideRow = row( 60, 12 );
+		longTextRow = row( 4, 4000 );
+		images = new IImageContent[8];
+		for ( int i = 0; i < images.length; i++ )
+		{
+			byte[] data = new byte[512 + i * 100];
+			for ( int j = 0; j < data.length; j++ )
+			{
+				data[j] = (byte) ( j * 31 + i );
+			}
+			images[i] = ReportStubs.image( data );
+		}
+
+		schemaFile = File.createTempFile( "benchmark", ".xmlemitter" ); //$NON-NLS-1$ //$NON-NLS-2$
+		Writer writer = new OutputStreamWriter( new FileOutputStream(
+				schemaFile ), "UTF-8" ); //$NON-NLS-1$
+		writer.write( "report=<export>\n" //$NON-NLS-1$
+				+ "data=<field name=\"??Name\" key=\"??DataKey\" desc=\"??DataDesc\" bookmark=\"??Bookmark\" style=\"??Style\" width=\"??Width\" height=\"??Height\" x=\"??X\" y=\"??Y\">??value</field>\n" //$NON-NLS-1$
+				+ "end=</export>\n" ); //$NON-NLS-1$
+		writer.close( );
+		customSchema = new LoadExportSchema( schemaFile.getPath( ) );
+	}
+
+	@TearDown
+	public void tearDown( )
+	{
+		schemaFile.delete( );
+	}
+
+	private static IDataContent[] row( int columns, int valueLength )
+	{
+		IDataContent[] row = new IDataContent[columns];
+		StringBuilder value = new StringBuilder( valueLength );
+		for ( int i = 0; i < valueLength; i++ )
+		{
+			// some characters need escaping
+			value.append( i % 50 == 49 ? '&' : (char) ( 'a' + i % 26 ) );
+		}
+		for ( int i = 0; i < columns; i++ )
+		{
+			row[i] = ReportStubs.data( "column" + i, value.toString( ) ); //$NON-NLS-1$
+		}
+		return row;
+	}
+
+	private XMLReportEmitter open( LoadExportSchema schema,
+			OutputStream out )
+	{
+		Map<String, Object> options = ReportStubs.map( "outputStream", out ); //$NON-NLS-1$
+		if ( "channel".equals( output ) ) //$NON-NLS-1$
+		{
+			options.put( XMLRenderOption.CHANNEL_OUTPUT, Boolean.TRUE );
+		}
+		else if ( "batch".equals( output ) ) //$NON-NLS-1$
+		{
+			options.put( XMLRenderOption.ROW_BATCH_SIZE, Integer
+					.valueOf( 64 * 1024 ) );
+		}
+		else if ( "binary".equals( output ) ) //$NON-NLS-1$
+		{
+			options.put( XMLRenderOption.BINARY_OUTPUT, Boolean.TRUE );
+		}
+		else if ( "gzip".equals( output ) ) //$NON-NLS-1$
+		{
+			options.put( XMLRenderOption.OUTPUT_COMPRESSION,
+					OutputStreamFactory.COMPRESSION_GZIP );
+		}
+		XMLReportEmitter emitter = ReportStubs.emitter( schema, options,
+				ReportStubs.map( ) );
+		emitter.start( ReportStubs.report( ) );
+		return emitter;
+	}
+
+	private long writeRows( LoadExportSchema schema, IDataContent[] row )
+	{
+		NullOutputStream out = new NullOutputStream( );
+		XMLReportEmitter emitter = open( schema, out );
+		for ( int i = 0; i < ROWS; i++ )
+		{
+			emitter.startRow( ReportStubs.row( ) );
+			for ( int j = 0; j < row.length; j++ )
+			{
+				emitter.startData( row[j] );
+			}
+			emitter.endRow( null );
+		}
+		emitter.end( ReportStubs.report( ) );
+		return out.count;
+	}
+
+	@Benchmark
+	public long narrowRows( )
+	{
+		return writeRows( null, narrowRow );
+	}
+
+	@Benchmark
+	public long wideRows( )
+	{
+		return writeRows( null, wideRow );
+	}
+
+	@Benchmark
+	public long longText( )
+	{
+		return writeRows( null, longTextRow );
+	}
+
+	@Benchmark
+	public long customSchema( )
+	{
+		return writeRows( customSchema, wideRow );
+	}
+
+	@Benchmark
+	public long smallImages( )
+	{
+		NullOutputStream out = new NullOutputStream( );
+		XMLReportEmitter emitter = open( null, out );
+		for ( int i = 0; i < ROWS; i++ )
+		{
+			emitter.startRow( ReportStubs.row( ) );
+			emitter.startData( narrowRow[0] );
+			emitter.startImage( images[i % images.length] );
+			emitter.endRow( null );
+		}
+		emitter.end( ReportStubs.report( ) );
+		return out.count;
+	}
+}
@@ -0,0 +1,422 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Actuate Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *  Actuate Corporation  - initial API and implementation
+ *******************************************************************************/
+
+
+package org.eclipse.birt.report.engine.emitter.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class XMLReportEmitterTest
+{
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder( );
+
+	private File export( Map<String, Object> options, int rows, int columns )
+			throws Exception
+	{
+		File file = folder.newFile( );
+		options.put( "outputFile", file.getPath( ) ); //$NON-NLS-1$
+		XMLReportEmitter emitter = ReportStubs.emitter( null, options,
+				ReportStubs.map( ) );
+		emitter.start( ReportStubs.report( ) );
+		ReportStubs.writeRows( emitter, 0, rows, columns );
+		emitter.end( ReportStubs.report( ) );
+		return file;
+	}
+
+	@Test
+	public void testDefaultSchema( ) throws Exception
+	{
+		File file = export( ReportStubs.map( ), 2, 2 );
+		assertEquals( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" //$NON-NLS-1$
+				+ "<report>\n" //$NON-NLS-1$
+				+ "<row id=\"0\">\n" //$NON-NLS-1$
+				+ "<data name=\"c0\" key=\"\" desc=\"\"><![CDATA[v0_0]]></data>\n" //$NON-NLS-1$
+				+ "<data name=\"c1\" key=\"\" desc=\"\"><![CDATA[v0_1]]></data>\n" //$NON-NLS-1$
+				+ "</row>\n" //$NON-NLS-1$
+				+ "<row id=\"0\">\n" //$NON-NLS-1$
+				+ "<data name=\"c0\" key=\"\" desc=\"\"><![CDATA[v1_0]]></data>\n" //$NON-NLS-1$
+				+ "<data name=\"c1\" key=\"\" desc=\"\"><![CDATA[v1_1]]></data>\n" //$NON-NLS-1$
+				+ "</row>\n" //$NON-NLS-1$
+				+ "</report>", ReportStubs.read( file ) ); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testWritersProduceTheSameOutput( ) throws Exception
+	{
+		String expected = ReportStubs.read( export( ReportStubs.map(
+				XMLRenderOption.ROW_BATCH_SIZE, Integer.valueOf( 0 ) ), 2000,
+				5 ) );
+		Object[][] variants = {
+				{XMLRenderOption.ROW_BATCH_SIZE, Integer.valueOf( 10 )},
+				{XMLRenderOption.ROW_BATCH_SIZE, Integer.valueOf( 65536 )},
+				{XMLRenderOption.CHANNEL_OUTPUT, Boolean.TRUE},
+				{XMLRenderOption.OUTPUT_BUFFER_SIZE, Integer.valueOf( 100 )},
+				{XMLRenderOption.ASYNC_BUFFERS, Integer.valueOf( 2 )},
+				{XMLRenderOption.FLUSH_ROWS, Integer.valueOf( 7 )}};
+		for ( int i = 0; i < variants.length; i++ )
+		{
+			String output = ReportStubs.read( export( ReportStubs.map(
+					variants[i][0], variants[i][1] ), 2000, 5 ) );
+			assertEquals( variants[i][0] + "=" + variants[i][1], expected, //$NON-NLS-1$
+					output );
+		}
+	}
+
+	@Test
+	public void testEscapedValues( ) throws Exception
+	{
+		File file = folder.newFile( );
+		XMLReportEmitter emitter = ReportStubs.emitter( null, ReportStubs
+				.map( "outputFile", file.getPath( ) ), ReportStubs.map( ) ); //$NON-NLS-1$
+		emitter.start( ReportStubs.report( ) );
+		emitter.startRow( ReportStubs.row( ) );
+		emitter.startData( ReportStubs.data( "a\"<b>", "x]]>y\u0001<&" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+		emitter.startLabel( ReportStubs.label( "l]]>" ) ); //$NON-NLS-1$
+		emitter.startText( ReportStubs.text( "t\u0000" ) ); //$NON-NLS-1$
+		emitter.endRow( null );
+		emitter.end( ReportStubs.report( ) );
+
+		Document document = ReportStubs.parse( file );
+		Element data = (Element) document.getElementsByTagName( "data" ) //$NON-NLS-1$
+				.item( 0 );
+		assertEquals( "a\"<b>", data.getAttribute( "name" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals( "x]]>y<&", data.getTextContent( ) ); //$NON-NLS-1$
+		assertEquals( "l]]>", document.getElementsByTagName( "label" ) //$NON-NLS-1$ //$NON-NLS-2$
+				.item( 0 ).getTextContent( ) );
+		assertEquals( "t", document.getElementsByTagName( "text" ) //$NON-NLS-1$ //$NON-NLS-2$
+				.item( 0 ).getTextContent( ) );
+	}
+
+	@Test
+	public void testCustomSchema( ) throws Exception
+	{
+		File schemaFile = folder.newFile( "report.xmlemitter" ); //$NON-NLS-1$
+		Writer schemaWriter = new OutputStreamWriter( new FileOutputStream(
+				schemaFile ), "UTF-8" ); //$NON-NLS-1$
+		schemaWriter.write( "report=<export>\n" //$NON-NLS-1$
+				+ "data=<field name=\"??Name\" key=\"??DataKey\" style=\"??Style\" width=\"??Width\">??value</field>\n" //$NON-NLS-1$
+				+ "label=<caption>??value</caption>\n" //$NON-NLS-1$
+				+ "end=</export>\n" ); //$NON-NLS-1$
+		schemaWriter.close( );
+		LoadExportSchema schema = new LoadExportSchema( schemaFile.getPath( ) );
+
+		File file = folder.newFile( );
+		XMLReportEmitter emitter = ReportStubs.emitter( schema, ReportStubs
+				.map( "outputFile", file.getPath( ) ), ReportStubs.map( ) ); //$NON-NLS-1$
+		emitter.start( ReportStubs.report( ) );
+		emitter.startLabel( ReportStubs.label( "a & b" ) ); //$NON-NLS-1$
+		ReportStubs.writeRows( emitter, 0, 3, 2 );
+		emitter.end( ReportStubs.report( ) );
+
+		Document document = ReportStubs.parse( file );
+		assertEquals( "export", document.getDocumentElement( ).getTagName( ) ); //$NON-NLS-1$
+		assertEquals( "a & b", document.getElementsByTagName( "caption" ) //$NON-NLS-1$ //$NON-NLS-2$
+				.item( 0 ).getTextContent( ) );
+		NodeList fields = document.getElementsByTagName( "field" ); //$NON-NLS-1$
+		assertEquals( 6, fields.getLength( ) );
+		Element field = (Element) fields.item( 5 );
+		assertEquals( "c1", field.getAttribute( "name" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals( "v2_1", field.getTextContent( ) ); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testImageData( ) throws Exception
+	{
+		byte[] data = new byte[100000];
+		for ( int i = 0; i < data.length; i++ )
+		{
+			data[i] = (byte) ( i * 31 );
+		}
+		File file = folder.newFile( );
+		XMLReportEmitter emitter = ReportStubs.emitter( null, ReportStubs
+				.map( "outputFile", file.getPath( ) ), ReportStubs.map( ) ); //$NON-NLS-1$
+		emitter.start( ReportStubs.report( ) );
+		emitter.startRow( ReportStubs.row( ) );
+		emitter.startImage( ReportStubs.image( data ) );
+		emitter.endRow( null );
+		emitter.end( ReportStubs.report( ) );
+
+		String encoded = ReportStubs.parse( file ).getElementsByTagName(
+				"image" ).item( 0 ).getTextContent( ); //$NON-NLS-1$
+		assertTrue( Arrays.equals( data, Base64.getMimeDecoder( ).decode(
+				encoded ) ) );
+	}
+
+	@Test
+	public void testCancellation( ) throws Exception
+	{
+		final long[] progress = new long[3];
+		ExportProgressListener listener = new ExportProgressListener( ) {
+
+			public void progress( long rows, long outputBytes )
+			{
+				progress[0] = rows;
+			}
+
+			public void finished( long rows, long outputBytes, boolean cancelled )
+			{
+				progress[1] = rows;
+				progress[2] = cancelled ? 1 : 0;
+			}
+		};
+		int[] batchSizes = {0, 10, 65536};
+		// the partial row is closed unless it is still captured whole
+		int[] expectedRows = {601, 601, 600};
+		for ( int i = 0; i < batchSizes.length; i++ )
+		{
+			CancellationToken token = new CancellationToken( );
+			File file = folder.newFile( );
+			XMLReportEmitter emitter = ReportStubs.emitter( null, ReportStubs
+					.map( "outputFile", file.getPath( ), //$NON-NLS-1$
+							XMLRenderOption.ROW_BATCH_SIZE, Integer
+									.valueOf( batchSizes[i] ) ), ReportStubs
+					.map( XMLReportEmitter.APPCONTEXT_XML_PROGRESS_LISTENER,
+							listener,
+							XMLReportEmitter.APPCONTEXT_XML_CANCELLATION,
+							token ) );
+			emitter.start( ReportStubs.report( ) );
+			ReportStubs.writeRows( emitter, 0, 600, 3 );
+			// cancelled inside a row
+			emitter.startRow( ReportStubs.row( ) );
+			emitter.startData( ReportStubs.data( "c0", "last" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+			token.cancel( );
+			emitter.startRow( ReportStubs.row( ) );
+			ReportStubs.writeRows( emitter, 600, 700, 3 );
+			emitter.end( ReportStubs.report( ) );
+
+			Document document = ReportStubs.parse( file );
+			assertEquals( expectedRows[i], document.getElementsByTagName( "row" ) //$NON-NLS-1$
+					.getLength( ) );
+			assertEquals( 512, progress[0] );
+			assertEquals( expectedRows[i], progress[1] );
+			assertEquals( 1, progress[2] );
+		}
+	}
+
+	private File exportPages( boolean paginated ) throws Exception
+	{
+		File file = folder.newFile( );
+		XMLReportEmitter emitter = ReportStubs.emitter( null, ReportStubs.map(
+				"outputFile", file.getPath( ), XMLRenderOption.START_PAGE, //$NON-NLS-1$
+				Integer.valueOf( 2 ) ), ReportStubs.map( ), paginated );
+		emitter.start( ReportStubs.report( ) );
+		for ( int i = 0; i < 3; i++ )
+		{
+			emitter.startPage( ReportStubs.page( i + 1 ) );
+			ReportStubs.writeRows( emitter, i * 5, i * 5 + 5, 1 );
+			emitter.endPage( ReportStubs.page( i + 1 ) );
+		}
+		emitter.end( ReportStubs.report( ) );
+		return file;
+	}
+
+	@Test
+	public void testPageRange( ) throws Exception
+	{
+		NodeList data = ReportStubs.parse( exportPages( true ) )
+				.getElementsByTagName( "data" ); //$NON-NLS-1$
+		assertEquals( 10, data.getLength( ) );
+		assertEquals( "v5_0", data.item( 0 ).getTextContent( ) ); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testPageRangeWithoutPagination( ) throws Exception
+	{
+		// ignored rather than skipping the single page of the report
+		assertEquals( 15, ReportStubs.parse( exportPages( false ) )
+				.getElementsByTagName( "data" ).getLength( ) ); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testRowWindow( ) throws Exception
+	{
+		File file = export( ReportStubs.map( XMLRenderOption.FIRST_ROW,
+				Integer.valueOf( 5 ), XMLRenderOption.MAX_ROWS, Integer
+						.valueOf( 3 ) ), 20, 1 );
+		NodeList data = ReportStubs.parse( file ).getElementsByTagName(
+				"data" ); //$NON-NLS-1$
+		assertEquals( 3, data.getLength( ) );
+		assertEquals( "v5_0", data.item( 0 ).getTextContent( ) ); //$NON-NLS-1$
+		assertEquals( "v7_0", data.item( 2 ).getTextContent( ) ); //$NON-NLS-1$
+	}
+
+	@Test
+	public void testSkippedRowsAreNotCounted( ) throws Exception
+	{
+		File file = folder.newFile( );
+		XMLReportEmitter emitter = ReportStubs.emitter( null, ReportStubs.map(
+				"outputFile", file.getPath( ), XMLRenderOption.FIRST_ROW, //$NON-NLS-1$
+				Integer.valueOf( 5 ), XMLRenderOption.MAX_ROWS, Integer
+						.valueOf( 3 ) ), ReportStubs.map( ) );
+		emitter.start( ReportStubs.report( ) );
+		ReportStubs.writeRows( emitter, 0, 20, 2 );
+		emitter.end( ReportStubs.report( ) );
+		assertEquals( 3, emitter.statistics.getRows( ) );
+		assertEquals( 6, emitter.statistics.getData( ) );
+		assertEquals( 6, emitter.statistics.cells );
+	}
+
+	@Test
+	public void testShardedOutput( ) throws Exception
+	{
+		File dir = folder.newFolder( );
+		XMLReportEmitter emitter = ReportStubs.emitter( null, ReportStubs.map(
+				"outputFile", new File( dir, "report.xml" ).getPath( ), //$NON-NLS-1$ //$NON-NLS-2$
+				XMLRenderOption.SHARD_COUNT, Integer.valueOf( 3 ),
+				XMLRenderOption.SHARD_KEY, "c0" ), ReportStubs.map( ) ); //$NON-NLS-1$
+		emitter.start( ReportStubs.report( ) );
+		ReportStubs.writeRows( emitter, 0, 300, 2 );
+		emitter.end( ReportStubs.report( ) );
+
+		File[] shards = dir.listFiles( );
+		assertEquals( 3, shards.length );
+		int rows = 0;
+		for ( int i = 0; i < shards.length; i++ )
+		{
+			rows += ReportStubs.parse( shards[i] ).getElementsByTagName( "row" ) //$NON-NLS-1$
+					.getLength( );
+		}
+		assertEquals( 300, rows );
+	}
+
+	@Test
+	public void testSplitOutput( ) throws Exception
+	{
+		File dir = folder.newFolder( );
+		XMLReportEmitter emitter = ReportStubs.emitter( null, ReportStubs.map(
+				"outputFile", new File( dir, "report.xml" ).getPath( ), //$NON-NLS-1$ //$NON-NLS-2$
+				XMLRenderOption.SPLIT_ROWS, Integer.valueOf( 50 ) ),
+				ReportStubs.map( ) );
+		emitter.start( ReportStubs.report( ) );
+		ReportStubs.writeRows( emitter, 0, 100, 2 );
+		emitter.end( ReportStubs.report( ) );
+
+		// the last part is full, but no empty part follows it
+		assertEquals( 50, ReportStubs.parse( new File( dir, "report-1.xml" ) ) //$NON-NLS-1$
+				.getElementsByTagName( "row" ).getLength( ) ); //$NON-NLS-1$
+		assertEquals( 50, ReportStubs.parse( new File( dir, "report-2.xml" ) ) //$NON-NLS-1$
+				.getElementsByTagName( "row" ).getLength( ) ); //$NON-NLS-1$
+		assertTrue( !new File( dir, "report-3.xml" ).exists( ) ); //$NON-NLS-1$
+		NodeList parts = ReportStubs.parse(
+				new File( dir, "report-manifest.xml" ) ).getElementsByTagName( //$NON-NLS-1$
+				"part" ); //$NON-NLS-1$
+		assertEquals( 2, parts.getLength( ) );
+		Element last = (Element) parts.item( 1 );
+		assertEquals( "51", last.getAttribute( "firstRow" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+		assertEquals( "100", last.getAttribute( "lastRow" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	@Test
+	public void testSlowImagesKeepTheirRows( ) throws Exception
+	{
+		HttpServer server = HttpServer.create( new InetSocketAddress(
+				"127.0.0.1", 0 ), 0 ); //$NON-NLS-1$
+		server.createContext( "/", new HttpHandler( ) { //$NON-NLS-1$
+
+			public void handle( HttpExchange exchange ) throws IOException
+			{
+				String path = exchange.getRequestURI( ).getPath( );
+				if ( path.endsWith( "/0" ) ) //$NON-NLS-1$
+				{
+					try
+					{
+						Thread.sleep( 300 );
+					}
+					catch ( InterruptedException e )
+					{
+						Thread.currentThread( ).interrupt( );
+					}
+				}
+				byte[] body = path.getBytes( "UTF-8" ); //$NON-NLS-1$
+				exchange.sendResponseHeaders( 200, body.length );
+				exchange.getResponseBody( ).write( body );
+				exchange.close( );
+			}
+		} );
+		server.setExecutor( Executors.newFixedThreadPool( 4 ) );
+		server.start( );
+		try
+		{
+			String base = "http://127.0.0.1:" //$NON-NLS-1$
+					+ server.getAddress( ).getPort( ) + "/image/"; //$NON-NLS-1$
+			int[] batchSizes = {10, 65536};
+			for ( int b = 0; b < batchSizes.length; b++ )
+			{
+				File file = folder.newFile( );
+				XMLReportEmitter emitter = ReportStubs.emitter( null,
+						ReportStubs.map( "outputFile", file.getPath( ), //$NON-NLS-1$
+								XMLRenderOption.ROW_BATCH_SIZE, Integer
+										.valueOf( batchSizes[b] ),
+								XMLRenderOption.IMAGE_FETCH_THREADS, Integer
+										.valueOf( 4 ),
+								XMLRenderOption.IMAGE_CACHE, Boolean.FALSE ),
+						ReportStubs.map( ) );
+				emitter.start( ReportStubs.report( ) );
+				long end = System.currentTimeMillis( ) + 600;
+				int rows = 0;
+				// rows keep coming while the first image is being fetched
+				while ( rows < 20 || System.currentTimeMillis( ) < end )
+				{
+					emitter.startRow( ReportStubs.row( ) );
+					emitter.startData( ReportStubs.data( "c0", "v" + rows ) ); //$NON-NLS-1$ //$NON-NLS-2$
+					emitter.startImage( ReportStubs.image( base + rows ) );
+					emitter.endRow( null );
+					rows++;
+					Thread.sleep( 5 );
+				}
+				emitter.end( ReportStubs.report( ) );
+
+				NodeList rowElements = ReportStubs.parse( file )
+						.getElementsByTagName( "row" ); //$NON-NLS-1$
+				assertEquals( rows, rowElements.getLength( ) );
+				for ( int i = 0; i < rows; i++ )
+				{
+					Element row = (Element) rowElements.item( i );
+					assertEquals( "v" + i, row.getElementsByTagName( "data" ) //$NON-NLS-1$ //$NON-NLS-2$
+							.item( 0 ).getTextContent( ) );
+					String image = row.getElementsByTagName( "image" ) //$NON-NLS-1$
+							.item( 0 ).getTextContent( );
+					assertEquals( "/image/" + i, new String( Base64 //$NON-NLS-1$
+							.getMimeDecoder( ).decode( image ), "UTF-8" ) ); //$NON-NLS-1$
+				}
+			}
+		}
+		finally
+		{
+			server.stop( 0 );
+		}
+	}
+}